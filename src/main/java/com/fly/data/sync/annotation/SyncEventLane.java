@@ -0,0 +1,30 @@
+package com.fly.data.sync.annotation;
+
+import java.lang.annotation.*;
+
+/**
+ * 异步投递数据变更事件时监听的通道配置，标注在监听方法或监听类上
+ *
+ * @author guoxiang
+ * @version 1.0.0
+ * @since 2021/12/8
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD, ElementType.TYPE})
+public @interface SyncEventLane {
+
+    /**
+     * 监听的并行通道数，同一个表的事件始终进入同一通道，小于1时使用全局配置 sync.data.event.parallelism
+     *
+     * @return parallelism
+     */
+    int parallelism() default -1;
+
+    /**
+     * 每个通道的队列长度，小于1时使用全局配置 sync.data.event.capacity
+     *
+     * @return capacity
+     */
+    int capacity() default -1;
+}
@@ -0,0 +1,16 @@
+package com.fly.data.sync.annotation;
+
+import java.lang.annotation.*;
+
+/**
+ * 本地副本缓存的二级索引字段注解，模型开启缓存（SyncTable#cacheSize）时可按该字段值查询
+ *
+ * @author guoxiang
+ * @version 1.0.0
+ * @since 2021/12/10
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface SyncIndex {
+}
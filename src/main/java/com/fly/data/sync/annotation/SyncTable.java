@@ -1,5 +1,7 @@
 package com.fly.data.sync.annotation;
 
+import com.fly.data.sync.constant.SyncStrategy;
+
 import java.lang.annotation.*;
 
 /**
@@ -17,4 +19,39 @@ public @interface SyncTable {
      */
     String value() default "";
 
+    /**
+     * 全量同步时并行拉取的页数，小于1时使用全局配置 sync.data.page.parallelism
+     *
+     * @return page parallelism
+     */
+    int pageParallelism() default -1;
+
+    /**
+     * 全量同步时已拉取、等待写入临时表的页队列长度，小于1时使用全局配置 sync.data.page.queue-size
+     *
+     * @return page queue size
+     */
+    int pageQueueSize() default -1;
+
+    /**
+     * 全量同步时需要先于本表完成同步的表（如外键引用的父表）
+     *
+     * @return table names
+     */
+    String[] dependsOn() default {};
+
+    /**
+     * 全量同步写入主表的方式，REPLACE时增量全量同步和范围比对同步均按全量同步执行
+     *
+     * @return strategy
+     */
+    SyncStrategy strategy() default SyncStrategy.DIFF;
+
+    /**
+     * 本地副本缓存的最大行数，按最近最少使用淘汰，小于1时不缓存
+     *
+     * @return cache size
+     */
+    int cacheSize() default 0;
+
 }
@@ -1,12 +1,26 @@
 package com.fly.data.sync.config;
 
+import com.fly.data.sync.dao.BulkLoader;
+import com.fly.data.sync.dao.LockDao;
 import com.fly.data.sync.dao.ModelDao;
+import com.fly.data.sync.dao.SyncStateDao;
 import com.fly.data.sync.service.DefaultEtlServiceImpl;
+import com.fly.data.sync.service.DeltaCoalescer;
+import com.fly.data.sync.service.DeltaDispatcher;
 import com.fly.data.sync.service.EtlService;
+import com.fly.data.sync.service.EventDispatcher;
+import com.fly.data.sync.service.LeaderElector;
+import com.fly.data.sync.service.ReplicaCache;
 import com.fly.data.sync.service.SyncDataService;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.amqp.core.AmqpAdmin;
 import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.annotation.Bean;
@@ -14,9 +28,15 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.retry.annotation.EnableRetry;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.web.client.RestTemplate;
 
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static com.fly.data.sync.service.EventDispatcher.*;
+
 /**
  * sync data config
  *
@@ -42,16 +62,61 @@ public class SyncDataConfig {
 
     @Bean
     public ModelDao modelDao(JdbcTemplate jdbcTemplate,
-                             NamedParameterJdbcTemplate namedParameterJdbcTemplate) {
-        return new ModelDao(jdbcTemplate, namedParameterJdbcTemplate);
+                             NamedParameterJdbcTemplate namedParameterJdbcTemplate,
+                             ObjectProvider<BulkLoader> bulkLoaderProvider) {
+        return new ModelDao(jdbcTemplate, namedParameterJdbcTemplate, bulkLoaderProvider.orderedStream().collect(Collectors.toList()));
+    }
+
+    @Bean
+    public LockDao lockDao(JdbcTemplate jdbcTemplate) {
+        return new LockDao(jdbcTemplate);
+    }
+
+    @Bean
+    public SyncStateDao syncStateDao(JdbcTemplate jdbcTemplate, ModelDao modelDao) {
+        return new SyncStateDao(jdbcTemplate, modelDao::getDialect);
+    }
+
+    @Bean
+    public LeaderElector leaderElector(LockDao lockDao, SyncDataContext syncDataContext) {
+        return new LeaderElector(lockDao, syncDataContext);
     }
 
     @Bean
     public SyncDataService syncDataService(ModelDao modelDao,
                                            EtlService etlService,
-                                           ApplicationEventPublisher publisher,
+                                           EventDispatcher eventDispatcher,
+                                           ReplicaCache replicaCache,
+                                           SyncDataContext syncDataContext,
+                                           LeaderElector leaderElector,
+                                           SyncStateDao syncStateDao,
+                                           PlatformTransactionManager transactionManager) {
+        return new SyncDataService(modelDao, eventDispatcher, replicaCache, etlService, syncDataContext, leaderElector,
+                syncStateDao, transactionManager);
+    }
+
+    @Bean
+    public EventDispatcher eventDispatcher(ApplicationEventPublisher publisher, SyncDataContext syncDataContext) {
+        return new EventDispatcher(publisher, syncDataContext);
+    }
+
+    @Bean
+    public ReplicaCache replicaCache(ModelDao modelDao, SyncDataContext syncDataContext) {
+        return new ReplicaCache(modelDao, syncDataContext);
+    }
+
+    @Bean
+    public DeltaCoalescer deltaCoalescer(EtlService etlService,
+                                         SyncDataService syncDataService,
+                                         SyncDataContext syncDataContext) {
+        return new DeltaCoalescer(etlService, syncDataService, syncDataContext);
+    }
+
+    @Bean
+    public DeltaDispatcher deltaDispatcher(EtlService etlService,
+                                           SyncDataService syncDataService,
                                            SyncDataContext syncDataContext) {
-        return new SyncDataService(modelDao, publisher, etlService, syncDataContext);
+        return new DeltaDispatcher(etlService, syncDataService, syncDataContext);
     }
 
     @Bean
@@ -59,8 +124,77 @@ public class SyncDataConfig {
                                              SimpleRabbitListenerContainerFactory containerFactory,
                                              AmqpAdmin rabbitAdmin,
                                              SyncDataService syncDataService,
+                                             DeltaCoalescer deltaCoalescer,
+                                             DeltaDispatcher deltaDispatcher,
+                                             LeaderElector leaderElector,
                                              SyncDataContext syncDataContext) {
-        return new SyncDataListener(publisher, containerFactory, rabbitAdmin, syncDataService, syncDataContext);
+        return new SyncDataListener(publisher, containerFactory, rabbitAdmin, syncDataService,
+                deltaCoalescer, deltaDispatcher, leaderElector, syncDataContext);
+    }
+
+
+    /**
+     * classpath中存在micrometer时，暴露增量分发通道的队列长度、死信数量和本地副本缓存的命中情况
+     */
+    @Configuration
+    @ConditionalOnClass(MeterRegistry.class)
+    static class SyncDataMetricsConfig {
+
+        @Bean
+        public MeterBinder deltaDispatcherMetrics(DeltaDispatcher deltaDispatcher) {
+            return registry -> {
+                for (int i = 0; i < deltaDispatcher.getLaneSize(); i++) {
+                    int lane = i;
+                    Gauge.builder("sync.data.dispatch.queue.depth", deltaDispatcher, d -> d.getQueueDepth(lane))
+                            .tag("lane", String.valueOf(lane))
+                            .description("pending delta messages of dispatch lane")
+                            .register(registry);
+                }
+                Gauge.builder("sync.data.dispatch.dead.letters", deltaDispatcher, DeltaDispatcher::getDeadLetterCount)
+                        .description("delta messages parked after retries failed")
+                        .register(registry);
+            };
+        }
+
+        @Bean
+        public MeterBinder deltaCoalescerMetrics(DeltaCoalescer deltaCoalescer) {
+            return registry -> Gauge.builder("sync.data.coalesce.dead.letters", deltaCoalescer, DeltaCoalescer::getDeadLetterCount)
+                    .description("coalesced delta rows parked after retries failed")
+                    .register(registry);
+        }
+
+        @Bean
+        public MeterBinder eventDispatcherMetrics(EventDispatcher eventDispatcher) {
+            return registry -> Stream.of(DROP_OVERFLOW, DROP_LISTENER_ERROR, DROP_SPILL_ERROR).forEach(reason ->
+                    FunctionCounter.builder("sync.data.event.dropped", eventDispatcher, d -> d.getDroppedCount(reason))
+                            .tag("reason", reason)
+                            .description("async data events dropped without being handled")
+                            .register(registry));
+        }
+
+        @Bean
+        public MeterBinder replicaCacheMetrics(ReplicaCache replicaCache, SyncDataContext syncDataContext) {
+            return registry -> syncDataContext.getTableList().stream()
+                    .filter(table -> syncDataContext.getDataModel(table).isCached())
+                    .forEach(table -> {
+                        Gauge.builder("sync.data.cache.size", replicaCache, c -> c.getStats(table).getSize())
+                                .tag("table", table)
+                                .description("rows in replica cache")
+                                .register(registry);
+                        FunctionCounter.builder("sync.data.cache.requests", replicaCache, c -> c.getStats(table).getHitCount())
+                                .tags("table", table, "result", "hit")
+                                .description("replica cache lookups")
+                                .register(registry);
+                        FunctionCounter.builder("sync.data.cache.requests", replicaCache, c -> c.getStats(table).getMissCount())
+                                .tags("table", table, "result", "miss")
+                                .description("replica cache lookups")
+                                .register(registry);
+                        FunctionCounter.builder("sync.data.cache.evictions", replicaCache, c -> c.getStats(table).getEvictionCount())
+                                .tag("table", table)
+                                .description("rows evicted from replica cache")
+                                .register(registry);
+                    });
+        }
     }
 
 }
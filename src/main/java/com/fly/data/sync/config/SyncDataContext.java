@@ -1,7 +1,12 @@
 package com.fly.data.sync.config;
 
 import com.fly.data.sync.annotation.SyncTable;
+import com.fly.data.sync.constant.SyncOperation;
 import com.fly.data.sync.entity.DataModel;
+import com.fly.data.sync.event.ChangeSet;
+import com.fly.data.sync.event.DataAddEvent;
+import com.fly.data.sync.event.DataDeleteEvent;
+import com.fly.data.sync.event.DataUpdateEvent;
 import com.fly.data.sync.util.SyncCheck;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
@@ -9,12 +14,26 @@ import org.springframework.beans.factory.config.BeanDefinition;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.PayloadApplicationEvent;
 import org.springframework.context.annotation.ClassPathScanningCandidateComponentProvider;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.context.event.GenericApplicationListener;
+import org.springframework.context.event.GenericApplicationListenerAdapter;
+import org.springframework.context.support.AbstractApplicationContext;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.annotation.AnnotationAwareOrderComparator;
 import org.springframework.core.type.filter.AnnotationTypeFilter;
 import org.springframework.util.CollectionUtils;
 
 import javax.annotation.PostConstruct;
 import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -33,10 +52,24 @@ public class SyncDataContext implements ApplicationContextAware {
     @Value("${data.sync.scan.package:}")
     private String scanPackage;
 
+    /**
+     * 全量同步时是否跳过没有监听的数据变更事件的查询
+     */
+    @Value("${sync.data.event.skip-unobserved:true}")
+    private boolean skipUnobserved;
+
     private static final Map<String, DataModel<?>> MODEL_MAP = new ConcurrentHashMap<>();
 
     private static final List<String> TABLE_LIST = new ArrayList<>();
 
+    private static final Map<SyncOperation, Class<?>> EVENT_CLASS_MAP = new EnumMap<>(SyncOperation.class);
+
+    static {
+        EVENT_CLASS_MAP.put(SyncOperation.ADD, DataAddEvent.class);
+        EVENT_CLASS_MAP.put(SyncOperation.UPDATE, DataUpdateEvent.class);
+        EVENT_CLASS_MAP.put(SyncOperation.DELETE, DataDeleteEvent.class);
+    }
+
 
     /**
      * 初始化
@@ -60,9 +93,87 @@ public class SyncDataContext implements ApplicationContextAware {
         }
 
         resolveDataModel(tableClassNameList);
+
+        sortByDependency();
+    }
+
+
+
+    /**
+     * 容器刷新后（@EventListener方法已注册）按模型和变更类型解析是否有事件监听。
+     * 事件以PayloadApplicationEvent发布，泛型由ResolvableTypeProvider提供，
+     * 按同样的类型判断监听是否支持；能接收任意ApplicationEvent的监听（如框架内部的转发监听）不计入
+     *
+     * @param event 容器刷新事件
+     */
+    @EventListener(ContextRefreshedEvent.class)
+    public void resolveObserver(ContextRefreshedEvent event) {
+        if (!skipUnobserved || event.getApplicationContext() != applicationContext) {
+            return;
+        }
+
+        MODEL_MAP.values().forEach(model -> {
+            Set<SyncOperation> observedSet = EnumSet.noneOf(SyncOperation.class);
+            EVENT_CLASS_MAP.forEach((operation, eventClass) -> {
+                ResolvableType eventType = ResolvableType.forClassWithGenerics(PayloadApplicationEvent.class,
+                        ResolvableType.forClassWithGenerics(eventClass, model.getModelClass()));
+
+                if (!getDataEventListeners(eventType).isEmpty()) {
+                    observedSet.add(operation);
+                }
+            });
+
+            ResolvableType changeSetType = ResolvableType.forClassWithGenerics(PayloadApplicationEvent.class,
+                    ResolvableType.forClassWithGenerics(ChangeSet.class, model.getModelClass()));
+            boolean changeSetObserved = !getDataEventListeners(changeSetType).isEmpty();
+
+            model.setObservedOperationSet(observedSet);
+            model.setChangeSetObserved(changeSetObserved);
+            log.info("- observed operation for table: {}, {}, change set: {}", model.getTable(), observedSet, changeSetObserved);
+        });
+    }
+
+
+    /**
+     * 支持该类型数据变更事件的监听，按order排序，能接收任意ApplicationEvent的监听不包含在内
+     *
+     * @param eventType PayloadApplicationEvent类型
+     * @return          监听
+     */
+    public List<ApplicationListener<?>> getDataEventListeners(ResolvableType eventType) {
+        ResolvableType anyEventType = ResolvableType.forClass(ApplicationEvent.class);
+
+        List<ApplicationListener<?>> result = getApplicationListeners().stream()
+                .filter(listener -> {
+                    GenericApplicationListener generic = listener instanceof GenericApplicationListener
+                            ? (GenericApplicationListener) listener
+                            : new GenericApplicationListenerAdapter(listener);
+                    return !generic.supportsEventType(anyEventType) && generic.supportsEventType(eventType);
+                })
+                .collect(Collectors.toList());
+
+        AnnotationAwareOrderComparator.sort(result);
+        return result;
     }
 
 
+    /**
+     * 当前容器及父容器中的全部监听，事件会同时发布到父容器
+     */
+    private Set<ApplicationListener<?>> getApplicationListeners() {
+        Set<ApplicationListener<?>> listenerSet = new LinkedHashSet<>();
+
+        for (ApplicationContext context = applicationContext; context != null; context = context.getParent()) {
+            if (context instanceof AbstractApplicationContext) {
+                listenerSet.addAll(((AbstractApplicationContext) context).getApplicationListeners());
+            }
+            context.getBeansOfType(ApplicationListener.class, false, false).values()
+                    .forEach(listenerSet::add);
+        }
+
+        return listenerSet;
+    }
+
 
     @SuppressWarnings("unchecked")
     public <T> DataModel<T> getDataModel(String tableName) {
@@ -151,6 +262,45 @@ public class SyncDataContext implements ApplicationContextAware {
 
 
 
+    /**
+     * 按dependsOn对表排序，被依赖的表在前，存在循环依赖时抛出异常
+     */
+    private void sortByDependency() {
+        List<String> sortedList = new ArrayList<>(TABLE_LIST.size());
+        Set<String> visiting = new HashSet<>();
+
+        TABLE_LIST.forEach(table -> visitDependency(table, sortedList, visiting));
+
+        TABLE_LIST.clear();
+        TABLE_LIST.addAll(sortedList);
+
+        log.info("- sorted table list: {}", TABLE_LIST);
+    }
+
+
+    private void visitDependency(String table, List<String> sortedList, Set<String> visiting) {
+        if (sortedList.contains(table)) {
+            return;
+        }
+
+        if (!visiting.add(table)) {
+            throw new IllegalStateException("circular dependsOn found for table: " + table);
+        }
+
+        for (String dependency : MODEL_MAP.get(table).getDependsOn()) {
+            if (!MODEL_MAP.containsKey(dependency)) {
+                log.warn("- table {} depends on {}, which is not a sync table, ignore...", table, dependency);
+                continue;
+            }
+            visitDependency(dependency, sortedList, visiting);
+        }
+
+        visiting.remove(table);
+        sortedList.add(table);
+    }
+
+
+
     @Override
     public void setApplicationContext(ApplicationContext applicationContext) {
         this.applicationContext = applicationContext;
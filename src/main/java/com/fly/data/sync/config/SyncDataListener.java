@@ -1,8 +1,12 @@
 package com.fly.data.sync.config;
 
+import com.fly.data.sync.constant.SyncMode;
 import com.fly.data.sync.entity.DataModel;
 import com.fly.data.sync.event.SyncAllEvent;
 import com.fly.data.sync.event.SyncEvent;
+import com.fly.data.sync.service.DeltaCoalescer;
+import com.fly.data.sync.service.DeltaDispatcher;
+import com.fly.data.sync.service.LeaderElector;
 import com.fly.data.sync.service.SyncDataService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -16,16 +20,27 @@ import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.Lifecycle;
 import org.springframework.context.event.EventListener;
 import org.springframework.scheduling.annotation.Async;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.transaction.event.TransactionalEventListener;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
 
 import static com.fly.data.sync.constant.SyncEventSource.APPLICATION_START;
+import static com.fly.data.sync.constant.SyncEventSource.LEADER_ELECTED;
 import static com.fly.data.sync.util.SyncCheck.notBlank;
 
 @Slf4j
@@ -38,8 +53,34 @@ public class SyncDataListener {
     @Value("${sync.data.queue:}")
     private String queueName;
 
-    @Value("${sync.data.cluster: false}")
-    private boolean isCluster;
+    /**
+     * 全量同步时并行同步的表数量，1表示按顺序同步
+     */
+    @Value("${sync.data.table.parallelism:1}")
+    private int tableParallelism;
+
+    /**
+     * 批量消费消息的数量，1表示逐条消费
+     */
+    @Value("${sync.data.batch.size:1}")
+    private int batchSize;
+
+    /**
+     * 批量消费时等待消息凑满一批的最长时间（毫秒）
+     */
+    @Value("${sync.data.batch.wait:500}")
+    private long batchWait;
+
+    /**
+     * 并行同步多表的线程池
+     */
+    private ExecutorService tableExecutor;
+
+    /**
+     * 集群模式下主节点/表归属变化后执行全量同步的线程，
+     * 选举的通知线程只负责启停消息监听，不被耗时的全量同步阻塞
+     */
+    private ExecutorService ownerSyncExecutor;
 
 
     /**
@@ -57,14 +98,38 @@ public class SyncDataListener {
 
     private final SyncDataService syncDataService;
 
+    private final DeltaCoalescer deltaCoalescer;
+
+    private final DeltaDispatcher deltaDispatcher;
+
+    private final LeaderElector leaderElector;
+
     private final SyncDataContext syncDataContext;
 
     private final List<MessageListenerContainer> messageListenerContainerList = new ArrayList<>();
 
+    /**
+     * 分片模式下当前节点持有的表
+     */
+    private final Set<String> ownedTableSet = ConcurrentHashMap.newKeySet();
+
     @PostConstruct
     public void init() {
         configQueue = notBlank(queueName);
         queueName = configQueue ? queueName : "sync.data.queue." + UUID.randomUUID();
+
+        //分片模式下每个节点都需要收到全部消息，再按表过滤，配置的队列名加上节点id区分
+        if (configQueue && leaderElector.isShard()) {
+            queueName = queueName + "." + leaderElector.getNodeId();
+        }
+
+        if (tableParallelism > 1) {
+            tableExecutor = Executors.newFixedThreadPool(tableParallelism, new CustomizableThreadFactory("sync-table-"));
+        }
+
+        if (leaderElector.isCluster()) {
+            ownerSyncExecutor = Executors.newSingleThreadExecutor(new CustomizableThreadFactory("sync-owner-"));
+        }
     }
 
 
@@ -82,17 +147,86 @@ public class SyncDataListener {
             return;
         }
 
-        //创建消息监听器
-        createMessageListener();
-
         //创建临时表
         tableList.forEach(this::createTempTable);
 
+        //分片模式：所有节点消费消息，只处理持有的表，持有新的表时全量同步该表
+        if (leaderElector.isShard()) {
+            createMessageListener();
+            leaderElector.addTableListener(this::onTableOwnerChange);
+            return;
+        }
+
+        //集群模式：成为主节点后再创建消息监听器并全量同步
+        if (leaderElector.isCluster()) {
+            leaderElector.addListener(this::onLeaderChange);
+            return;
+        }
+
+        //创建消息监听器
+        createMessageListener();
+
         //全量同步数据
         publisher.publishEvent(new SyncAllEvent(APPLICATION_START));
     }
 
 
+    /**
+     * 集群模式主节点变化：成为主节点时开始消费消息并全量同步，失去主节点时停止消费
+     *
+     * @param leader    当前节点是否是主节点
+     */
+    private synchronized void onLeaderChange(boolean leader) {
+        if (leader == !messageListenerContainerList.isEmpty()) {
+            return;
+        }
+
+        if (!leader) {
+            stopMessageListener();
+            return;
+        }
+
+        createMessageListener();
+
+        //全量同步前已失去主节点时跳过，重新当选时会再次同步
+        ownerSyncExecutor.execute(() -> {
+            if (leaderElector.isLeader()) {
+                publisher.publishEvent(new SyncAllEvent(LEADER_ELECTED));
+            }
+        });
+    }
+
+
+    /**
+     * 分片模式表归属变化：持有新的表时全量同步该表，释放的表由消息过滤和fence校验停止写入
+     *
+     * @param table     表名
+     * @param owner     当前节点是否持有该表
+     */
+    private void onTableOwnerChange(String table, boolean owner) {
+        if (!owner) {
+            ownedTableSet.remove(table);
+            return;
+        }
+
+        if (!leaderElector.isOwner(table) || !ownedTableSet.add(table)) {
+            return;
+        }
+
+        ownerSyncExecutor.execute(() -> {
+            if (!leaderElector.isOwner(table)) {
+                return;
+            }
+
+            try {
+                sync(syncDataContext.getDataModel(table), SyncMode.TOTAL);
+            } catch (Exception e) {
+                log.error("- sync owned table {} error", table, e);
+            }
+        });
+    }
+
+
 
     /**
      * 同步所有的表
@@ -102,16 +236,63 @@ public class SyncDataListener {
     public void onSyncAllEvent(SyncAllEvent event) {
         log.info("- on SyncAllEvent: {}", event);
 
-        List<String> tableList = syncDataContext.getTableList();
+        //只同步当前节点负责的表：非集群模式为全部表，主从模式下只有主节点同步，分片模式为持有的表
+        List<String> tableList = syncDataContext.getTableList()
+                .stream()
+                .filter(leaderElector::isOwner)
+                .collect(Collectors.toList());
+
+        if (tableList.isEmpty()) {
+            log.info("- no table owned by current node, skip SyncAllEvent...");
+            return;
+        }
 
-        tableList.stream()
-                .map(syncDataContext::getDataModel)
-                .forEach(syncDataService::syncTotal);
+        if (tableExecutor == null) {
+            tableList.stream()
+                    .map(syncDataContext::getDataModel)
+                    .forEach(model -> sync(model, event.getMode()));
+        } else {
+            syncParallel(tableList, event.getMode());
+        }
 
         log.info("- finish SyncAllEvent...");
     }
 
 
+    /**
+     * 并行同步多个表：每个表在其dependsOn的表同步成功后提交到线程池，
+     * tableList已按依赖排序，被依赖的表先创建任务
+     *
+     * @param tableList     表
+     * @param mode          同步方式
+     */
+    private void syncParallel(List<String> tableList, SyncMode mode) {
+        Map<String, CompletableFuture<Void>> futureMap = new HashMap<>(tableList.size());
+
+        for (String table : tableList) {
+            DataModel<?> model = syncDataContext.getDataModel(table);
+
+            CompletableFuture<?>[] dependencies = model.getDependsOn()
+                    .stream()
+                    .map(futureMap::get)
+                    .filter(Objects::nonNull)
+                    .toArray(CompletableFuture[]::new);
+
+            CompletableFuture<Void> future = CompletableFuture.allOf(dependencies)
+                    .thenRunAsync(() -> sync(model, mode), tableExecutor)
+                    .whenComplete((r, e) -> {
+                        if (e != null) {
+                            log.error("- sync table {} error", table, e);
+                        }
+                    });
+
+            futureMap.put(table, future);
+        }
+
+        CompletableFuture.allOf(futureMap.values().toArray(new CompletableFuture[0])).join();
+    }
+
+
     /**
      * 监听单个数据模型事件
      *
@@ -122,23 +303,43 @@ public class SyncDataListener {
         DataModel<T> dataModel = event.getDataModel();
         log.info("- on SyncEvent for model: {}", dataModel.getTable());
 
-        syncDataService.syncTotal(dataModel);
+        if (!leaderElector.isOwner(dataModel.getTable())) {
+            log.info("- table is not owned by current node, skip SyncEvent...");
+            return;
+        }
+
+        sync(dataModel, event.getMode());
 
         log.info("- finish SyncEvent for model: {}", dataModel.getTable());
     }
 
 
+    /**
+     * 按同步方式同步单个数据模型
+     *
+     * @param model     数据模型
+     * @param mode      同步方式
+     */
+    private <T> void sync(DataModel<T> model, SyncMode mode) {
+        switch (mode) {
+            case INCREMENTAL:
+                syncDataService.syncIncremental(model);
+                break;
+            case RECONCILE:
+                syncDataService.syncReconcile(model);
+                break;
+            default:
+                syncDataService.syncTotal(model);
+        }
+    }
+
+
     /**
      * 创建消息监听器
      */
     private void createMessageListener() {
         log.info("- create message listener");
 
-        //判断当前节点是否是主节点，若不是，则退出
-        if (!isLeader()) {
-            return;
-        }
-
 
         //生成队列、交换机和绑定规则
         Queue queue = new Queue(queueName);
@@ -152,7 +353,16 @@ public class SyncDataListener {
         SimpleMessageListenerContainer container = containerFactory.createListenerContainer();
 
         container.setQueues(queue);
-        container.setMessageListener(this::handleMessage);
+
+        if (batchSize > 1) {
+            //最多batchSize条消息或等待batchWait毫秒后作为一批处理
+            container.setConsumerBatchEnabled(true);
+            container.setBatchSize(batchSize);
+            container.setReceiveTimeout(batchWait);
+            container.setMessageListener((BatchMessageListener) this::handleMessageBatch);
+        } else {
+            container.setMessageListener(this::handleMessage);
+        }
         container.setDefaultRequeueRejected(false);
         container.start();
 
@@ -161,18 +371,17 @@ public class SyncDataListener {
 
 
     /**
-     * 检测是否是主节点
-     *
-     * @return 是否
+     * 停止消息监听器，随机队列同时删除，重新成为主节点时全量同步补齐期间的数据
      */
-    private boolean isLeader() {
-        if (!isCluster) {
-            return true;
-        }
+    private void stopMessageListener() {
+        messageListenerContainerList.forEach(Lifecycle::stop);
+        messageListenerContainerList.clear();
 
-        // TODO: 2021/10/28 以后兼容多节点模式
+        if (!configQueue) {
+            rabbitAdmin.deleteQueue(queueName);
+        }
 
-        return false;
+        log.info("- stop message listener, queue: {}", queueName);
     }
 
 
@@ -187,10 +396,46 @@ public class SyncDataListener {
 
         String json = new String(body, StandardCharsets.UTF_8);
 
+        if (deltaCoalescer.isEnabled()) {
+            deltaCoalescer.submit(json);
+            return;
+        }
+
+        if (deltaDispatcher.isEnabled()) {
+            deltaDispatcher.dispatch(json);
+            return;
+        }
+
         syncDataService.syncDelta(json);
     }
 
 
+    /**
+     * 批量处理消息
+     *
+     * @param messageList   消息
+     */
+    private void handleMessageBatch(List<Message> messageList) {
+        log.info("- receive message batch, size = {}", messageList.size());
+
+        List<String> jsonList = messageList.stream()
+                .map(message -> new String(message.getBody(), StandardCharsets.UTF_8))
+                .collect(Collectors.toList());
+
+        if (deltaCoalescer.isEnabled()) {
+            jsonList.forEach(deltaCoalescer::submit);
+            return;
+        }
+
+        if (deltaDispatcher.isEnabled()) {
+            jsonList.forEach(deltaDispatcher::dispatch);
+            return;
+        }
+
+        syncDataService.syncDeltaBatch(jsonList);
+    }
+
+
     /**
      * 创建临时表
      *
@@ -205,9 +450,17 @@ public class SyncDataListener {
      * 销毁消息监听器和队列
      */
     @PreDestroy
-    public void stopListenerList() {
+    public synchronized void stopListenerList() {
         messageListenerContainerList.forEach(Lifecycle::stop);
 
+        if (tableExecutor != null) {
+            tableExecutor.shutdownNow();
+        }
+
+        if (ownerSyncExecutor != null) {
+            ownerSyncExecutor.shutdownNow();
+        }
+
         //如果是随机队列，则删除
         if (!configQueue) {
             rabbitAdmin.deleteQueue(queueName);
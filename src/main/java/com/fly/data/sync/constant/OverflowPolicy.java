@@ -0,0 +1,13 @@
+package com.fly.data.sync.constant;
+
+/**
+ * 异步事件通道已满时的处理方式
+ */
+public enum OverflowPolicy {
+    //阻塞发布线程，直到通道有空位；超过sync.data.event.block-timeout后写入本地文件，同SPILL
+    BLOCK,
+    //丢弃事件，记录日志
+    DROP,
+    //写入本地文件，通道空闲后按顺序读回
+    SPILL
+}
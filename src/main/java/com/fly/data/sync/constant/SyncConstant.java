@@ -15,8 +15,13 @@ public class SyncConstant {
     public static final String TOMBSTONE_FIELD = "is_delete";
     public static final String ID_FIELD = "id";
     public static final String TEMP_SUFFIX = "_temp";
+    public static final String ID_TEMP_SUFFIX = "_id_temp";
+    public static final String SWAP_SUFFIX = "_swap";
+    public static final int LOCK_STRIPES = 64;
 
     public static final String ADD = "ADD";
     public static final String UPDATE = "UPDATE";
     public static final String DELETE = "DELETE";
+
+    public static final String STATE_APPLYING = "APPLYING";
 }
@@ -0,0 +1,247 @@
+package com.fly.data.sync.constant;
+
+import com.fly.data.sync.entity.DataModel;
+import com.fly.data.sync.util.PropertyAccessor;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+/**
+ * 数据库方言：增量同步的upsert，一条语句完成新增或按更新时间更新，参数均按columnList顺序绑定；
+ * 全量同步替换主表时的表名交换；以及主键冲突时忽略的插入
+ *
+ * @author guoxiang
+ * @version 1.0.0
+ * @since 2021/11/30
+ */
+public enum SyncDialect {
+
+    /**
+     * insert ... on duplicate key update，更新时间最后赋值，前面的字段比较的是更新前的更新时间
+     */
+    MYSQL {
+        @Override
+        public String upsertSql(DataModel<?> model) {
+            String updateTime = model.getUpdateTimeColumn();
+            String condition = "values(" + updateTime + ") > " + updateTime + " or " + updateTime + " is null";
+
+            String setString = updateColumns(model).stream()
+                    .map(c -> c + " = case when " + condition + " then values(" + c + ") else " + c + " end")
+                    .collect(Collectors.joining(", "));
+
+            return "insert into " + model.getTable() + " (" + model.getColumnString() + ") " +
+                    "values (" + model.getPlaceholderString() + ") " +
+                    "on duplicate key update " + setString;
+        }
+
+        @Override
+        public List<String> swapTableSql(String table, String otherTable) {
+            String swap = table + SyncConstant.SWAP_SUFFIX;
+            return Collections.singletonList("rename table " + table + " to " + swap + ", " +
+                    otherTable + " to " + table + ", " + swap + " to " + otherTable);
+        }
+
+        @Override
+        public String insertIgnoreSql(String table, List<String> columnList) {
+            return "insert ignore into " + table + " (" + String.join(", ", columnList) + ") values (" + placeholders(columnList) + ")";
+        }
+    },
+
+    /**
+     * insert ... on conflict do update ... where
+     */
+    POSTGRESQL {
+        @Override
+        public String upsertSql(DataModel<?> model) {
+            String table = model.getTable();
+            String updateTime = model.getUpdateTimeColumn();
+
+            String setString = updateColumns(model).stream()
+                    .map(c -> c + " = excluded." + c)
+                    .collect(Collectors.joining(", "));
+
+            return "insert into " + table + " (" + model.getColumnString() + ") " +
+                    "values (" + model.getPlaceholderString() + ") " +
+                    "on conflict (" + model.getIdColumn() + ") do update set " + setString + " " +
+                    "where " + table + "." + updateTime + " < excluded." + updateTime +
+                    " or " + table + "." + updateTime + " is null";
+        }
+
+        @Override
+        public List<String> swapTableSql(String table, String otherTable) {
+            return renameInTurn(table, otherTable);
+        }
+
+        @Override
+        public String insertIgnoreSql(String table, List<String> columnList) {
+            return "insert into " + table + " (" + String.join(", ", columnList) + ") values (" + placeholders(columnList) + ") " +
+                    "on conflict do nothing";
+        }
+    },
+
+    /**
+     * merge into ... using ... when matched and ... ，H2无法推断参数类型，按字段类型cast
+     */
+    H2 {
+        @Override
+        public String upsertSql(DataModel<?> model) {
+            List<String> columnList = model.getColumnList();
+            List<PropertyAccessor> accessorList = model.getAccessorList();
+            String id = model.getIdColumn();
+            String updateTime = model.getUpdateTimeColumn();
+
+            StringBuilder source = new StringBuilder();
+            for (int i = 0; i < columnList.size(); i++) {
+                source.append(i == 0 ? "" : ", ")
+                        .append("cast(? as ").append(h2Type(accessorList.get(i).getType())).append(") as ")
+                        .append(columnList.get(i));
+            }
+
+            String setString = updateColumns(model).stream()
+                    .map(c -> c + " = b." + c)
+                    .collect(Collectors.joining(", "));
+
+            String valueString = columnList.stream()
+                    .map(c -> "b." + c)
+                    .collect(Collectors.joining(", "));
+
+            return "merge into " + model.getTable() + " a using (select " + source + ") b " +
+                    "on (a." + id + " = b." + id + ") " +
+                    "when matched and (a." + updateTime + " < b." + updateTime + " or a." + updateTime + " is null) " +
+                    "then update set " + setString + " " +
+                    "when not matched then insert (" + model.getColumnString() + ") values (" + valueString + ")";
+        }
+
+        /**
+         * H2的DDL会提交事务，三条语句之间不是原子的，只用于本地和测试环境
+         */
+        @Override
+        public List<String> swapTableSql(String table, String otherTable) {
+            return renameInTurn(table, otherTable);
+        }
+
+        /**
+         * 按全部字段merge，已存在时不改变数据
+         */
+        @Override
+        public String insertIgnoreSql(String table, List<String> columnList) {
+            String columnString = String.join(", ", columnList);
+            return "merge into " + table + " (" + columnString + ") key (" + columnString + ") values (" + placeholders(columnList) + ")";
+        }
+    };
+
+
+    /**
+     * 生成upsert语句，参数按columnList顺序绑定
+     *
+     * @param model     模型
+     * @return          sql
+     */
+    public abstract String upsertSql(DataModel<?> model);
+
+
+    /**
+     * 交换两个表的表名，按顺序执行
+     *
+     * @param table         表名
+     * @param otherTable    另一个表名
+     * @return              sql
+     */
+    public abstract List<String> swapTableSql(String table, String otherTable);
+
+
+    /**
+     * 插入一行，主键冲突时忽略，用于全部字段即主键的表，参数按columnList顺序绑定
+     *
+     * @param table         表名
+     * @param columnList    字段
+     * @return              sql
+     */
+    public abstract String insertIgnoreSql(String table, List<String> columnList);
+
+
+    /**
+     * 根据数据库产品名称解析方言
+     *
+     * @param productName   DatabaseMetaData#getDatabaseProductName
+     * @return              方言
+     */
+    public static SyncDialect of(String productName) {
+        String name = productName.toLowerCase(Locale.ROOT);
+        if (name.contains("mysql") || name.contains("mariadb")) {
+            return MYSQL;
+        }
+        if (name.contains("postgres")) {
+            return POSTGRESQL;
+        }
+        if (name.contains("h2")) {
+            return H2;
+        }
+        throw new IllegalStateException("not supported database: " + productName);
+    }
+
+
+    /**
+     * 需要更新的字段：不包含id，更新时间放在最后
+     */
+    private static List<String> updateColumns(DataModel<?> model) {
+        String updateTime = model.getUpdateTimeColumn();
+
+        List<String> columnList = model.getColumnList()
+                .stream()
+                .filter(c -> !c.equals(model.getIdColumn()) && !c.equals(updateTime))
+                .collect(Collectors.toList());
+        columnList.add(updateTime);
+        return columnList;
+    }
+
+
+    /**
+     * 借助中间表名依次重命名，PostgreSQL的DDL是事务性的，在同一事务中执行即为原子操作
+     */
+    private static List<String> renameInTurn(String table, String otherTable) {
+        String swap = table + SyncConstant.SWAP_SUFFIX;
+        return Arrays.asList(
+                "alter table " + table + " rename to " + swap,
+                "alter table " + otherTable + " rename to " + table,
+                "alter table " + swap + " rename to " + otherTable);
+    }
+
+
+    private static String placeholders(List<String> columnList) {
+        return columnList.stream().map(c -> "?").collect(Collectors.joining(", "));
+    }
+
+
+    private static String h2Type(Class<?> type) {
+        if (type == Long.class || type == long.class) {
+            return "bigint";
+        }
+        if (type == Integer.class || type == int.class || type == Short.class || type == short.class) {
+            return "int";
+        }
+        if (type == Boolean.class || type == boolean.class) {
+            return "boolean";
+        }
+        if (type == Double.class || type == double.class || type == Float.class || type == float.class) {
+            return "double";
+        }
+        if (type == BigDecimal.class) {
+            return "decimal";
+        }
+        if (type == LocalDate.class) {
+            return "date";
+        }
+        if (Date.class.isAssignableFrom(type) || type == LocalDateTime.class) {
+            return "timestamp";
+        }
+        return "varchar";
+    }
+}
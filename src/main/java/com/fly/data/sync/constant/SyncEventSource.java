@@ -10,6 +10,8 @@ public enum SyncEventSource {
     SCHEDULE_JOB,
     //监听MQ
     MESSAGE_QUEUE,
+    //集群模式成为主节点
+    LEADER_ELECTED,
     //其他
     OTHER
 }
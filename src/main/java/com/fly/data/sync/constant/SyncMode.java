@@ -0,0 +1,13 @@
+package com.fly.data.sync.constant;
+
+/**
+ * 全量同步方式
+ */
+public enum SyncMode {
+    //全量拉取，比对临时表
+    TOTAL,
+    //按更新时间水位线增量拉取，id列表检查删除
+    INCREMENTAL,
+    //按id范围比对校验和，只拉取有差异的范围
+    RECONCILE
+}
@@ -9,8 +9,8 @@ public class SyncSql {
     private SyncSql() {
     }
 
-    public static final String INSERT_TEMP_SQL = "insert into ${tempTable} (${columnString}) values (${fieldListString})";
-    public static final String INSERT_SQL = "insert into ${table} (${columnString}) values (${fieldListString})";
+    public static final String INSERT_TEMP_BATCH_SQL = "insert into ${tempTable} (${columnString}) values (${placeholderString})";
+    public static final String INSERT_SQL = "insert into ${table} (${columnString}) values (${placeholderString})";
 
     public static final String QUERY_ADD_SQL = "select ${a.columnList} from ${tempTable} a " +
             "left join ${table} b on a.${idColumn} = b.${idColumn} " +
@@ -35,8 +35,15 @@ public class SyncSql {
             "and ${table}.${updateTime} < ${tempTable}.${updateTime} " +
             "or (${table}.${updateTime} is null and ${tempTable}.${updateTime} is not null)";
 
+    public static final String UPDATE_BY_ID_SQL = "update ${table} set ${updateSetDeltaString} where ${idColumn}=?";
+
+    public static final String DELETE_BY_ID_LIST_SQL = "delete from ${table} where ${idColumn} in (:idList)";
+
+    public static final String SOFT_DELETE_BY_ID_LIST_SQL = "update ${table} set ${tombstone} = ${deletedValue} " +
+            "where ${idColumn} in (:idList)";
+
     public static final String UPDATE_DELTA_SQL = "update ${table} set ${updateSetDeltaString} " +
-            "where ${idColumn}=:${idField} and (${updateTime}<:${updateTimeField} or ${updateTime} is null)";
+            "where ${idColumn}=? and (${updateTime}<? or ${updateTime} is null)";
 
     public static final String QUERY_DELETE_SQL = "select ${a.columnList} from ${table} a " +
             "left join ${tempTable} b on a.${idColumn} = b.${idColumn} " +
@@ -46,5 +53,181 @@ public class SyncSql {
             "left join ${tempTable} b on a.${idColumn} = b.${idColumn} " +
             "where b.${idColumn} is null";
 
-    public static final String DELETE_DELTA_SQL = "delete from ${table} where ${idColumn}=:${idField}";
+    public static final String QUERY_BY_ID_SQL = "select ${columnString} from ${table} where ${idColumn} in (:idList)";
+
+    public static final String QUERY_BY_INDEX_SQL = "select ${columnString} from ${table} where ${indexColumn} = ?";
+
+    public static final String DELETE_DELTA_SQL = "delete from ${table} where ${idColumn}=?";
+
+    public static final String CREATE_ID_TEMP_SQL = "create table if not exists ${idTempTable} (primary key (${idColumn})) " +
+            "select ${idColumn} from ${table} where 1=0";
+
+    public static final String INSERT_ID_TEMP_SQL = "insert into ${idTempTable} (${idColumn}) values (?)";
+
+    public static final String QUERY_WATERMARK_SQL = "select max(${updateTime}) from ${tempTable}";
+
+    public static final String QUERY_DELETE_BY_ID_SQL = "select ${a.columnList} from ${table} a " +
+            "left join ${idTempTable} b on a.${idColumn} = b.${idColumn} " +
+            "where b.${idColumn} is null";
+
+    public static final String DELETE_BY_ID_SQL = "delete a from ${table} a " +
+            "left join ${idTempTable} b on a.${idColumn} = b.${idColumn} " +
+            "where b.${idColumn} is null";
+
+    public static final String QUERY_RANGE_CHECKSUM_SQL = "select count(*), " +
+            "sum(crc32(concat(${idColumn}, '#', coalesce(cast(${updateTimeSecond} as char), 'null')))), " +
+            "min(${idColumn}), max(${idColumn}) from ${table} " +
+            "where ${idColumn} between ? and ?";
+
+    /**
+     * 更新时间按UTC换算的epoch秒，与会话时区无关
+     */
+    public static final String UPDATE_TIME_SECOND_SQL = "timestampdiff(second, '1970-01-01 00:00:00', ${updateTime})";
+
+    public static final String QUERY_DELETE_RANGE_SQL = "select ${a.columnList} from ${table} a " +
+            "left join ${tempTable} b on a.${idColumn} = b.${idColumn} " +
+            "where b.${idColumn} is null and a.${idColumn} between ? and ?";
+
+    public static final String DELETE_RANGE_SQL = "delete a from ${table} a " +
+            "left join ${tempTable} b on a.${idColumn} = b.${idColumn} " +
+            "where b.${idColumn} is null and a.${idColumn} between ? and ?";
+
+    public static final String QUERY_TEMP_RANGE_BOUND_SQL = "select ${idColumn} from ${tempTable} " +
+            "where ${idColumn} >= ? order by ${idColumn} limit 1 offset ?";
+
+    public static final String QUERY_ADD_RANGE_SQL = "select ${a.columnList} from ${tempTable} a " +
+            "left join ${table} b on a.${idColumn} = b.${idColumn} " +
+            "where b.${idColumn} is null and a.${idColumn} between ? and ?";
+
+    public static final String ADD_RANGE_SQL = "insert into ${table} (${columnString}) " +
+            "select ${a.columnList} from ${tempTable} a " +
+            "left join ${table} b on a.${idColumn} = b.${idColumn} " +
+            "where b.${idColumn} is null and a.${idColumn} between ? and ?";
+
+    public static final String QUERY_UPDATE_RANGE_SQL = "select ${a.columnList} from ${tempTable} a " +
+            "join ${table} b on a.${idColumn} = b.${idColumn} " +
+            "where a.${idColumn} between ? and ? " +
+            "and (a.${updateTime} > b.${updateTime} or (a.${updateTime} is not null and b.${updateTime} is null))";
+
+    public static final String UPDATE_RANGE_SQL = "update ${table}, ${tempTable} " +
+            "set ${updateSetString} " +
+            "where ${table}.${idColumn} = ${tempTable}.${idColumn} " +
+            "and ${table}.${idColumn} between ? and ? " +
+            "and (${table}.${updateTime} < ${tempTable}.${updateTime} " +
+            "or (${table}.${updateTime} is null and ${tempTable}.${updateTime} is not null))";
+
+    public static final String RESET_TEMP_TOMBSTONE_SQL = "update ${tempTable} set ${tombstone} = ${notDeletedValue} " +
+            "where ${tombstone} is null or ${tombstone} <> ${notDeletedValue}";
+
+    public static final String QUERY_REVIVE_SQL = "select ${a.columnList} from ${tempTable} a " +
+            "join ${table} b on a.${idColumn} = b.${idColumn} " +
+            "where b.${tombstone} = ${deletedValue}";
+
+    public static final String REVIVE_SQL = "update ${table}, ${tempTable} " +
+            "set ${updateSetString} " +
+            "where ${table}.${idColumn} = ${tempTable}.${idColumn} " +
+            "and ${table}.${tombstone} = ${deletedValue}";
+
+    public static final String QUERY_REVIVE_RANGE_SQL = QUERY_REVIVE_SQL + " and a.${idColumn} between ? and ?";
+
+    public static final String REVIVE_RANGE_SQL = REVIVE_SQL + " and ${table}.${idColumn} between ? and ?";
+
+    public static final String QUERY_SOFT_DELETE_SQL = "select ${a.columnList} from ${table} a " +
+            "where (a.${tombstone} is null or a.${tombstone} <> ${deletedValue}) " +
+            "and not exists (select 1 from ${tempTable} b where b.${idColumn} = a.${idColumn})";
+
+    public static final String SOFT_DELETE_SQL = "update ${table} set ${tombstone} = ${deletedValue} " +
+            "where (${tombstone} is null or ${tombstone} <> ${deletedValue}) " +
+            "and not exists (select 1 from ${tempTable} b where b.${idColumn} = ${table}.${idColumn})";
+
+    public static final String QUERY_SOFT_DELETE_RANGE_SQL = QUERY_SOFT_DELETE_SQL + " and a.${idColumn} between ? and ?";
+
+    public static final String SOFT_DELETE_RANGE_SQL = SOFT_DELETE_SQL + " and ${idColumn} between ? and ?";
+
+    public static final String QUERY_SOFT_DELETE_BY_ID_SQL = "select ${a.columnList} from ${table} a " +
+            "where (a.${tombstone} is null or a.${tombstone} <> ${deletedValue}) " +
+            "and not exists (select 1 from ${idTempTable} b where b.${idColumn} = a.${idColumn})";
+
+    public static final String SOFT_DELETE_BY_ID_SQL = "update ${table} set ${tombstone} = ${deletedValue} " +
+            "where (${tombstone} is null or ${tombstone} <> ${deletedValue}) " +
+            "and not exists (select 1 from ${idTempTable} b where b.${idColumn} = ${table}.${idColumn})";
+
+    public static final String DELETE_TEMP_BY_ID_SQL = "delete from ${tempTable} where ${idColumn} in (:idList)";
+
+    public static final String COPY_TO_TEMP_BY_ID_SQL = "insert into ${tempTable} (${columnString}) " +
+            "select ${columnString} from ${table} where ${idColumn} in (:idList)";
+
+    public static final String DELETE_ID_TEMP_BY_ID_SQL = "delete from ${idTempTable} where ${idColumn} in (:idList)";
+
+    public static final String COPY_TO_ID_TEMP_BY_ID_SQL = "insert into ${idTempTable} (${idColumn}) " +
+            "select ${idColumn} from ${table} where ${idColumn} in (:idList)";
+
+    public static final String CREATE_LOCK_SQL = "create table if not exists sync_data_lock (" +
+            "lock_name varchar(128) not null primary key, " +
+            "owner varchar(128) not null, " +
+            "fence bigint not null, " +
+            "expire_at bigint not null)";
+
+    /**
+     * 数据库当前时间（毫秒），租约的过期时间都按数据库时间计算，不受各节点时钟偏差影响
+     */
+    public static final String DB_NOW_MILLIS = "floor(cast(unix_timestamp(now(3)) as decimal(20, 3)) * 1000)";
+
+    public static final String INSERT_LOCK_SQL = "insert into sync_data_lock (lock_name, owner, fence, expire_at) " +
+            "values (?, ?, 1, " + DB_NOW_MILLIS + " + ?)";
+
+    public static final String TAKE_OVER_LOCK_SQL = "update sync_data_lock set owner = ?, fence = fence + 1, " +
+            "expire_at = " + DB_NOW_MILLIS + " + ? " +
+            "where lock_name = ? and expire_at < " + DB_NOW_MILLIS;
+
+    public static final String RENEW_LOCK_SQL = "update sync_data_lock set expire_at = " + DB_NOW_MILLIS + " + ? " +
+            "where lock_name = ? and owner = ? and fence = ?";
+
+    public static final String RELEASE_LOCK_SQL = "update sync_data_lock set expire_at = 0 " +
+            "where lock_name = ? and owner = ? and fence = ?";
+
+    public static final String QUERY_LOCK_FENCE_SQL = "select fence from sync_data_lock where lock_name = ? and owner = ?";
+
+    /**
+     * 普通读，不锁定锁的行，各通道的提交互不等待。
+     * 要求租约至少还剩余给定的时间：抢占只能发生在过期之后，校验通过的事务在此之前已经提交。
+     * 事务快照中的过期时间不会晚于最新的过期时间（只有续约会延后），读到旧快照只会误判为失效，不会误判为有效
+     */
+    public static final String CHECK_LOCK_FENCE_SQL = "select fence from sync_data_lock " +
+            "where lock_name = ? and owner = ? and fence = ? and expire_at > " + DB_NOW_MILLIS + " + ?";
+
+    public static final String QUERY_LOCK_OWNER_SQL = "select owner from sync_data_lock " +
+            "where lock_name like ? and expire_at >= " + DB_NOW_MILLIS;
+
+    public static final String CREATE_STATE_SQL = "create table if not exists sync_data_state (" +
+            "table_name varchar(128) not null primary key, " +
+            "phase varchar(32), " +
+            "watermark varchar(64), " +
+            "update_at bigint not null)";
+
+    public static final String QUERY_STATE_SQL = "select phase from sync_data_state where table_name = ?";
+
+    public static final String INSERT_STATE_SQL = "insert into sync_data_state (table_name, phase, update_at) values (?, ?, ?)";
+
+    public static final String UPDATE_STATE_SQL = "update sync_data_state set phase = ?, update_at = ? where table_name = ?";
+
+    public static final String CLEAR_STATE_SQL = "update sync_data_state set phase = null, update_at = ? where table_name = ?";
+
+    public static final String QUERY_STATE_WATERMARK_SQL = "select watermark from sync_data_state where table_name = ?";
+
+    public static final String INSERT_STATE_WATERMARK_SQL = "insert into sync_data_state (table_name, watermark, update_at) values (?, ?, ?)";
+
+    public static final String UPDATE_STATE_WATERMARK_SQL = "update sync_data_state set watermark = ?, update_at = ? where table_name = ?";
+
+    /**
+     * 分段全量同步中断后（状态为比对中），增量同步修改过的id，恢复比对前用主表数据修正临时表
+     */
+    public static final String CREATE_DIRTY_SQL = "create table if not exists sync_data_dirty (" +
+            "table_name varchar(128) not null, " +
+            "id varchar(64) not null, " +
+            "primary key (table_name, id))";
+
+    public static final String QUERY_DIRTY_SQL = "select id from sync_data_dirty where table_name = ?";
+
+    public static final String DELETE_DIRTY_SQL = "delete from sync_data_dirty where table_name = ?";
 }
@@ -0,0 +1,23 @@
+package com.fly.data.sync.constant;
+
+/**
+ * 全量同步写入主表的方式
+ */
+public enum SyncStrategy {
+    //比对临时表与主表，逐条新增、更新、删除并发射数据变更事件
+    DIFF,
+    /**
+     * 临时表加载完整数据后与主表交换表名，不比对、不发射数据变更事件，适用于无人订阅变更的参考数据表。
+     * <p>
+     * 与DIFF相比失去的事务保证：
+     * <ul>
+     *     <li>MySQL、H2的RENAME TABLE会先隐式提交同步事务，交换之前的操作（修正临时表等）此时已提交，
+     *     交换之后的操作在新的事务中，交换本身无法随同步事务回滚</li>
+     *     <li>集群模式下交换前以加锁读校验fence，但隐式提交会释放行锁，
+     *     校验与交换之间被其他节点抢占时仍会执行交换，不能像DIFF那样在提交前拒绝旧主节点的写入</li>
+     *     <li>H2依次重命名，期间主表短暂不存在；MySQL一条RENAME TABLE原子交换，PostgreSQL的DDL在事务中执行，无此问题</li>
+     * </ul>
+     * 主表整体替换为数据源的数据，本地的逻辑删除行会丢失，因此不支持SyncTombstone
+     */
+    REPLACE
+}
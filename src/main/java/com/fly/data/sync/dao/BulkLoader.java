@@ -0,0 +1,51 @@
+package com.fly.data.sync.dao;
+
+import com.fly.data.sync.constant.SyncDialect;
+import com.fly.data.sync.entity.DataModel;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * 临时表批量加载SPI：
+ * 全量同步写入临时表时，使用数据库原生的批量导入方式代替逐行batchUpdate。
+ * 自定义实现注册为spring bean即可，优先于内置实现，
+ * 没有可用的实现时使用多行insert（{@link MultiRowInsertLoader}）
+ *
+ * @author guoxiang
+ * @version 1.0.0
+ * @since 2021/12/2
+ */
+public interface BulkLoader {
+
+    /**
+     * 是否支持该数据库
+     *
+     * @param dialect   方言
+     * @return          是否
+     */
+    boolean supports(SyncDialect dialect);
+
+
+    /**
+     * 依赖（如数据库驱动中的批量导入接口）是否可用
+     *
+     * @return  是否
+     */
+    default boolean isAvailable() {
+        return true;
+    }
+
+
+    /**
+     * 将数据写入模型的临时表，列顺序与columnList一致
+     *
+     * @param con       当前事务的连接
+     * @param model     模型
+     * @param dataList  数据
+     * @param <T>       泛型
+     * @throws SQLException 写入失败
+     */
+    <T> void load(Connection con, DataModel<T> model, List<T> dataList) throws SQLException;
+}
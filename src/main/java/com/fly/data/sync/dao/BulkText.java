@@ -0,0 +1,159 @@
+package com.fly.data.sync.dao;
+
+import com.fly.data.sync.entity.DataModel;
+import com.fly.data.sync.util.PropertyAccessor;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.TemporalAccessor;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * 批量导入的文本格式：
+ * tab分隔格式（MySQL LOAD DATA、PostgreSQL COPY的默认text格式），\N表示null；
+ * csv格式（H2 CSVREAD），不带引号的空值表示null
+ *
+ * @author guoxiang
+ * @version 1.0.0
+ * @since 2021/12/2
+ */
+final class BulkText {
+
+    private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
+
+    private BulkText() {
+    }
+
+
+    /**
+     * 生成tab分隔的文本
+     *
+     * @param model             模型
+     * @param dataList          数据
+     * @param booleanAsNumber   布尔值是否写为1/0
+     * @return                  文本
+     */
+    static <T> String toTabText(DataModel<T> model, List<T> dataList, boolean booleanAsNumber) {
+        List<PropertyAccessor> accessorList = model.getAccessorList();
+        StringBuilder s = new StringBuilder(dataList.size() * accessorList.size() * 16);
+
+        for (T data : dataList) {
+            for (int i = 0; i < accessorList.size(); i++) {
+                if (i > 0) {
+                    s.append('\t');
+                }
+
+                String value = format(accessorList.get(i).get(data), booleanAsNumber);
+                if (value == null) {
+                    s.append("\\N");
+                } else {
+                    escapeTab(s, value);
+                }
+            }
+            s.append('\n');
+        }
+        return s.toString();
+    }
+
+
+    /**
+     * 生成带表头的csv文本，所有非null的值都加引号
+     *
+     * @param model     模型
+     * @param dataList  数据
+     * @return          文本
+     */
+    static <T> String toCsvText(DataModel<T> model, List<T> dataList) {
+        List<PropertyAccessor> accessorList = model.getAccessorList();
+        StringBuilder s = new StringBuilder(dataList.size() * accessorList.size() * 16);
+
+        List<String> columnList = model.getColumnList();
+        for (int i = 0; i < columnList.size(); i++) {
+            s.append(i > 0 ? "," : "").append('"').append(columnList.get(i)).append('"');
+        }
+        s.append('\n');
+
+        for (T data : dataList) {
+            for (int i = 0; i < accessorList.size(); i++) {
+                if (i > 0) {
+                    s.append(',');
+                }
+
+                String value = format(accessorList.get(i).get(data), false);
+                if (value != null) {
+                    s.append('"').append(value.replace("\"", "\"\"")).append('"');
+                }
+            }
+            s.append('\n');
+        }
+        return s.toString();
+    }
+
+
+    /**
+     * 模型是否包含无法用文本表示的字段
+     */
+    static boolean supports(DataModel<?> model) {
+        return model.getAccessorList().stream().noneMatch(accessor -> accessor.getType() == byte[].class);
+    }
+
+
+    private static String format(Object value, boolean booleanAsNumber) {
+        if (value == null) {
+            return null;
+        }
+
+        if (value instanceof java.sql.Date || value instanceof java.sql.Time) {
+            return value.toString();
+        }
+
+        if (value instanceof Date) {
+            return DATE_TIME_FORMATTER.format(((Date) value).toInstant().atZone(ZoneId.systemDefault()));
+        }
+
+        if (value instanceof LocalDateTime) {
+            return DATE_TIME_FORMATTER.format((TemporalAccessor) value);
+        }
+
+        if (value instanceof Boolean && booleanAsNumber) {
+            return (Boolean) value ? "1" : "0";
+        }
+
+        if (value instanceof Enum) {
+            return ((Enum<?>) value).name();
+        }
+
+        //toString可能输出科学计数法（如1E+3），数据库按文本导入时无法解析
+        if (value instanceof BigDecimal) {
+            return ((BigDecimal) value).toPlainString();
+        }
+
+        return value.toString();
+    }
+
+
+    private static void escapeTab(StringBuilder s, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                    s.append("\\\\");
+                    break;
+                case '\t':
+                    s.append("\\t");
+                    break;
+                case '\n':
+                    s.append("\\n");
+                    break;
+                case '\r':
+                    s.append("\\r");
+                    break;
+                default:
+                    s.append(c);
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.fly.data.sync.dao;
+
+import com.fly.data.sync.constant.SyncDialect;
+import com.fly.data.sync.entity.DataModel;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * H2 CSVREAD：H2没有从流导入的接口，数据写入本地临时csv文件后用CSVREAD导入，
+ * 主要用于本地和测试环境
+ *
+ * @author guoxiang
+ * @version 1.0.0
+ * @since 2021/12/2
+ */
+public class H2BulkLoader implements BulkLoader {
+
+    @Override
+    public boolean supports(SyncDialect dialect) {
+        return dialect == SyncDialect.H2;
+    }
+
+
+    @Override
+    public <T> void load(Connection con, DataModel<T> model, List<T> dataList) throws SQLException {
+        Path file = null;
+        try {
+            file = Files.createTempFile("sync_data_" + model.getTable() + "_", ".csv");
+            Files.write(file, BulkText.toCsvText(model, dataList).getBytes(StandardCharsets.UTF_8));
+
+            String path = file.toAbsolutePath().toString().replace("'", "''");
+            String sql = "insert into " + model.getTempTable() + " (" + model.getColumnString() + ") " +
+                    "select * from csvread('" + path + "', null, 'charset=UTF-8')";
+
+            try (Statement statement = con.createStatement()) {
+                statement.executeUpdate(sql);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("write csv file error", e);
+        } finally {
+            deleteQuietly(file);
+        }
+    }
+
+
+    private static void deleteQuietly(Path file) {
+        if (file == null) {
+            return;
+        }
+
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ignored) {
+            //临时文件删除失败不影响同步
+        }
+    }
+}
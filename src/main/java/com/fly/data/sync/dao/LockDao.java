@@ -0,0 +1,97 @@
+package com.fly.data.sync.dao;
+
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+
+import static com.fly.data.sync.constant.SyncSql.*;
+
+/**
+ * 基于数据库行的租约锁：
+ * 每个锁一行，记录持有者、fence（每次易主加1）和过期时间，
+ * 过期后其他节点可以抢占，持有者通过fence判断自己是否仍然持有锁。
+ * 过期时间按数据库的当前时间计算和比较，见{@link com.fly.data.sync.constant.SyncSql#DB_NOW_MILLIS}
+ *
+ * @author guoxiang
+ * @version 1.0.0
+ * @since 2021/11/22
+ */
+public class LockDao {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public LockDao(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+
+    public void createLockTableIfNotExist() {
+        jdbcTemplate.execute(CREATE_LOCK_SQL);
+    }
+
+
+    /**
+     * 尝试获取锁：锁不存在时创建，锁已过期时抢占
+     *
+     * @param lockName  锁名称
+     * @param owner     持有者
+     * @param lease     租约时长（毫秒）
+     * @return          获取成功返回fence，否则返回-1
+     */
+    public long tryAcquire(String lockName, String owner, long lease) {
+        int count = jdbcTemplate.update(TAKE_OVER_LOCK_SQL, owner, lease, lockName);
+
+        if (count == 0) {
+            try {
+                jdbcTemplate.update(INSERT_LOCK_SQL, lockName, owner, lease);
+            } catch (DuplicateKeyException e) {
+                //锁由其他节点持有且未过期
+                return -1;
+            }
+        }
+
+        List<Long> fenceList = jdbcTemplate.queryForList(QUERY_LOCK_FENCE_SQL, Long.class, lockName, owner);
+        return fenceList.isEmpty() ? -1 : fenceList.get(0);
+    }
+
+
+    /**
+     * 续约
+     *
+     * @return  是否仍然持有锁
+     */
+    public boolean renew(String lockName, String owner, long fence, long lease) {
+        return jdbcTemplate.update(RENEW_LOCK_SQL, lease, lockName, owner, fence) > 0;
+    }
+
+
+    /**
+     * 释放锁：将锁置为过期，其他节点下一次选举即可获取
+     */
+    public void release(String lockName, String owner, long fence) {
+        jdbcTemplate.update(RELEASE_LOCK_SQL, lockName, owner, fence);
+    }
+
+
+    /**
+     * 检查锁是否仍由owner以该fence持有，且租约至少还剩余margin，锁被抢占后fence会变化。
+     * 不锁定锁的行，校验通过后到租约过期前不会被抢占，调用方需在margin内完成提交
+     *
+     * @param margin    租约至少剩余的时间（毫秒）
+     */
+    public boolean checkFence(String lockName, String owner, long fence, long margin) {
+        return !jdbcTemplate.queryForList(CHECK_LOCK_FENCE_SQL, Long.class, lockName, owner, fence, margin).isEmpty();
+    }
+
+
+    /**
+     * 查询未过期的锁的持有者
+     *
+     * @param lockPrefix    锁名称前缀
+     * @return              持有者
+     */
+    public List<String> listOwner(String lockPrefix) {
+        return jdbcTemplate.queryForList(QUERY_LOCK_OWNER_SQL, String.class, lockPrefix + "%");
+    }
+}
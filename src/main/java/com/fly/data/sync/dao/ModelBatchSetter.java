@@ -0,0 +1,88 @@
+package com.fly.data.sync.dao;
+
+import com.fly.data.sync.entity.DataModel;
+import com.fly.data.sync.util.PropertyAccessor;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.StatementCreatorUtils;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * 按下标绑定的批量参数：
+ * sql中的?与DataModel预先计算的字段下标一一对应，
+ * 每行数据直接通过属性访问器读取字段值绑定，不创建参数对象，也不需要解析命名参数
+ *
+ * @author guoxiang
+ * @version 1.0.0
+ * @since 2021/11/29
+ */
+public class ModelBatchSetter<T> implements BatchPreparedStatementSetter {
+
+    private final List<T> dataList;
+
+    private final PropertyAccessor[] accessors;
+
+    public ModelBatchSetter(DataModel<T> model, List<T> dataList, int[] paramIndex) {
+        this.dataList = dataList;
+        this.accessors = accessorsOf(model, paramIndex);
+    }
+
+
+    @Override
+    public void setValues(PreparedStatement ps, int i) throws SQLException {
+        setValues(ps, accessors, dataList.get(i));
+    }
+
+
+    @Override
+    public int getBatchSize() {
+        return dataList.size();
+    }
+
+
+    /**
+     * 按参数顺序取出字段的访问器
+     *
+     * @param model         模型
+     * @param paramIndex    参数对应的字段下标
+     * @return              访问器
+     */
+    public static PropertyAccessor[] accessorsOf(DataModel<?> model, int[] paramIndex) {
+        List<PropertyAccessor> accessorList = model.getAccessorList();
+        PropertyAccessor[] accessors = new PropertyAccessor[paramIndex.length];
+        for (int i = 0; i < paramIndex.length; i++) {
+            accessors[i] = accessorList.get(paramIndex[i]);
+        }
+        return accessors;
+    }
+
+
+    /**
+     * 绑定一行数据
+     *
+     * @param ps            statement
+     * @param accessors     按参数顺序的访问器
+     * @param data          数据
+     */
+    public static void setValues(PreparedStatement ps, PropertyAccessor[] accessors, Object data) throws SQLException {
+        setValues(ps, accessors, data, 0);
+    }
+
+
+    /**
+     * 从第offset + 1个参数开始绑定一行数据，用于一条语句包含多行数据
+     *
+     * @param ps            statement
+     * @param accessors     按参数顺序的访问器
+     * @param data          数据
+     * @param offset        已绑定的参数数量
+     */
+    public static void setValues(PreparedStatement ps, PropertyAccessor[] accessors, Object data, int offset) throws SQLException {
+        for (int i = 0; i < accessors.length; i++) {
+            PropertyAccessor accessor = accessors[i];
+            StatementCreatorUtils.setParameterValue(ps, offset + i + 1, accessor.getSqlType(), accessor.get(data));
+        }
+    }
+}
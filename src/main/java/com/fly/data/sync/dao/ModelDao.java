@@ -1,17 +1,31 @@
 package com.fly.data.sync.dao;
 
-import com.fly.data.sync.entity.DataModel;
-import com.fly.data.sync.entity.SaveOrUpdateResult;
-import com.fly.data.sync.entity.UpdateData;
+import com.fly.data.sync.constant.SyncDialect;
+import com.fly.data.sync.entity.*;
+import com.fly.data.sync.util.PropertyAccessor;
+import com.fly.data.sync.util.SyncChecksum;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.UncategorizedSQLException;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCallback;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
-import org.springframework.jdbc.core.namedparam.SqlParameterSource;
-import org.springframework.jdbc.core.namedparam.SqlParameterSourceUtils;
-import org.springframework.util.ObjectUtils;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
 
 import static com.fly.data.sync.util.SyncCheck.isEmpty;
+import static com.fly.data.sync.util.SyncCheck.notBlank;
 import static java.util.Collections.emptyList;
 import static java.util.stream.Collectors.*;
 
@@ -20,84 +34,601 @@ import static java.util.stream.Collectors.*;
  * @version 1.0.0
  * @since 2021/1/7
  */
+@Slf4j
 public class ModelDao {
 
     private final JdbcTemplate jdbcTemplate;
 
     private final NamedParameterJdbcTemplate namedJdbcTemplate;
 
+    /**
+     * 全量比对结果每批的数量，即每个数据变更事件的最大数据量
+     */
+    @Value("${sync.data.diff.chunk-size:1000}")
+    private int chunkSize;
+
+    /**
+     * 增量新增/更新是否使用数据库原生upsert，一条语句完成
+     */
+    @Value("${sync.data.delta.upsert:false}")
+    private boolean upsert;
+
+    /**
+     * 数据库方言，为空时根据数据库产品名称自动识别
+     */
+    @Value("${sync.data.dialect:}")
+    private String dialectName;
+
+    private volatile SyncDialect dialect;
+
+    /**
+     * 写入临时表是否使用批量加载（LOAD DATA / COPY / 多行insert）代替逐行batchUpdate
+     */
+    @Value("${sync.data.bulk.enabled:false}")
+    private boolean bulkEnabled;
+
+    /**
+     * 多行insert每条语句的行数
+     */
+    @Value("${sync.data.bulk.rows-per-statement:500}")
+    private int rowsPerStatement;
+
+    /**
+     * 原生批量加载失败后，间隔多久（毫秒）再次尝试原生方式
+     */
+    @Value("${sync.data.bulk.retry-interval:600000}")
+    private long bulkRetryInterval;
+
+    /**
+     * 批量加载实现，自定义实现在前，内置实现在后
+     */
+    private final List<BulkLoader> bulkLoaderList = new ArrayList<>();
+
+    private volatile BulkLoader multiRowInsertLoader;
+
+    /**
+     * 原生批量加载失败的时间：表名:方言 -> 失败时间（毫秒），重试间隔内该表只使用多行insert
+     */
+    private final Map<String, Long> nativeBulkFailedMap = new ConcurrentHashMap<>();
+
+    /**
+     * 差异查询sql -> 分页sql
+     */
+    private final Map<String, String[]> pageSqlCache = new ConcurrentHashMap<>();
+
     public ModelDao(JdbcTemplate jdbcTemplate, NamedParameterJdbcTemplate namedParameterJdbcTemplate) {
+        this(jdbcTemplate, namedParameterJdbcTemplate, emptyList());
+    }
+
+    public ModelDao(JdbcTemplate jdbcTemplate, NamedParameterJdbcTemplate namedParameterJdbcTemplate,
+                    List<BulkLoader> bulkLoaderList) {
         this.jdbcTemplate = jdbcTemplate;
         this.namedJdbcTemplate = namedParameterJdbcTemplate;
+        this.bulkLoaderList.addAll(bulkLoaderList);
+        this.bulkLoaderList.add(new MysqlBulkLoader());
+        this.bulkLoaderList.add(new PostgresBulkLoader());
+        this.bulkLoaderList.add(new H2BulkLoader());
     }
 
 
     public <T> void loadToTemp(List<T> dataList, DataModel<T> model) {
 
-        String insertSql = model.getInsertTempSql();
+        if (bulkEnabled && !isEmpty(dataList)) {
+            jdbcTemplate.execute((ConnectionCallback<Object>) con -> {
+                bulkLoad(con, model, dataList);
+                return null;
+            });
+        } else {
+            String insertSql = model.getInsertTempBatchSql();
+            jdbcTemplate.batchUpdate(insertSql, new ModelBatchSetter<>(model, dataList, model.getInsertParamIndex()));
+        }
+    }
+
+
+    /**
+     * 批量加载：优先使用数据库原生方式，原生方式失败时（如MySQL未开启local_infile）
+     * 退化为多行insert，该表在重试间隔内不再尝试原生方式，其他表和方言不受影响。
+     * 原生方式是单条语句整批导入，失败时临时表中没有这一批的数据，可以直接重试
+     */
+    private <T> void bulkLoad(Connection con, DataModel<T> model, List<T> dataList) throws SQLException {
+        BulkLoader loader = selectBulkLoader(model);
+
+        if (loader != getMultiRowInsertLoader()) {
+            try {
+                loader.load(con, model, dataList);
+                return;
+            } catch (SQLException | IllegalStateException e) {
+                nativeBulkFailedMap.put(nativeBulkKey(model), System.currentTimeMillis());
+                log.warn("- bulk load by {} failed, use multi-row insert for table {} in next {}ms",
+                        loader.getClass().getSimpleName(), model.getTable(), bulkRetryInterval, e);
+
+                //PostgreSQL语句失败后整个事务不可用，只能回滚，下次同步再使用多行insert
+                if (getDialect() == SyncDialect.POSTGRESQL && !con.getAutoCommit()) {
+                    throw e;
+                }
+            }
+        }
+
+        getMultiRowInsertLoader().load(con, model, dataList);
+    }
+
+
+    private <T> BulkLoader selectBulkLoader(DataModel<T> model) {
+        if (!BulkText.supports(model) || isNativeBulkSuspended(model)) {
+            return getMultiRowInsertLoader();
+        }
+
+        SyncDialect current = getDialect();
+        return bulkLoaderList.stream()
+                .filter(loader -> loader.supports(current) && loader.isAvailable())
+                .findFirst()
+                .orElseGet(this::getMultiRowInsertLoader);
+    }
+
+
+    private <T> boolean isNativeBulkSuspended(DataModel<T> model) {
+        String key = nativeBulkKey(model);
+        Long failedAt = nativeBulkFailedMap.get(key);
+        if (failedAt == null) {
+            return false;
+        }
+
+        if (System.currentTimeMillis() - failedAt < bulkRetryInterval) {
+            return true;
+        }
+
+        nativeBulkFailedMap.remove(key, failedAt);
+        log.info("- retry native bulk load for table: {}", model.getTable());
+        return false;
+    }
+
+
+    private <T> String nativeBulkKey(DataModel<T> model) {
+        return model.getTable() + ":" + getDialect();
+    }
+
+
+    private BulkLoader getMultiRowInsertLoader() {
+        if (multiRowInsertLoader == null) {
+            multiRowInsertLoader = new MultiRowInsertLoader(rowsPerStatement);
+        }
+        return multiRowInsertLoader;
+    }
+
+
+    /**
+     * 流式加载数据到临时表：
+     * 数据源逐条产生数据，直接按下标绑定到同一个PreparedStatement，
+     * 每batchSize条执行一次批量插入，内存占用与页大小无关
+     *
+     * @param model     模型
+     * @param batchSize 批量大小
+     * @param source    数据源，参数为数据消费者，返回数据总数
+     * @param <T>       泛型
+     * @return          数据源返回的数据总数
+     */
+    public <T> long streamToTemp(DataModel<T> model, int batchSize, ToLongFunction<Consumer<T>> source) {
+
+        String insertSql = model.getInsertTempBatchSql();
+        PropertyAccessor[] accessors = ModelBatchSetter.accessorsOf(model, model.getInsertParamIndex());
 
-        namedJdbcTemplate.batchUpdate(insertSql, SqlParameterSourceUtils.createBatch(dataList));
+        Long total = jdbcTemplate.execute(insertSql, (PreparedStatementCallback<Long>) ps -> {
+            int[] count = {0};
 
+            long result = source.applyAsLong(data -> {
+                try {
+                    ModelBatchSetter.setValues(ps, accessors, data);
+                    ps.addBatch();
+
+                    if (++count[0] % batchSize == 0) {
+                        ps.executeBatch();
+                    }
+                } catch (SQLException e) {
+                    throw translate(insertSql, e);
+                }
+            });
+
+            if (count[0] % batchSize != 0) {
+                ps.executeBatch();
+            }
+
+            return result;
+        });
+
+        return total == null ? 0 : total;
+    }
+
+
+    /**
+     * 逻辑删除模型：临时表中的数据均为数据源中存在的数据，统一置为未删除，
+     * 每次同步在比对前执行一次
+     *
+     * @param model     模型
+     * @param <T>       泛型
+     */
+    public <T> void resetTempTombstone(DataModel<T> model) {
         if (!model.isTombstone()) {
             return;
         }
 
-        String tombstone = model.getTombstoneColumn();
-        String table = model.getTable();
-        jdbcTemplate.update("update " + table + " set " + tombstone + "=" + model.getNotDeletedValue());
+        jdbcTemplate.update(model.getResetTempTombstoneSql());
+    }
+
+
+    /**
+     * 逻辑删除模型：恢复已逻辑删除、但数据源中重新出现的数据，所有字段以临时表为准，
+     * 恢复的数据分批交给consumer
+     *
+     * @param model     模型
+     * @param consumer  恢复数据消费者，每批写入主表后交给consumer，为null时不查询变更数据
+     * @param <T>       泛型
+     * @return          恢复数量
+     */
+    public <T> int revive(DataModel<T> model, Consumer<List<T>> consumer) {
+        if (!model.isTombstone()) {
+            return 0;
+        }
+
+        if (consumer == null) {
+            return jdbcTemplate.update(model.getReviveSql());
+        }
+
+        return applyInChunk(model.getQueryReviveSql(), model, chunk -> {
+            updateRows(model, chunk);
+            consumer.accept(chunk);
+        });
+    }
+
+
+    /**
+     * 逻辑删除模型：在id范围内恢复已逻辑删除、但数据源中重新出现的数据
+     *
+     * @param model     模型
+     * @param range     id范围
+     * @param consumer  恢复数据消费者，每批写入主表后交给consumer，为null时不查询变更数据
+     * @param <T>       泛型
+     * @return          恢复数量
+     */
+    public <T> int reviveInRange(DataModel<T> model, IdRange range, Consumer<List<T>> consumer) {
+        if (!model.isTombstone()) {
+            return 0;
+        }
+
+        Object[] args = {range.getFrom(), range.getTo()};
+
+        if (consumer == null) {
+            return jdbcTemplate.update(model.getReviveRangeSql(), args);
+        }
+
+        return applyInChunk(model.getQueryReviveRangeSql(), model, chunk -> {
+            updateRows(model, chunk);
+            consumer.accept(chunk);
+        }, args);
     }
 
 
-    public <T> List<T> add(DataModel<T> model) {
+    private DataAccessException translate(String sql, SQLException e) {
+        DataAccessException exception = jdbcTemplate.getExceptionTranslator().translate("streamToTemp", sql, e);
+        return exception == null ? new UncategorizedSQLException("streamToTemp", sql, e) : exception;
+    }
+
+
+    /**
+     * 比对临时表新增数据，新增的数据分批交给consumer
+     *
+     * @param model     模型
+     * @param consumer  新增数据消费者，每批写入主表后交给consumer，为null时不查询变更数据
+     * @param <T>       泛型
+     * @return          新增数量
+     */
+    public <T> int add(DataModel<T> model, Consumer<List<T>> consumer) {
 
         String queryAddSql = model.getQueryAddSql();
         String addSql = model.getAddSql();
 
-        List<T> addList = jdbcTemplate.query(queryAddSql, model.getRowMapper());
-        if (ObjectUtils.isEmpty(addList)) {
-            return emptyList();
+        //没有监听时不查询变更数据，直接执行
+        if (consumer == null) {
+            return jdbcTemplate.update(addSql);
         }
 
-        jdbcTemplate.update(addSql);
-
-        return addList;
+        return applyInChunk(queryAddSql, model, chunk -> {
+            insertRows(model, chunk);
+            consumer.accept(chunk);
+        });
     }
 
 
 
-    public <T> UpdateData<T> update(DataModel<T> model) {
+    /**
+     * 比对临时表更新数据，更新的数据分批（连同更新前的数据）交给consumer
+     *
+     * @param model     模型
+     * @param consumer  更新数据消费者，每批写入主表后交给consumer，为null时不查询变更数据
+     * @param <T>       泛型
+     * @return          更新数量
+     */
+    public <T> int update(DataModel<T> model, Consumer<UpdateData<T>> consumer) {
 
         String queryUpdateSql = model.getQueryUpdateSql();
-        String queryOldSql = model.getQueryOldSql();
         String updateSql = model.getUpdateAllSql();
 
-        List<T> updateList = jdbcTemplate.query(queryUpdateSql, model.getRowMapper());
-        if (ObjectUtils.isEmpty(updateList)) {
-            return UpdateData.empty();
+        if (consumer == null) {
+            return jdbcTemplate.update(updateSql);
         }
 
-        List<T> oldList = jdbcTemplate.query(queryOldSql, model.getRowMapper());
-        jdbcTemplate.update(updateSql);
-
-        return new UpdateData<>(updateList, oldList);
+        return applyInChunk(queryUpdateSql, model, chunk -> {
+            List<T> oldList = getListById(model, chunk.stream().map(model::getIdOf).collect(toList()));
+            updateRows(model, chunk);
+            consumer.accept(new UpdateData<>(chunk, oldList));
+        });
     }
 
 
 
-    public <T> List<T> delete(DataModel<T> model) {
+    /**
+     * 比对临时表删除数据，删除的数据分批交给consumer。
+     * 逻辑删除模型只将未删除的数据标记为已删除，已删除的数据不再重复产生删除事件
+     *
+     * @param model     模型
+     * @param consumer  删除数据消费者，每批写入主表后交给consumer，为null时不查询变更数据
+     * @param <T>       泛型
+     * @return          删除数量
+     */
+    public <T> int delete(DataModel<T> model, Consumer<List<T>> consumer) {
 
         String queryDeleteSql = model.getQueryDeleteSql();
 
         String deleteSql = model.getDeleteAllSql();
 
-        List<T> deleteList = jdbcTemplate.query(queryDeleteSql, model.getRowMapper());
-        if (ObjectUtils.isEmpty(deleteList)) {
-            return emptyList();
+        if (consumer == null) {
+            return jdbcTemplate.update(deleteSql);
+        }
+
+        return applyInChunk(queryDeleteSql, model, chunk -> {
+            deleteRows(model, chunk);
+            consumer.accept(chunk);
+        });
+    }
+
+
+    /**
+     * 比对id临时表删除数据：本地存在而数据源id列表中不存在的数据，删除的数据分批交给consumer
+     *
+     * @param model     模型
+     * @param consumer  删除数据消费者，每批写入主表后交给consumer，为null时不查询变更数据
+     * @param <T>       泛型
+     * @return          删除数量
+     */
+    public <T> int deleteMissingId(DataModel<T> model, Consumer<List<T>> consumer) {
+
+        if (consumer == null) {
+            return jdbcTemplate.update(model.getDeleteByIdSql());
+        }
+
+        return applyInChunk(model.getQueryDeleteByIdSql(), model, chunk -> {
+            deleteRows(model, chunk);
+            consumer.accept(chunk);
+        });
+    }
+
+
+    /**
+     * 在id范围内比对临时表删除数据，删除的数据分批交给consumer
+     *
+     * @param model     模型
+     * @param range     id范围
+     * @param consumer  删除数据消费者，每批写入主表后交给consumer，为null时不查询变更数据
+     * @param <T>       泛型
+     * @return          删除数量
+     */
+    public <T> int deleteInRange(DataModel<T> model, IdRange range, Consumer<List<T>> consumer) {
+
+        Object[] args = {range.getFrom(), range.getTo()};
+
+        if (consumer == null) {
+            return jdbcTemplate.update(model.getDeleteRangeSql(), args);
         }
 
-        jdbcTemplate.update(deleteSql);
+        return applyInChunk(model.getQueryDeleteRangeSql(), model, chunk -> {
+            deleteRows(model, chunk);
+            consumer.accept(chunk);
+        }, args);
+    }
+
+
+    /**
+     * 在id范围内比对临时表新增数据，新增的数据分批交给consumer
+     *
+     * @param model     模型
+     * @param range     id范围
+     * @param consumer  新增数据消费者，每批写入主表后交给consumer，为null时不查询变更数据
+     * @param <T>       泛型
+     * @return          新增数量
+     */
+    public <T> int addInRange(DataModel<T> model, IdRange range, Consumer<List<T>> consumer) {
+
+        Object[] args = {range.getFrom(), range.getTo()};
+
+        if (consumer == null) {
+            return jdbcTemplate.update(model.getAddRangeSql(), args);
+        }
+
+        return applyInChunk(model.getQueryAddRangeSql(), model, chunk -> {
+            insertRows(model, chunk);
+            consumer.accept(chunk);
+        }, args);
+    }
+
+
+    /**
+     * 在id范围内比对临时表更新数据，更新的数据分批（连同更新前的数据）交给consumer
+     *
+     * @param model     模型
+     * @param range     id范围
+     * @param consumer  更新数据消费者，每批写入主表后交给consumer，为null时不查询变更数据
+     * @param <T>       泛型
+     * @return          更新数量
+     */
+    public <T> int updateInRange(DataModel<T> model, IdRange range, Consumer<UpdateData<T>> consumer) {
+
+        Object[] args = {range.getFrom(), range.getTo()};
+
+        if (consumer == null) {
+            return jdbcTemplate.update(model.getUpdateRangeSql(), args);
+        }
+
+        return applyInChunk(model.getQueryUpdateRangeSql(), model, chunk -> {
+            List<T> oldList = getListById(model, chunk.stream().map(model::getIdOf).collect(toList()));
+            updateRows(model, chunk);
+            consumer.accept(new UpdateData<>(chunk, oldList));
+        }, args);
+    }
+
+
+    /**
+     * 按临时表的行数将id划分为连续的范围，每个范围包含临时表中约rows条数据，
+     * 第一个范围从Long.MIN_VALUE开始、最后一个范围到Long.MAX_VALUE结束，覆盖主表中的全部id
+     *
+     * @param model     模型
+     * @param rows      每个范围的行数
+     * @param <T>       泛型
+     * @return          id范围
+     */
+    public <T> List<IdRange> splitTempRange(DataModel<T> model, int rows) {
+        List<IdRange> result = new ArrayList<>();
+        long from = Long.MIN_VALUE;
+
+        while (true) {
+            List<Long> bound = jdbcTemplate.queryForList(model.getQueryTempRangeBoundSql(), Long.class, from, rows - 1);
+            if (bound.isEmpty() || bound.get(0) == Long.MAX_VALUE) {
+                result.add(new IdRange(from, Long.MAX_VALUE));
+                return result;
+            }
+
+            long to = bound.get(0);
+            result.add(new IdRange(from, to));
+            from = to + 1;
+        }
+    }
+
+
+    /**
+     * 计算本地每个id范围的校验和，在数据库中聚合，每个范围只返回一行
+     *
+     * @param model     模型
+     * @param rangeList id范围
+     * @param <T>       泛型
+     * @return          校验和，与rangeList一一对应
+     */
+    public <T> List<RangeChecksum> checksum(DataModel<T> model, List<IdRange> rangeList) {
+        String sql = model.getQueryRangeChecksumSql();
+        List<RangeChecksum> result = new ArrayList<>(rangeList.size());
+
+        for (IdRange range : rangeList) {
+            RangeChecksum checksum = SyncChecksum.empty(range);
+
+            jdbcTemplate.query(sql, (RowCallbackHandler) rs -> {
+                checksum.setCount(rs.getLong(1));
+                checksum.setChecksum(SyncChecksum.wrap(rs.getBigDecimal(2)));
+                checksum.setMinId(getLong(rs, 3));
+                checksum.setMaxId(getLong(rs, 4));
+            }, range.getFrom(), range.getTo());
+
+            result.add(checksum);
+        }
+
+        return result;
+    }
+
+
+    private static Long getLong(ResultSet rs, int index) throws SQLException {
+        long value = rs.getLong(index);
+        return rs.wasNull() ? null : value;
+    }
+
+
+    /**
+     * 按id顺序分页查询差异数据，每页（不超过chunkSize条）交给applier：
+     * applier按id将这一页写入主表后再发射事件，监听收到事件时主表已是变更后的数据。
+     * 每页单独查询，不保持打开的游标，同一连接上可以执行其他语句
+     *
+     * @param sql       差异查询sql，表别名为a
+     * @param model     模型
+     * @param applier   分页数据处理
+     * @param args      查询参数
+     * @param <T>       泛型
+     * @return          数据总数
+     */
+    private <T> int applyInChunk(String sql, DataModel<T> model, Consumer<List<T>> applier, Object... args) {
+        String[] pageSql = pageSqlCache.computeIfAbsent(sql, s -> toPageSql(s, model));
+        Object[] pageArgs = Arrays.copyOf(args, args.length + 1);
+        int count = 0;
+
+        List<T> chunk = jdbcTemplate.query(pageSql[0], model.getRowMapper(), args);
+        while (!chunk.isEmpty()) {
+            applier.accept(chunk);
+            count += chunk.size();
+
+            if (chunk.size() < chunkSize) {
+                break;
+            }
+
+            pageArgs[args.length] = model.getIdOf(chunk.get(chunk.size() - 1));
+            chunk = jdbcTemplate.query(pageSql[1], model.getRowMapper(), pageArgs);
+        }
+
+        return count;
+    }
+
+
+    /**
+     * 差异查询的分页sql：第一页、id大于上一页最后一个id的后续页
+     */
+    private String[] toPageSql(String sql, DataModel<?> model) {
+        int index = sql.indexOf(" where ");
+        String select = sql.substring(0, index);
+        String condition = "(" + sql.substring(index + " where ".length()) + ")";
+        String order = " order by a." + model.getIdColumn() + " limit " + chunkSize;
+
+        return new String[]{
+                select + " where " + condition + order,
+                select + " where " + condition + " and a." + model.getIdColumn() + " > ?" + order
+        };
+    }
+
+
+    private <T> void insertRows(DataModel<T> model, List<T> rowList) {
+        jdbcTemplate.batchUpdate(model.getInsertSql(), new ModelBatchSetter<>(model, rowList, model.getInsertParamIndex()));
+    }
+
+
+    /**
+     * 按id将所有字段更新为临时表中的数据
+     */
+    private <T> void updateRows(DataModel<T> model, List<T> rowList) {
+        jdbcTemplate.batchUpdate(model.getUpdateByIdSql(), new ModelBatchSetter<>(model, rowList, model.getUpdateByIdParamIndex()));
+    }
+
+
+    /**
+     * 按id删除，逻辑删除模型为标记删除
+     */
+    private <T> void deleteRows(DataModel<T> model, List<T> rowList) {
+        List<Object> idList = rowList.stream().map(model::getIdOf).collect(toList());
+        namedJdbcTemplate.update(model.getDeleteByIdListSql(), Collections.singletonMap("idList", idList));
+    }
+
 
-        return deleteList;
+
+    /**
+     * 交换主表与临时表的表名：交换后主表为临时表中加载的数据，临时表为原主表数据。
+     * 注意MySQL、H2的DDL会隐式提交当前事务
+     *
+     * @param model     模型
+     * @param <T>       泛型
+     */
+    public <T> void swapTemp(DataModel<T> model) {
+        getDialect().swapTableSql(model.getTable(), model.getTempTable()).forEach(jdbcTemplate::execute);
     }
 
 
@@ -113,6 +644,72 @@ public class ModelDao {
         jdbcTemplate.execute(sql);
     }
 
+
+
+    /**
+     * 创建id临时表，建表语句（create table ... select）只支持MySQL
+     */
+    public <T> void createIdTempTableIfNotExist(DataModel<T> model) {
+        if (getDialect() != SyncDialect.MYSQL) {
+            throw new IllegalStateException("incremental sync only supports MySQL, table = " + model.getTable()
+                    + ", dialect = " + getDialect());
+        }
+        jdbcTemplate.execute(model.getCreateIdTempSql());
+    }
+
+
+
+    public <T> void deleteIdTemp(DataModel<T> model) {
+        jdbcTemplate.execute("delete from " + model.getIdTempTable());
+    }
+
+
+
+    public <T> void loadIdToTemp(List<Object> idList, DataModel<T> model) {
+        if (isEmpty(idList)) {
+            return;
+        }
+
+        List<Object[]> paramList = idList.stream().map(id -> new Object[]{id}).collect(toList());
+        jdbcTemplate.batchUpdate(model.getInsertIdTempSql(), paramList);
+    }
+
+
+    /**
+     * 用主表中的当前数据替换临时表（以及id临时表）中指定id的数据
+     *
+     * @param model     模型
+     * @param idList    id list
+     * @param idTemp    是否同时替换id临时表
+     * @param <T>       泛型
+     */
+    public <T> void replaceTempById(DataModel<T> model, List<Object> idList, boolean idTemp) {
+        for (int i = 0; i < idList.size(); i += chunkSize) {
+            List<Object> subList = idList.subList(i, Math.min(i + chunkSize, idList.size()));
+            Map<String, Object> params = Collections.singletonMap("idList", subList);
+
+            namedJdbcTemplate.update(model.getDeleteTempByIdSql(), params);
+            namedJdbcTemplate.update(model.getCopyToTempByIdSql(), params);
+
+            if (idTemp) {
+                namedJdbcTemplate.update(model.getDeleteIdTempByIdSql(), params);
+                namedJdbcTemplate.update(model.getCopyToIdTempByIdSql(), params);
+            }
+        }
+    }
+
+
+    /**
+     * 查询临时表中数据的最大更新时间，作为增量同步的水位线
+     *
+     * @param model     模型
+     * @param <T>       泛型
+     * @return          最大更新时间，临时表为空时返回null
+     */
+    public <T> Object queryWatermark(DataModel<T> model) {
+        return jdbcTemplate.queryForObject(model.getQueryWatermarkSql(), Object.class);
+    }
+
     /**
      * 根据id批量查询
      *
@@ -128,9 +725,25 @@ public class ModelDao {
 
         Map<String, Object> params = Collections.singletonMap("idList", idList);
 
-        String sql = "select * from " + model.getTable() + " where " + model.getIdColumn() + " in (:idList)";
+        return namedJdbcTemplate.query(model.getQueryByIdSql(), params, model.getRowMapper());
+    }
 
-        return namedJdbcTemplate.query(sql, params, model.getRowMapper());
+    /**
+     * 根据二级索引字段查询
+     *
+     * @param model     模型
+     * @param column    索引字段，需有SyncIndex注解
+     * @param value     字段值
+     * @param <T>       泛型
+     * @return          list
+     */
+    public <T> List<T> getListByIndex(DataModel<T> model, String column, Object value) {
+        String sql = model.getQueryByIndexSqlMap().get(column);
+        if (sql == null) {
+            throw new IllegalStateException("column is not indexed: " + column + ", table = " + model.getTable());
+        }
+
+        return jdbcTemplate.query(sql, model.getRowMapper(), value);
     }
 
     /**
@@ -168,6 +781,10 @@ public class ModelDao {
             return new SaveOrUpdateResult<>();
         }
 
+        if (upsert) {
+            return upsertDelta(model, idList, data);
+        }
+
         Set<Object> existSet = getExistIdSet(model, idList);
 
         Map<Boolean, List<T>> map = data.stream().collect(groupingBy(d -> existSet.contains(model.getIdOf(d))));
@@ -182,6 +799,42 @@ public class ModelDao {
     }
 
 
+    /**
+     * 原生upsert：查询已存在的id（或更新前的数据）用于区分新增和更新事件，再用一条批量语句写入
+     *
+     * @param model     模型
+     * @param idList    id列表
+     * @param data      数据
+     * @param <T>       泛型
+     * @return          新增和更新的数据
+     */
+    private <T> SaveOrUpdateResult<T> upsertDelta(DataModel<T> model, List<Object> idList, List<T> data) {
+        boolean beforeImage = model.isBeforeImageRequired();
+        List<T> oldData = beforeImage ? getListById(model, idList) : emptyList();
+        Set<Object> existSet = beforeImage
+                ? oldData.stream().map(model::getIdOf).collect(toSet())
+                : getExistIdSet(model, idList);
+
+        String upsertSql = model.getUpsertSqlMap().get(getDialect());
+        jdbcTemplate.batchUpdate(upsertSql, new ModelBatchSetter<>(model, data, model.getInsertParamIndex()));
+
+        Map<Boolean, List<T>> map = data.stream().collect(groupingBy(d -> existSet.contains(model.getIdOf(d))));
+        List<T> updateList = map.getOrDefault(Boolean.TRUE, emptyList());
+
+        return new SaveOrUpdateResult<>(map.get(Boolean.FALSE), new UpdateData<>(updateList, oldData));
+    }
+
+
+    public SyncDialect getDialect() {
+        if (dialect == null) {
+            dialect = notBlank(dialectName)
+                    ? SyncDialect.valueOf(dialectName.toUpperCase(Locale.ROOT))
+                    : SyncDialect.of(jdbcTemplate.execute((ConnectionCallback<String>) con -> con.getMetaData().getDatabaseProductName()));
+        }
+        return dialect;
+    }
+
+
 
     /**
      * 批量插入
@@ -196,8 +849,7 @@ public class ModelDao {
         }
 
         String insertSql = model.getInsertSql();
-        SqlParameterSource[] batch = SqlParameterSourceUtils.createBatch(data);
-        namedJdbcTemplate.batchUpdate(insertSql, batch);
+        jdbcTemplate.batchUpdate(insertSql, new ModelBatchSetter<>(model, data, model.getInsertParamIndex()));
     }
 
 
@@ -236,11 +888,11 @@ public class ModelDao {
             return UpdateData.empty();
         }
 
-        List<T> oldData = getListById(model, idList);
+        List<T> oldData = model.isBeforeImageRequired() ? getListById(model, idList) : emptyList();
 
         String updateDeltaSql = model.getUpdateDeltaSql();
-        namedJdbcTemplate.batchUpdate(updateDeltaSql, SqlParameterSourceUtils.createBatch(data));
+        jdbcTemplate.batchUpdate(updateDeltaSql, new ModelBatchSetter<>(model, data, model.getUpdateDeltaParamIndex()));
 
-        return new UpdateData<>(oldData, data);
+        return new UpdateData<>(data, oldData);
     }
 }
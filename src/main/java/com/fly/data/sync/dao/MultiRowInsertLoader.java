@@ -0,0 +1,90 @@
+package com.fly.data.sync.dao;
+
+import com.fly.data.sync.constant.SyncDialect;
+import com.fly.data.sync.entity.DataModel;
+import com.fly.data.sync.util.PropertyAccessor;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 多行insert：insert into ... values (...),(...)，每条语句写入多行，
+ * 所有数据库都支持，作为没有原生批量导入时的兜底实现。
+ * 每条语句的参数数量不超过{@link #MAX_PARAMETERS}
+ *
+ * @author guoxiang
+ * @version 1.0.0
+ * @since 2021/12/2
+ */
+public class MultiRowInsertLoader implements BulkLoader {
+
+    /**
+     * 单条语句最大参数数量，低于MySQL、PostgreSQL的65535限制
+     */
+    private static final int MAX_PARAMETERS = 60000;
+
+    private final int rowsPerStatement;
+
+    /**
+     * table + 行数 -> sql
+     */
+    private final Map<String, String> sqlCache = new ConcurrentHashMap<>();
+
+    public MultiRowInsertLoader(int rowsPerStatement) {
+        this.rowsPerStatement = Math.max(rowsPerStatement, 1);
+    }
+
+
+    @Override
+    public boolean supports(SyncDialect dialect) {
+        return true;
+    }
+
+
+    @Override
+    public <T> void load(Connection con, DataModel<T> model, List<T> dataList) throws SQLException {
+        PropertyAccessor[] accessors = ModelBatchSetter.accessorsOf(model, model.getInsertParamIndex());
+        int rows = Math.min(rowsPerStatement, Math.max(MAX_PARAMETERS / accessors.length, 1));
+
+        int fullSize = dataList.size() / rows * rows;
+        if (fullSize > 0) {
+            execute(con, model, accessors, dataList.subList(0, fullSize), rows);
+        }
+        if (fullSize < dataList.size()) {
+            List<T> rest = dataList.subList(fullSize, dataList.size());
+            execute(con, model, accessors, rest, rest.size());
+        }
+    }
+
+
+    /**
+     * 每rows行数据绑定为一条语句，多条语句批量执行
+     */
+    private <T> void execute(Connection con, DataModel<T> model, PropertyAccessor[] accessors,
+                             List<T> dataList, int rows) throws SQLException {
+
+        String sql = sqlCache.computeIfAbsent(model.getTable() + "#" + rows, key -> buildSql(model, rows));
+
+        try (PreparedStatement ps = con.prepareStatement(sql)) {
+            for (int start = 0; start < dataList.size(); start += rows) {
+                for (int i = 0; i < rows; i++) {
+                    ModelBatchSetter.setValues(ps, accessors, dataList.get(start + i), i * accessors.length);
+                }
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+    }
+
+
+    private static String buildSql(DataModel<?> model, int rows) {
+        String values = "(" + model.getPlaceholderString() + ")";
+        return "insert into " + model.getTempTable() + " (" + model.getColumnString() + ") values " +
+                String.join(",", Collections.nCopies(rows, values));
+    }
+}
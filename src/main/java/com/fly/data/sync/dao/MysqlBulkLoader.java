@@ -0,0 +1,83 @@
+package com.fly.data.sync.dao;
+
+import com.fly.data.sync.constant.SyncDialect;
+import com.fly.data.sync.entity.DataModel;
+import org.springframework.util.ClassUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * MySQL LOAD DATA LOCAL INFILE：数据在内存中生成tab分隔文本，
+ * 通过驱动的setLocalInfileInputStream作为文件内容上传，不落地文件。
+ * 需要连接参数allowLoadLocalInfile=true，驱动通过反射调用，不引入编译依赖
+ *
+ * @author guoxiang
+ * @version 1.0.0
+ * @since 2021/12/2
+ */
+public class MysqlBulkLoader implements BulkLoader {
+
+    /**
+     * Connector/J 8.x 和 5.x 的Statement接口
+     */
+    private static final String[] STATEMENT_CLASS_NAMES = {"com.mysql.cj.jdbc.JdbcStatement", "com.mysql.jdbc.Statement"};
+
+    private final Class<?> statementClass;
+
+    private final Method setInputStreamMethod;
+
+    public MysqlBulkLoader() {
+        Class<?> resolvedClass = null;
+        Method resolvedMethod = null;
+
+        for (String className : STATEMENT_CLASS_NAMES) {
+            try {
+                resolvedClass = ClassUtils.forName(className, MysqlBulkLoader.class.getClassLoader());
+                resolvedMethod = resolvedClass.getMethod("setLocalInfileInputStream", InputStream.class);
+                break;
+            } catch (ClassNotFoundException | LinkageError | NoSuchMethodException e) {
+                resolvedClass = null;
+            }
+        }
+
+        this.statementClass = resolvedClass;
+        this.setInputStreamMethod = resolvedMethod;
+    }
+
+
+    @Override
+    public boolean supports(SyncDialect dialect) {
+        return dialect == SyncDialect.MYSQL;
+    }
+
+
+    @Override
+    public boolean isAvailable() {
+        return statementClass != null;
+    }
+
+
+    @Override
+    public <T> void load(Connection con, DataModel<T> model, List<T> dataList) throws SQLException {
+        byte[] content = BulkText.toTabText(model, dataList, true).getBytes(StandardCharsets.UTF_8);
+
+        String sql = "load data local infile 'sync_data.tsv' into table " + model.getTempTable() +
+                " character set utf8mb4 fields terminated by '\\t' lines terminated by '\\n' (" + model.getColumnString() + ")";
+
+        try (Statement statement = con.createStatement()) {
+            Object mysqlStatement = statement.unwrap(statementClass);
+            setInputStreamMethod.invoke(mysqlStatement, new ByteArrayInputStream(content));
+            statement.execute(sql);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException("set local infile input stream error", e);
+        }
+    }
+}
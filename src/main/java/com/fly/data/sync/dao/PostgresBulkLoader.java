@@ -0,0 +1,81 @@
+package com.fly.data.sync.dao;
+
+import com.fly.data.sync.constant.SyncDialect;
+import com.fly.data.sync.entity.DataModel;
+import org.springframework.util.ClassUtils;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * PostgreSQL COPY FROM STDIN：数据在内存中生成text格式，通过驱动的CopyManager写入，
+ * 驱动通过反射调用，不引入编译依赖
+ *
+ * @author guoxiang
+ * @version 1.0.0
+ * @since 2021/12/2
+ */
+public class PostgresBulkLoader implements BulkLoader {
+
+    private final Class<?> connectionClass;
+
+    private final Method getCopyApiMethod;
+
+    private final Method copyInMethod;
+
+    public PostgresBulkLoader() {
+        Class<?> resolvedClass = null;
+        Method resolvedGetCopyApi = null;
+        Method resolvedCopyIn = null;
+
+        try {
+            ClassLoader classLoader = PostgresBulkLoader.class.getClassLoader();
+            resolvedClass = ClassUtils.forName("org.postgresql.PGConnection", classLoader);
+            resolvedGetCopyApi = resolvedClass.getMethod("getCopyAPI");
+            resolvedCopyIn = ClassUtils.forName("org.postgresql.copy.CopyManager", classLoader)
+                    .getMethod("copyIn", String.class, Reader.class);
+        } catch (ClassNotFoundException | LinkageError | NoSuchMethodException e) {
+            resolvedClass = null;
+        }
+
+        this.connectionClass = resolvedClass;
+        this.getCopyApiMethod = resolvedGetCopyApi;
+        this.copyInMethod = resolvedCopyIn;
+    }
+
+
+    @Override
+    public boolean supports(SyncDialect dialect) {
+        return dialect == SyncDialect.POSTGRESQL;
+    }
+
+
+    @Override
+    public boolean isAvailable() {
+        return connectionClass != null;
+    }
+
+
+    @Override
+    public <T> void load(Connection con, DataModel<T> model, List<T> dataList) throws SQLException {
+        String content = BulkText.toTabText(model, dataList, false);
+        String sql = "copy " + model.getTempTable() + " (" + model.getColumnString() + ") from stdin";
+
+        try {
+            Object copyApi = getCopyApiMethod.invoke(con.unwrap(connectionClass));
+            copyInMethod.invoke(copyApi, sql, new StringReader(content));
+        } catch (InvocationTargetException e) {
+            if (e.getTargetException() instanceof SQLException) {
+                throw (SQLException) e.getTargetException();
+            }
+            throw new IllegalStateException("copy in error", e.getTargetException());
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("copy in error", e);
+        }
+    }
+}
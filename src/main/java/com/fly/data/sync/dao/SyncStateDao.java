@@ -0,0 +1,163 @@
+package com.fly.data.sync.dao;
+
+import com.fly.data.sync.constant.SyncDialect;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static com.fly.data.sync.constant.SyncSql.*;
+
+/**
+ * 同步状态：每个表一行。
+ * 记录全量同步进行到的阶段，同步中断（如进程退出）后，下一次同步根据标记从该阶段继续；
+ * 记录增量同步的水位线，重启后不需要先做一次全量同步；
+ * 记录比对中断后增量同步修改过的id，恢复比对前据此修正临时表
+ *
+ * @author guoxiang
+ * @version 1.0.0
+ * @since 2021/12/6
+ */
+public class SyncStateDao {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * 数据库方言，与ModelDao识别的一致，首次使用时才解析
+     */
+    private final Supplier<SyncDialect> dialectSupplier;
+
+    private volatile String insertDirtySql;
+
+    public SyncStateDao(JdbcTemplate jdbcTemplate, Supplier<SyncDialect> dialectSupplier) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.dialectSupplier = dialectSupplier;
+    }
+
+
+    public void createStateTableIfNotExist() {
+        jdbcTemplate.execute(CREATE_STATE_SQL);
+        jdbcTemplate.execute(CREATE_DIRTY_SQL);
+    }
+
+
+    /**
+     * 查询表的同步阶段
+     *
+     * @param table     表名
+     * @return          阶段，没有标记时返回null
+     */
+    public String getPhase(String table) {
+        List<String> phaseList = jdbcTemplate.queryForList(QUERY_STATE_SQL, String.class, table);
+        return phaseList.isEmpty() ? null : phaseList.get(0);
+    }
+
+
+    /**
+     * 记录表的同步阶段
+     *
+     * @param table     表名
+     * @param phase     阶段
+     */
+    public void savePhase(String table, String phase) {
+        long now = System.currentTimeMillis();
+        if (jdbcTemplate.update(UPDATE_STATE_SQL, phase, now, table) > 0) {
+            return;
+        }
+
+        try {
+            jdbcTemplate.update(INSERT_STATE_SQL, table, phase, now);
+        } catch (DuplicateKeyException e) {
+            jdbcTemplate.update(UPDATE_STATE_SQL, phase, now, table);
+        }
+    }
+
+
+    /**
+     * 同步完成，清除阶段标记
+     *
+     * @param table     表名
+     */
+    public void clearPhase(String table) {
+        jdbcTemplate.update(CLEAR_STATE_SQL, System.currentTimeMillis(), table);
+    }
+
+
+    /**
+     * 查询表的水位线
+     *
+     * @param table     表名
+     * @return          水位线，没有时返回null
+     */
+    public String getWatermark(String table) {
+        List<String> watermarkList = jdbcTemplate.queryForList(QUERY_STATE_WATERMARK_SQL, String.class, table);
+        return watermarkList.isEmpty() ? null : watermarkList.get(0);
+    }
+
+
+    /**
+     * 记录表的水位线，与同步的数据在同一事务中提交
+     *
+     * @param table     表名
+     * @param watermark 水位线
+     */
+    public void saveWatermark(String table, String watermark) {
+        long now = System.currentTimeMillis();
+        if (jdbcTemplate.update(UPDATE_STATE_WATERMARK_SQL, watermark, now, table) > 0) {
+            return;
+        }
+
+        try {
+            jdbcTemplate.update(INSERT_STATE_WATERMARK_SQL, table, watermark, now);
+        } catch (DuplicateKeyException e) {
+            jdbcTemplate.update(UPDATE_STATE_WATERMARK_SQL, watermark, now, table);
+        }
+    }
+
+
+    /**
+     * 记录增量同步修改过的id，与增量同步的数据在同一事务中提交
+     *
+     * @param table     表名
+     * @param idList    id
+     */
+    public void saveDirtyId(String table, Collection<Object> idList) {
+        List<Object[]> argsList = idList.stream()
+                .map(id -> new Object[]{table, String.valueOf(id)})
+                .collect(Collectors.toList());
+        jdbcTemplate.batchUpdate(getInsertDirtySql(), argsList);
+    }
+
+
+    /**
+     * 查询记录的id
+     *
+     * @param table     表名
+     * @return          id（字符串形式）
+     */
+    public List<String> getDirtyIdList(String table) {
+        return jdbcTemplate.queryForList(QUERY_DIRTY_SQL, String.class, table);
+    }
+
+
+    /**
+     * 清除记录的id
+     *
+     * @param table     表名
+     */
+    public void clearDirtyId(String table) {
+        jdbcTemplate.update(DELETE_DIRTY_SQL, table);
+    }
+
+
+    private String getInsertDirtySql() {
+        if (insertDirtySql == null) {
+            insertDirtySql = dialectSupplier.get().insertIgnoreSql("sync_data_dirty", Arrays.asList("table_name", "id"));
+        }
+        return insertDirtySql;
+    }
+}
@@ -0,0 +1,45 @@
+package com.fly.data.sync.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 本地副本缓存的统计
+ *
+ * @author guoxiang
+ * @version 1.0.0
+ * @since 2021/12/10
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class CacheStats {
+
+    private String table;
+
+    /**
+     * 缓存的行数
+     */
+    private int size;
+
+    private long hitCount;
+
+    private long missCount;
+
+    /**
+     * 未命中时从数据库加载的次数
+     */
+    private long loadCount;
+
+    /**
+     * 超出容量被淘汰的行数
+     */
+    private long evictionCount;
+
+
+    public double getHitRate() {
+        long requestCount = hitCount + missCount;
+        return requestCount == 0 ? 1.0 : (double) hitCount / requestCount;
+    }
+}
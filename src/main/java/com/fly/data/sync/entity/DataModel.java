@@ -1,6 +1,11 @@
 package com.fly.data.sync.entity;
 
 import com.fly.data.sync.annotation.*;
+import com.fly.data.sync.constant.SyncDialect;
+import com.fly.data.sync.constant.SyncOperation;
+import com.fly.data.sync.constant.SyncStrategy;
+import com.fly.data.sync.util.PropertyAccessor;
+import com.fly.data.sync.util.StripedLock;
 import com.fly.data.sync.util.SyncCheck;
 import lombok.Data;
 import lombok.ToString;
@@ -8,16 +13,17 @@ import lombok.experimental.Accessors;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.relational.core.mapping.Column;
 import org.springframework.data.relational.core.mapping.Table;
-import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.NumberUtils;
 
 import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
-import java.util.Arrays;
-import java.util.List;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static com.fly.data.sync.constant.SyncConstant.*;
 import static com.fly.data.sync.constant.SyncSql.*;
@@ -38,9 +44,28 @@ public class DataModel<T> {
     private Class<T> modelClass;
 
     /**
-     * lock used for data-sync
+     * lock used for total sync, total syncs of one table run one by one
      */
-    private final ReentrantLock dataLock = new ReentrantLock();
+    private final ReentrantLock syncLock = new ReentrantLock();
+
+    /**
+     * lock used for data-sync, striped by id:
+     * delta sync locks the stripes of its ids, total sync locks all stripes only while applying the diff
+     */
+    private final StripedLock dataLock = new StripedLock(LOCK_STRIPES);
+
+    /**
+     * ids changed by delta sync while a total sync is running
+     */
+    private final Set<Object> dirtyIdSet = ConcurrentHashMap.newKeySet();
+
+    private volatile boolean tracking;
+
+    /**
+     * chunked total sync was interrupted while applying (state is APPLYING), so the temp table is kept for resuming:
+     * ids changed by delta sync are also persisted until the apply is resumed and finished
+     */
+    private volatile boolean applyPending;
 
     /**
      * table name
@@ -52,6 +77,11 @@ public class DataModel<T> {
      */
     private String tempTable;
 
+    /**
+     * id temp table name, used by incremental sync to check deleted rows
+     */
+    private String idTempTable;
+
     /**
      * id property name
      */
@@ -61,12 +91,27 @@ public class DataModel<T> {
 
     private Field idField;
 
-    private Method getIdMethod;
+    private PropertyAccessor idAccessor;
+
+    /**
+     * id是否为整数类型，范围比对同步要求id为整数
+     */
+    private boolean numericId;
+
+    /**
+     * id字段的类型，基本类型转换为包装类型
+     */
+    private Class<?> idType;
 
     private String updateTimeColumn;
 
     private String updateTimeField;
 
+    /**
+     * 更新时间字段在fieldList中的下标
+     */
+    private int updateTimeIndex;
+
     private String tombstoneColumn;
 
     private boolean tombstone;
@@ -77,11 +122,19 @@ public class DataModel<T> {
 
     private List<Field> fieldList;
 
+    /**
+     * 与fieldList一一对应的属性访问器
+     */
+    private List<PropertyAccessor> accessorList;
+
     private List<String> columnList;
 
     private String columnString;
 
-    private String fieldListString;
+    /**
+     * 与columnList一一对应的占位符：?,?,?
+     */
+    private String placeholderString;
 
     /**
      * 全量更新sql
@@ -89,19 +142,82 @@ public class DataModel<T> {
     private String updateSetAllString;
 
     /**
-     * 增量更新sql
+     * 增量更新sql：col1=?,col2=?
      */
     private String updateSetDeltaString;
 
-    private BeanPropertyRowMapper<T> rowMapper;
+    /**
+     * 插入语句按顺序绑定的字段下标，即columnList的下标
+     */
+    private int[] insertParamIndex;
+
+    /**
+     * 增量更新语句按顺序绑定的字段下标：非id字段、id、更新时间
+     */
+    private int[] updateDeltaParamIndex;
+
+    /**
+     * 按id更新语句按顺序绑定的字段下标：非id字段、id
+     */
+    private int[] updateByIdParamIndex;
+
+    /**
+     * 按columnList下标映射的RowMapper，查询的列必须与columnList顺序一致
+     */
+    private ModelRowMapper<T> rowMapper;
+
+    /**
+     * 全量同步并行拉取页数，小于1表示使用全局配置
+     */
+    private int pageParallelism;
+
+    /**
+     * 全量同步待加载页队列长度，小于1表示使用全局配置
+     */
+    private int pageQueueSize;
+
+    /**
+     * 增量同步水位线：上次同步成功时数据源数据的最大更新时间，为空表示需要全量同步
+     */
+    private volatile Object watermark;
+
+    /**
+     * 全量同步时需要先完成同步的表
+     */
+    private List<String> dependsOn = Collections.emptyList();
+
+    /**
+     * 本地副本缓存的最大行数，小于1表示不缓存
+     */
+    private int cacheSize;
+
+    /**
+     * 本地副本缓存的二级索引字段
+     */
+    private List<String> indexColumnList = Collections.emptyList();
+
+    /**
+     * 全量同步写入主表的方式
+     */
+    private SyncStrategy strategy = SyncStrategy.DIFF;
+
+    /**
+     * 有监听的数据变更事件类型，没有监听的类型全量同步时不查询变更数据，默认全部有监听
+     */
+    private volatile Set<SyncOperation> observedOperationSet = EnumSet.allOf(SyncOperation.class);
+
+    /**
+     * 是否有ChangeSet事件的监听，有监听时全部类型的变更数据都需要查询
+     */
+    private volatile boolean changeSetObserved = true;
 
 
     // SQL Segment
 
     /**
-     * 全量插入临时表
+     * 全量插入临时表，按columnList顺序绑定参数
      */
-    private String insertTempSql;
+    private String insertTempBatchSql;
 
     /**
      * 插入普通表
@@ -138,6 +254,16 @@ public class DataModel<T> {
      */
     private String updateDeltaSql;
 
+    /**
+     * 按id更新全部字段，全量比对分批写入主表
+     */
+    private String updateByIdSql;
+
+    /**
+     * 按id列表删除，逻辑删除模型为标记删除
+     */
+    private String deleteByIdListSql;
+
     private String queryDeleteSql;
 
     /**
@@ -145,11 +271,136 @@ public class DataModel<T> {
      */
     private String deleteAllSql;
 
+    /**
+     * 根据id查询，列顺序与columnList一致
+     */
+    private String queryByIdSql;
+
+    /**
+     * 按二级索引字段查询，key为字段名
+     */
+    private Map<String, String> queryByIndexSqlMap = Collections.emptyMap();
+
+    /**
+     * 各数据库方言的upsert语句，参数按columnList顺序绑定
+     */
+    private Map<SyncDialect, String> upsertSqlMap;
+
     /**
      * 增量删除，普通删除方法
      */
     private String deleteDeltaSql;
 
+    /**
+     * 创建id临时表
+     */
+    private String createIdTempSql;
+
+    /**
+     * 插入id临时表
+     */
+    private String insertIdTempSql;
+
+    /**
+     * 查询临时表中数据的最大更新时间
+     */
+    private String queryWatermarkSql;
+
+    /**
+     * 根据id临时表比对查询删除数据
+     */
+    private String queryDeleteByIdSql;
+
+    /**
+     * 比对id临时表删除
+     */
+    private String deleteByIdSql;
+
+    /**
+     * 根据id删除临时表数据
+     */
+    private String deleteTempByIdSql;
+
+    /**
+     * 根据id将主表数据复制到临时表
+     */
+    private String copyToTempByIdSql;
+
+    /**
+     * 根据id删除id临时表数据
+     */
+    private String deleteIdTempByIdSql;
+
+    /**
+     * 根据id将主表id复制到id临时表
+     */
+    private String copyToIdTempByIdSql;
+
+    /**
+     * 查询id范围内的id和更新时间，用于计算校验和
+     */
+    private String queryRangeChecksumSql;
+
+    /**
+     * id范围内比对临时表查询删除数据
+     */
+    private String queryDeleteRangeSql;
+
+    /**
+     * id范围内比对临时表删除
+     */
+    private String deleteRangeSql;
+
+    /**
+     * 按行数划分临时表id范围时查询范围的结束id
+     */
+    private String queryTempRangeBoundSql;
+
+    /**
+     * id范围内比对临时表查询新增数据
+     */
+    private String queryAddRangeSql;
+
+    /**
+     * id范围内比对临时表新增
+     */
+    private String addRangeSql;
+
+    /**
+     * id范围内比对临时表查询更新数据
+     */
+    private String queryUpdateRangeSql;
+
+    /**
+     * id范围内比对临时表更新
+     */
+    private String updateRangeSql;
+
+    /**
+     * 临时表中的数据均为未删除
+     */
+    private String resetTempTombstoneSql;
+
+    /**
+     * 比对临时表查询需要恢复的已逻辑删除数据
+     */
+    private String queryReviveSql;
+
+    /**
+     * 恢复临时表中存在的已逻辑删除数据
+     */
+    private String reviveSql;
+
+    /**
+     * id范围内比对临时表查询需要恢复的已逻辑删除数据
+     */
+    private String queryReviveRangeSql;
+
+    /**
+     * id范围内恢复临时表中存在的已逻辑删除数据
+     */
+    private String reviveRangeSql;
+
 
     public DataModel(Class<T> modelClass) {
 
@@ -170,19 +421,20 @@ public class DataModel<T> {
 
         this.idFieldName = idField.getName();
 
-        this.getIdMethod = Arrays.stream(modelClass.getMethods())
-                .filter(m -> m.getName().equalsIgnoreCase("get" + idFieldName))
-                .findFirst()
-                .orElseThrow(() -> new IllegalStateException("cannot find get id method of " + modelClass));
+        this.idAccessor = PropertyAccessor.of(modelClass, idField);
 
         this.idColumn = resolveTableField(idField);
 
+        this.idType = ClassUtils.resolvePrimitiveIfNecessary(idField.getType());
+        this.numericId = idType == Long.class || idType == Integer.class || idType == Short.class;
+
         Field updateTime = fieldList.stream()
                 .filter(f -> f.isAnnotationPresent(SyncUpdateTime.class))
                 .findFirst()
                 .orElseThrow(() -> new IllegalStateException("cannot find updateTime field of " + modelClass));
 
         this.updateTimeField = updateTime.getName();
+        this.updateTimeIndex = fieldList.indexOf(updateTime);
         this.updateTimeColumn = resolveTableField(updateTime);
 
         fieldList.stream()
@@ -201,30 +453,59 @@ public class DataModel<T> {
                 .map(Field::getName)
                 .collect(toList());
 
+        SyncTable syncTable = modelClass.getAnnotation(SyncTable.class);
+        if (syncTable != null) {
+            this.pageParallelism = syncTable.pageParallelism();
+            this.pageQueueSize = syncTable.pageQueueSize();
+            this.dependsOn = Arrays.asList(syncTable.dependsOn());
+            this.strategy = syncTable.strategy();
+            this.cacheSize = syncTable.cacheSize();
+        }
+
+        if (strategy == SyncStrategy.REPLACE && tombstone) {
+            throw new IllegalStateException("REPLACE strategy cannot keep soft deleted rows, remove SyncTombstone or use DIFF: " + modelClass);
+        }
+
+        this.indexColumnList = fieldList.stream()
+                .filter(f -> f.isAnnotationPresent(SyncIndex.class))
+                .map(this::resolveTableField)
+                .filter(SyncCheck::notEmpty)
+                .collect(toList());
+
         this.tempTable = this.table + TEMP_SUFFIX;
+        this.idTempTable = this.table + ID_TEMP_SUFFIX;
         this.modelClass = modelClass;
-        this.rowMapper = new BeanPropertyRowMapper<>(modelClass);
         this.columnString = String.join(",", columnList);
-        this.fieldListString = ":" + String.join(",:", propertyList);
+        this.placeholderString = columnList.stream().map(c -> "?").collect(Collectors.joining(","));
+        this.accessorList = fieldList.stream()
+                .map(f -> PropertyAccessor.of(modelClass, f))
+                .collect(toList());
+        this.rowMapper = new ModelRowMapper<>(modelClass, accessorList);
         this.updateSetAllString = columnList.stream()
                 .filter(name -> !name.equals(idColumn))
                 .map(name -> table + "." + name + "=" + tempTable + "." + name)
                 .collect(Collectors.joining(",", " ", " "));
 
         StringBuilder s = new StringBuilder();
+        List<Integer> updateIndexList = new ArrayList<>();
         for (int i = 0; i < columnList.size(); i++) {
             String column = columnList.get(i);
-            Field field = fieldList.get(i);
             if (column.equals(idColumn)) {
                 continue;
             }
 
-            s.append(column).append("=:").append(field.getName()).append(",");
+            s.append(column).append("=?,");
+            updateIndexList.add(i);
         }
+        updateIndexList.add(columnList.indexOf(idColumn));
+        updateIndexList.add(updateTimeIndex);
 
         this.updateSetDeltaString = s.substring(0, s.length() - 1);
+        this.updateDeltaParamIndex = updateIndexList.stream().mapToInt(Integer::intValue).toArray();
+        this.updateByIdParamIndex = Arrays.copyOf(updateDeltaParamIndex, updateDeltaParamIndex.length - 1);
+        this.insertParamIndex = IntStream.range(0, columnList.size()).toArray();
 
-        this.insertTempSql = parseSql(INSERT_TEMP_SQL);
+        this.insertTempBatchSql = parseSql(INSERT_TEMP_BATCH_SQL);
         this.insertSql = parseSql(INSERT_SQL);
         this.queryAddSql = parseSql(QUERY_ADD_SQL);
         this.addSql = parseSql(ADD_SQL);
@@ -232,24 +513,189 @@ public class DataModel<T> {
         this.queryOldSql = parseSql(QUERY_OLD_SQL);
         this.updateAllSql = parseSql(UPDATE_SQL);
         this.updateDeltaSql = parseSql(UPDATE_DELTA_SQL);
-        this.queryDeleteSql = parseSql(QUERY_DELETE_SQL);
-        this.deleteAllSql = parseSql(DELETE_SQL);
+        this.updateByIdSql = parseSql(UPDATE_BY_ID_SQL);
+        this.deleteByIdListSql = parseSql(tombstone ? SOFT_DELETE_BY_ID_LIST_SQL : DELETE_BY_ID_LIST_SQL);
+        this.queryDeleteSql = parseSql(tombstone ? QUERY_SOFT_DELETE_SQL : QUERY_DELETE_SQL);
+        this.deleteAllSql = parseSql(tombstone ? SOFT_DELETE_SQL : DELETE_SQL);
+        this.queryByIdSql = parseSql(QUERY_BY_ID_SQL);
+        this.queryByIndexSqlMap = indexColumnList.stream()
+                .collect(Collectors.toMap(c -> c, c -> parseSql(QUERY_BY_INDEX_SQL).replace("${indexColumn}", c)));
         this.deleteDeltaSql = parseSql(DELETE_DELTA_SQL);
+        this.upsertSqlMap = new EnumMap<>(SyncDialect.class);
+        for (SyncDialect dialect : SyncDialect.values()) {
+            upsertSqlMap.put(dialect, dialect.upsertSql(this));
+        }
+        this.createIdTempSql = parseSql(CREATE_ID_TEMP_SQL);
+        this.insertIdTempSql = parseSql(INSERT_ID_TEMP_SQL);
+        this.queryWatermarkSql = parseSql(QUERY_WATERMARK_SQL);
+        this.queryDeleteByIdSql = parseSql(tombstone ? QUERY_SOFT_DELETE_BY_ID_SQL : QUERY_DELETE_BY_ID_SQL);
+        this.deleteByIdSql = parseSql(tombstone ? SOFT_DELETE_BY_ID_SQL : DELETE_BY_ID_SQL);
+        this.deleteTempByIdSql = parseSql(DELETE_TEMP_BY_ID_SQL);
+        this.copyToTempByIdSql = parseSql(COPY_TO_TEMP_BY_ID_SQL);
+        this.deleteIdTempByIdSql = parseSql(DELETE_ID_TEMP_BY_ID_SQL);
+        this.copyToIdTempByIdSql = parseSql(COPY_TO_ID_TEMP_BY_ID_SQL);
+        this.queryRangeChecksumSql = parseSql(QUERY_RANGE_CHECKSUM_SQL.replace("${updateTimeSecond}", getUpdateTimeSecond()));
+        this.queryDeleteRangeSql = parseSql(tombstone ? QUERY_SOFT_DELETE_RANGE_SQL : QUERY_DELETE_RANGE_SQL);
+        this.deleteRangeSql = parseSql(tombstone ? SOFT_DELETE_RANGE_SQL : DELETE_RANGE_SQL);
+        this.queryTempRangeBoundSql = parseSql(QUERY_TEMP_RANGE_BOUND_SQL);
+        this.queryAddRangeSql = parseSql(QUERY_ADD_RANGE_SQL);
+        this.addRangeSql = parseSql(ADD_RANGE_SQL);
+        this.queryUpdateRangeSql = parseSql(QUERY_UPDATE_RANGE_SQL);
+        this.updateRangeSql = parseSql(UPDATE_RANGE_SQL);
+
+        //逻辑删除：临时表中不存在的数据标记为已删除，而不是物理删除
+        if (tombstone) {
+            this.resetTempTombstoneSql = parseSql(RESET_TEMP_TOMBSTONE_SQL);
+            this.queryReviveSql = parseSql(QUERY_REVIVE_SQL);
+            this.reviveSql = parseSql(REVIVE_SQL);
+            this.queryReviveRangeSql = parseSql(QUERY_REVIVE_RANGE_SQL);
+            this.reviveRangeSql = parseSql(REVIVE_RANGE_SQL);
+        }
     }
 
 
     /**
-     * 反射获取目标的id
+     * 获取目标的id
      *
      * @param target 目标
      * @return      id
      */
     public Object getIdOf(Object target) {
-        try {
-            return getIdMethod.invoke(target);
-        } catch (IllegalAccessException | InvocationTargetException e) {
-            throw new IllegalStateException("get id error", e);
+        return idAccessor.get(target);
+    }
+
+    /**
+     * 将消息中的id转换为id字段的类型，如json解析出的Integer转换为Long，
+     * 与{@link #getIdOf(Object)}的结果可以按equals比较
+     *
+     * @param id    id
+     * @return      id字段类型的id
+     */
+    @SuppressWarnings("unchecked")
+    public Object toId(Object id) {
+        if (id == null || idType.isInstance(id)) {
+            return id;
+        }
+
+        if (numericId) {
+            Class<? extends Number> numberType = (Class<? extends Number>) idType;
+            return id instanceof Number
+                    ? NumberUtils.convertNumberToTargetClass((Number) id, numberType)
+                    : NumberUtils.parseNumber(id.toString(), numberType);
         }
+
+        return idType == String.class ? id.toString() : id;
+    }
+
+    /**
+     * 是否需要查询该类型的变更数据：有该类型数据变更事件的监听，或需要构建ChangeSet
+     *
+     * @param operation 数据变更类型
+     * @return          是否
+     */
+    public boolean isObserved(SyncOperation operation) {
+        return isChangeSetRequired() || observedOperationSet.contains(operation);
+    }
+
+    /**
+     * 是否需要构建ChangeSet：有ChangeSet监听或开启了本地副本缓存
+     *
+     * @return  是否
+     */
+    public boolean isChangeSetRequired() {
+        return changeSetObserved || isCached();
+    }
+
+    /**
+     * 增量更新前是否需要查询更新前的数据：有更新事件或ChangeSet的监听时才需要，
+     * 本地副本缓存只使用更新后的数据
+     *
+     * @return  是否
+     */
+    public boolean isBeforeImageRequired() {
+        return changeSetObserved || observedOperationSet.contains(SyncOperation.UPDATE);
+    }
+
+    /**
+     * 是否开启本地副本缓存
+     *
+     * @return  是否
+     */
+    public boolean isCached() {
+        return cacheSize > 0;
+    }
+
+    /**
+     * 字段在columnList中的下标
+     *
+     * @param column    字段名
+     * @return          下标，不存在时抛出异常
+     */
+    public int getColumnIndex(String column) {
+        int index = columnList.indexOf(column);
+        if (index < 0) {
+            throw new IllegalStateException("column not found: " + column + ", table = " + table);
+        }
+        return index;
+    }
+
+    /**
+     * 开始记录增量同步修改的id
+     */
+    public void startTracking() {
+        dirtyIdSet.clear();
+        tracking = true;
+    }
+
+    /**
+     * 停止记录增量同步修改的id
+     */
+    public void stopTracking() {
+        tracking = false;
+        dirtyIdSet.clear();
+    }
+
+    /**
+     * 全量同步期间记录增量同步修改的id，调用前需要持有对应id的数据锁
+     *
+     * @param idList    id list
+     */
+    public void markDirty(Collection<Object> idList) {
+        if (tracking) {
+            dirtyIdSet.addAll(idList);
+        }
+    }
+
+    /**
+     * 获取目标的字段值
+     *
+     * @param target    目标
+     * @param index     字段下标，与columnList一致
+     * @return          字段值
+     */
+    public Object getValueOf(Object target, int index) {
+        return accessorList.get(index).get(target);
+    }
+
+    /**
+     * 设置目标的字段值
+     *
+     * @param target    目标
+     * @param index     字段下标，与columnList一致
+     * @param value     字段值
+     */
+    public void setValueOf(Object target, int index, Object value) {
+        accessorList.get(index).set(target, value);
+    }
+
+    /**
+     * 获取目标的更新时间
+     *
+     * @param target    目标
+     * @return          更新时间
+     */
+    public Object getUpdateTimeOf(Object target) {
+        return getValueOf(target, updateTimeIndex);
     }
 
     private String getColumnListWithPrefix(String prefix) {
@@ -342,15 +788,32 @@ public class DataModel<T> {
         this.notDeletedValue = syncTombstone.existValue();
     }
 
+    /**
+     * 校验和中更新时间的表达式：时间类型换算为epoch秒，其他类型（如保存epoch的数值）直接使用
+     */
+    private String getUpdateTimeSecond() {
+        Class<?> type = accessorList.get(updateTimeIndex).getType();
+        boolean time = Date.class.isAssignableFrom(type) || type == LocalDateTime.class;
+        return time ? UPDATE_TIME_SECOND_SQL : "${updateTime}";
+    }
+
+
     private String parseSql(String sql) {
+        if (tombstone) {
+            sql = sql.replace("${tombstone}", this.getTombstoneColumn())
+                    .replace("${deletedValue}", this.getDeletedValue())
+                    .replace("${notDeletedValue}", this.getNotDeletedValue());
+        }
+
         return sql.replace("${idColumn}", this.getIdColumn())
                 .replace("${idField}", this.getIdFieldName())
                 .replace("${table}", this.getTable())
                 .replace("${tempTable}", this.getTempTable())
+                .replace("${idTempTable}", this.getIdTempTable())
                 .replace("${updateTime}", this.getUpdateTimeColumn())
                 .replace("${updateTimeField}", this.getUpdateTimeField())
                 .replace("${columnString}", this.getColumnString())
-                .replace("${fieldListString}", this.getFieldListString())
+                .replace("${placeholderString}", this.getPlaceholderString())
                 .replace("${a.columnList}", this.getColumnListWithPrefix("a"))
                 .replace("${b.columnList}", this.getColumnListWithPrefix("b"))
                 .replace("${updateSetString}", this.getUpdateSetAllString())
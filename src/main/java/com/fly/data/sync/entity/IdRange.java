@@ -0,0 +1,22 @@
+package com.fly.data.sync.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * id范围，包含起止id
+ *
+ * @author guoxiang
+ * @version 1.0.0
+ * @since 2021/11/8
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class IdRange {
+
+    private Long from;
+
+    private Long to;
+}
@@ -0,0 +1,91 @@
+package com.fly.data.sync.entity;
+
+import com.fly.data.sync.util.PropertyAccessor;
+import org.springframework.beans.BeanUtils;
+import org.springframework.core.convert.ConversionService;
+import org.springframework.core.convert.support.DefaultConversionService;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.reflect.Constructor;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * 按下标映射的RowMapper：
+ * 查询的列顺序与DataModel的columnList一致（${columnString}、${a.columnList}），
+ * 第i列直接通过第i个属性访问器写入，不需要按列名匹配属性，也不经过BeanWrapper
+ *
+ * @author guoxiang
+ * @version 1.0.0
+ * @since 2021/11/26
+ */
+public class ModelRowMapper<T> implements RowMapper<T> {
+
+    private final Class<T> modelClass;
+
+    private final Constructor<T> constructor;
+
+    private final PropertyAccessor[] accessors;
+
+    /**
+     * 属性的包装类型，JdbcUtils按该类型读取列值
+     */
+    private final Class<?>[] types;
+
+    private final ConversionService conversionService = DefaultConversionService.getSharedInstance();
+
+    public ModelRowMapper(Class<T> modelClass, List<PropertyAccessor> accessorList) {
+        this.modelClass = modelClass;
+        try {
+            this.constructor = ReflectionUtils.accessibleConstructor(modelClass);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("cannot find no-arg constructor of " + modelClass, e);
+        }
+        this.accessors = accessorList.toArray(new PropertyAccessor[0]);
+        this.types = accessorList.stream()
+                .map(PropertyAccessor::getType)
+                .toArray(Class<?>[]::new);
+    }
+
+
+    @Override
+    public T mapRow(ResultSet rs, int rowNum) throws SQLException {
+        if (rowNum == 0) {
+            checkColumnCount(rs);
+        }
+
+        T target = BeanUtils.instantiateClass(constructor);
+
+        for (int i = 0; i < accessors.length; i++) {
+            Class<?> type = types[i];
+            Object value = JdbcUtils.getResultSetValue(rs, i + 1, type);
+
+            if (value == null) {
+                if (!type.isPrimitive()) {
+                    accessors[i].set(target, null);
+                }
+                continue;
+            }
+
+            if (!ClassUtils.isAssignableValue(type, value)) {
+                value = conversionService.convert(value, type);
+            }
+            accessors[i].set(target, value);
+        }
+
+        return target;
+    }
+
+
+    private void checkColumnCount(ResultSet rs) throws SQLException {
+        int columnCount = rs.getMetaData().getColumnCount();
+        if (columnCount != accessors.length) {
+            throw new IllegalStateException("column count " + columnCount + " does not match properties of "
+                    + modelClass + ", expect " + accessors.length);
+        }
+    }
+}
@@ -16,4 +16,9 @@ public class PageDto<T> {
 
     private Long total;
 
+    /**
+     * 游标分页时下一页的游标（本页最后一条数据的id），为空表示没有更多数据
+     */
+    private Object nextCursor;
+
 }
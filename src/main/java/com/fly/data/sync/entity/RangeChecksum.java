@@ -0,0 +1,46 @@
+package com.fly.data.sync.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * id范围内数据的校验和，计算方法见{@link com.fly.data.sync.util.SyncChecksum}
+ *
+ * @author guoxiang
+ * @version 1.0.0
+ * @since 2021/11/8
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class RangeChecksum {
+
+    private Long from;
+
+    private Long to;
+
+    /**
+     * 范围内数据条数
+     */
+    private long count;
+
+    /**
+     * 范围内每条数据hash之和
+     */
+    private long checksum;
+
+    /**
+     * 范围内实际的最小id，没有数据时为空
+     */
+    private Long minId;
+
+    /**
+     * 范围内实际的最大id，没有数据时为空
+     */
+    private Long maxId;
+
+    public boolean isSame(RangeChecksum other) {
+        return other != null && count == other.count && checksum == other.checksum;
+    }
+}
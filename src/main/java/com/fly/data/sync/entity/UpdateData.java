@@ -6,6 +6,10 @@ import java.util.Collections;
 import java.util.List;
 
 /**
+ * 更新的数据：data为更新后的数据，oldData为更新前的数据，按id对应但顺序不保证一致。
+ * 没有更新事件和ChangeSet的监听时不查询更新前的数据（见DataModel#isBeforeImageRequired），oldData为空列表；
+ * 更新前已不存在的行在oldData中没有对应的数据
+ *
  * @author guoxiang
  * @version 1.0.0
  * @since 2021/1/7
@@ -0,0 +1,209 @@
+package com.fly.data.sync.event;
+
+import com.fly.data.sync.constant.SyncOperation;
+import com.fly.data.sync.entity.DataModel;
+import com.fly.data.sync.entity.UpdateData;
+import lombok.AccessLevel;
+import lombok.Getter;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.ResolvableTypeProvider;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * 按id索引的数据变更集合：一批变更中每个id对应一条变更（类型、变更后数据、变更前数据），
+ * 监听无需再按id匹配DataUpdateEvent中的data和oldData。
+ * 全量同步时一次同步（分段同步时一个id范围）的新增、更新、删除合并为一个发布，数据量超过上限时分多个发布；
+ * 增量同步时每条消息发布一个。
+ * 发布后只读，异步投递时多个监听的通道可以并发读取
+ *
+ * @author guoxiang
+ * @version 1.0.0
+ * @since 2021/12/9
+ */
+public class ChangeSet<T> implements ResolvableTypeProvider {
+
+    @Getter
+    private final DataModel<T> dataModel;
+
+    private final Map<Object, Change<T>> changeMap = new LinkedHashMap<>();
+
+
+    public ChangeSet(DataModel<T> dataModel) {
+        this.dataModel = dataModel;
+    }
+
+
+    /**
+     * 新增的数据
+     *
+     * @param dataList  数据
+     * @return          this
+     */
+    public ChangeSet<T> added(List<T> dataList) {
+        dataList.forEach(data -> put(SyncOperation.ADD, data, null));
+        return this;
+    }
+
+
+    /**
+     * 删除的数据
+     *
+     * @param oldList   删除前的数据
+     * @return          this
+     */
+    public ChangeSet<T> deleted(List<T> oldList) {
+        oldList.forEach(old -> put(SyncOperation.DELETE, null, old));
+        return this;
+    }
+
+
+    /**
+     * 更新的数据，更新前的数据按id匹配，没有更新前数据（未查询）的oldData为null
+     *
+     * @param updateData    更新数据
+     * @return              this
+     */
+    public ChangeSet<T> updated(UpdateData<T> updateData) {
+        List<T> oldList = updateData.getOldData() == null ? Collections.emptyList() : updateData.getOldData();
+        Map<Object, T> oldMap = new HashMap<>(oldList.size() * 4 / 3 + 1);
+        oldList.forEach(old -> oldMap.put(dataModel.getIdOf(old), old));
+
+        updateData.getData().forEach(data -> put(SyncOperation.UPDATE, data, oldMap.get(dataModel.getIdOf(data))));
+        return this;
+    }
+
+
+    /**
+     * 添加一条变更，同一id后添加的覆盖先添加的
+     *
+     * @param operation 变更类型
+     * @param data      变更后的数据，删除时为null
+     * @param oldData   变更前的数据，新增时为null
+     * @return          this
+     */
+    public ChangeSet<T> put(SyncOperation operation, T data, T oldData) {
+        Object id = dataModel.getIdOf(data != null ? data : oldData);
+        changeMap.put(id, new Change<>(dataModel, operation, data, oldData));
+        return this;
+    }
+
+
+    public Change<T> get(Object id) {
+        return changeMap.get(id);
+    }
+
+
+    public Map<Object, Change<T>> getChangeMap() {
+        return Collections.unmodifiableMap(changeMap);
+    }
+
+
+    public Collection<Change<T>> getChanges() {
+        return Collections.unmodifiableCollection(changeMap.values());
+    }
+
+
+    public int size() {
+        return changeMap.size();
+    }
+
+
+    public boolean isEmpty() {
+        return changeMap.isEmpty();
+    }
+
+
+    @Override
+    public ResolvableType getResolvableType() {
+        return ResolvableType.forClassWithGenerics(getClass(), ResolvableType.forClass(dataModel.getModelClass()));
+    }
+
+
+    @Override
+    public String toString() {
+        return "ChangeSet(table=" + dataModel.getTable() + ", changes=" + changeMap.values() + ")";
+    }
+
+
+    /**
+     * 单个id的变更
+     */
+    @Getter
+    public static class Change<T> {
+
+        private final SyncOperation operation;
+
+        private final T data;
+
+        private final T oldData;
+
+        @Getter(AccessLevel.NONE)
+        private final DataModel<T> dataModel;
+
+        @Getter(AccessLevel.NONE)
+        private volatile BitSet changedColumns;
+
+
+        private Change(DataModel<T> dataModel, SyncOperation operation, T data, T oldData) {
+            this.dataModel = dataModel;
+            this.operation = operation;
+            this.data = data;
+            this.oldData = oldData;
+        }
+
+
+        /**
+         * 变更的字段，下标与DataModel#columnList一致。
+         * 首次调用时比较变更前后的字段值并缓存，不调用则不比较；
+         * 多个线程同时首次调用时可能各比较一次，结果相同，缓存的是比较完成后的结果；
+         * 新增、删除以及没有变更前数据的更新，全部字段视为变更
+         *
+         * @return  changed columns，不要修改返回值
+         */
+        public BitSet getChangedColumns() {
+            BitSet result = changedColumns;
+            if (result == null) {
+                int columnSize = dataModel.getColumnList().size();
+                BitSet bitSet = new BitSet(columnSize);
+
+                if (data == null || oldData == null) {
+                    bitSet.set(0, columnSize);
+                } else {
+                    for (int i = 0; i < columnSize; i++) {
+                        if (!Objects.equals(dataModel.getValueOf(data, i), dataModel.getValueOf(oldData, i))) {
+                            bitSet.set(i);
+                        }
+                    }
+                }
+                result = bitSet;
+                changedColumns = result;
+            }
+            return result;
+        }
+
+
+        /**
+         * 字段是否变更
+         *
+         * @param column    字段名
+         * @return          是否
+         */
+        public boolean isChanged(String column) {
+            return getChangedColumns().get(dataModel.getColumnIndex(column));
+        }
+
+
+        @Override
+        public String toString() {
+            return "Change(operation=" + operation + ", data=" + data + ", oldData=" + oldData + ")";
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.fly.data.sync.event;
 
 import com.fly.data.sync.constant.SyncEventSource;
+import com.fly.data.sync.constant.SyncMode;
 import lombok.Data;
 
 /**
@@ -13,7 +14,14 @@ public class SyncAllEvent {
 
     private SyncEventSource source;
 
+    private SyncMode mode;
+
     public SyncAllEvent(SyncEventSource source) {
+        this(source, SyncMode.TOTAL);
+    }
+
+    public SyncAllEvent(SyncEventSource source, SyncMode mode) {
         this.source = source;
+        this.mode = mode;
     }
 }
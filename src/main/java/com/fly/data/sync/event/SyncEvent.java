@@ -1,5 +1,6 @@
 package com.fly.data.sync.event;
 
+import com.fly.data.sync.constant.SyncMode;
 import com.fly.data.sync.entity.DataModel;
 import lombok.Data;
 
@@ -12,7 +13,14 @@ import lombok.Data;
 public class SyncEvent<T> {
     private DataModel<T> dataModel;
 
+    private SyncMode mode;
+
     public SyncEvent(DataModel<T> dataModel) {
+        this(dataModel, SyncMode.TOTAL);
+    }
+
+    public SyncEvent(DataModel<T> dataModel, SyncMode mode) {
         this.dataModel = dataModel;
+        this.mode = mode;
     }
 }
@@ -0,0 +1,49 @@
+package com.fly.data.sync.service;
+
+import com.fly.data.sync.entity.DataModel;
+import com.fly.data.sync.entity.IdRange;
+import com.fly.data.sync.entity.RangeChecksum;
+
+import java.util.List;
+
+/**
+ * 支持id范围校验和的数据源，实现该接口时可以使用范围比对的方式同步
+ *
+ * @author guoxiang
+ * @version 1.0.0
+ * @since 2021/11/8
+ */
+public interface ChecksumEtlService extends EtlService {
+
+    /**
+     * 指定模型是否支持范围校验和，默认全部支持
+     *
+     * @param model data model
+     * @param <T>   T
+     * @return      是否支持
+     */
+    default <T> boolean supportsChecksum(DataModel<T> model) {
+        return true;
+    }
+
+    /**
+     * 计算数据源中每个id范围的校验和，返回结果与rangeList一一对应，
+     * 计算方法见{@link com.fly.data.sync.util.SyncChecksum}
+     *
+     * @param model     data model
+     * @param rangeList id范围
+     * @param <T>       T
+     * @return          校验和
+     */
+    <T> List<RangeChecksum> checksum(DataModel<T> model, List<IdRange> rangeList);
+
+    /**
+     * 查询数据源中id范围内的所有数据
+     *
+     * @param model data model
+     * @param range id范围
+     * @param <T>   T
+     * @return      数据
+     */
+    <T> List<T> listRange(DataModel<T> model, IdRange range);
+}
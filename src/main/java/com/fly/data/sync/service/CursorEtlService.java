@@ -0,0 +1,38 @@
+package com.fly.data.sync.service;
+
+import com.fly.data.sync.entity.DataModel;
+import com.fly.data.sync.entity.PageDto;
+
+/**
+ * 支持按id游标分页的数据源，实现该接口时全量同步优先使用游标分页
+ *
+ * @author guoxiang
+ * @version 1.0.0
+ * @since 2021/10/28
+ */
+public interface CursorEtlService extends EtlService {
+
+    /**
+     * 指定模型是否支持游标分页，默认全部支持
+     *
+     * @param model data model
+     * @param <T>   T
+     * @return      是否支持
+     */
+    default <T> boolean supportsCursor(DataModel<T> model) {
+        return true;
+    }
+
+    /**
+     * 按id游标分页查询指定模型的数据：
+     * 返回id大于lastId的下一页数据（按id升序），
+     * 通过{@link PageDto#getNextCursor()}返回下一页游标，游标为空表示没有更多数据
+     *
+     * @param model     data model
+     * @param lastId    上一页的游标，第一页为null
+     * @param size      size
+     * @param <T>       T
+     * @return          page
+     */
+    <T> PageDto<T> pageAfter(DataModel<T> model, Object lastId, int size);
+}
@@ -1,26 +1,33 @@
 package com.fly.data.sync.service;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fly.data.sync.config.SyncDataContext;
-import com.fly.data.sync.entity.DataModel;
-import com.fly.data.sync.entity.PageDto;
-import com.fly.data.sync.entity.ResponseDto;
-import com.fly.data.sync.entity.SyncMessage;
+import com.fly.data.sync.entity.*;
 import com.fly.data.sync.util.SyncCheck;
 import com.fly.data.sync.util.SyncJsonUtils;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.retry.annotation.Backoff;
 import org.springframework.retry.annotation.Retryable;
 import org.springframework.util.Assert;
+import org.springframework.util.ClassUtils;
+import org.springframework.web.client.RequestCallback;
 import org.springframework.web.client.RestTemplate;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
 import static java.util.stream.Collectors.toList;
 
 /**
@@ -31,7 +38,7 @@ import static java.util.stream.Collectors.toList;
  * @since 2021/10/22
  */
 @RequiredArgsConstructor
-public class DefaultEtlServiceImpl implements EtlService {
+public class DefaultEtlServiceImpl implements CursorEtlService, IncrementalEtlService, ChecksumEtlService {
 
     private final RestTemplate restTemplate;
 
@@ -40,6 +47,39 @@ public class DefaultEtlServiceImpl implements EtlService {
     @Value("${sync.data.url:http://bapp-mes-upms-biz/sync?table={1}&pageNo={2}&pageSize={3}}")
     private String url;
 
+    /**
+     * 游标分页地址，例如：http://bapp-mes-upms-biz/sync?table={1}&lastId={2}&pageSize={3}，
+     * 为空表示数据源不支持游标分页
+     */
+    @Value("${sync.data.cursor-url:}")
+    private String cursorUrl;
+
+    /**
+     * 增量分页地址，返回更新时间不早于updateTime的数据，例如：
+     * http://bapp-mes-upms-biz/sync?table={1}&updateTime={2}&pageNo={3}&pageSize={4}
+     */
+    @Value("${sync.data.incremental-url:}")
+    private String incrementalUrl;
+
+    /**
+     * id分页地址，records为id列表，例如：http://bapp-mes-upms-biz/sync/id?table={1}&pageNo={2}&pageSize={3}
+     */
+    @Value("${sync.data.id-url:}")
+    private String idUrl;
+
+    /**
+     * 范围校验和地址，POST请求体为id范围列表，records为对应的校验和，例如：
+     * http://bapp-mes-upms-biz/sync/checksum?table={1}
+     */
+    @Value("${sync.data.checksum-url:}")
+    private String checksumUrl;
+
+    /**
+     * 范围数据地址，例如：http://bapp-mes-upms-biz/sync/range?table={1}&fromId={2}&toId={3}
+     */
+    @Value("${sync.data.range-url:}")
+    private String rangeUrl;
+
     @Override
     @Retryable(value = Exception.class, maxAttempts = 10, backoff = @Backoff(delay = 2000L, multiplier = 1.5))
     public <T> PageDto<T> page(DataModel<T> model, int page, int size) {
@@ -57,6 +97,191 @@ public class DefaultEtlServiceImpl implements EtlService {
         return body.getData();
     }
 
+    /**
+     * 流式解析响应：records中的数据逐条反序列化后交给consumer，
+     * 已交给consumer的数据无法撤回，因此不做页内重试，失败时由同步事务整体回滚
+     */
+    @Override
+    public <T> long pageStream(DataModel<T> model, int page, int size, Consumer<T> consumer) {
+        RequestCallback callback = request -> request.getHeaders().setAccept(singletonList(MediaType.APPLICATION_JSON));
+
+        Long total = restTemplate.execute(url, HttpMethod.GET, callback,
+                response -> readPage(response.getBody(), model.getModelClass(), consumer),
+                model.getTable(), page, size);
+
+        Assert.notNull(total, "response is null, table: " + model.getTable());
+        return total;
+    }
+
+    /**
+     * 流式读取分页响应：{"code":0,"msg":"","data":{"total":0,"records":[]}}
+     *
+     * @param in            响应流
+     * @param modelClass    数据类型
+     * @param consumer      数据消费者
+     * @return              数据总数
+     */
+    private <T> long readPage(InputStream in, Class<T> modelClass, Consumer<T> consumer) throws IOException {
+        Integer code = null;
+        String msg = null;
+        long total = 0;
+
+        try (JsonParser parser = SyncJsonUtils.createParser(in)) {
+            Assert.isTrue(parser.nextToken() == JsonToken.START_OBJECT, "response is not a json object");
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+
+                if ("code".equals(name)) {
+                    code = token == JsonToken.VALUE_NULL ? null : parser.getIntValue();
+                } else if ("msg".equals(name)) {
+                    msg = parser.getValueAsString();
+                } else if ("data".equals(name) && token == JsonToken.START_OBJECT) {
+                    total = readData(parser, modelClass, consumer);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+
+        Assert.isTrue(code != null && code == 0, "response error:" + msg);
+        return total;
+    }
+
+    private <T> long readData(JsonParser parser, Class<T> modelClass, Consumer<T> consumer) throws IOException {
+        long total = 0;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+
+            if ("total".equals(name)) {
+                total = token == JsonToken.VALUE_NULL ? 0 : parser.getLongValue();
+            } else if ("records".equals(name) && token == JsonToken.START_ARRAY) {
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    consumer.accept(SyncJsonUtils.readValue(parser, modelClass));
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+
+        return total;
+    }
+
+    @Override
+    public <T> boolean supportsCursor(DataModel<T> model) {
+        return SyncCheck.notBlank(cursorUrl);
+    }
+
+    @Override
+    @Retryable(value = Exception.class, maxAttempts = 10, backoff = @Backoff(delay = 2000L, multiplier = 1.5))
+    public <T> PageDto<T> pageAfter(DataModel<T> model, Object lastId, int size) {
+
+        ParameterizedTypeReference<ResponseDto<T>> type =
+                SyncJsonUtils.getJavaType(ResponseDto.class, model.getModelClass());
+
+        ResponseEntity<ResponseDto<T>> responseEntity =
+                restTemplate.exchange(cursorUrl, HttpMethod.GET, null, type, model.getTable(), lastId, size);
+
+        ResponseDto<T> body = responseEntity.getBody();
+        Assert.notNull(body, "response is null" + responseEntity);
+        Assert.isTrue(body.getCode() == 0, "response error:" + body.getMsg());
+
+        PageDto<T> page = body.getData();
+        List<T> records = page.getRecords();
+
+        //数据源未返回游标时，满页则取最后一条数据的id作为游标
+        if (page.getNextCursor() == null && SyncCheck.notEmpty(records) && records.size() >= size) {
+            page.setNextCursor(model.getIdOf(records.get(records.size() - 1)));
+        }
+
+        return page;
+    }
+
+    @Override
+    public <T> boolean supportsIncremental(DataModel<T> model) {
+        return SyncCheck.notBlank(incrementalUrl) && SyncCheck.notBlank(idUrl);
+    }
+
+    @Override
+    @Retryable(value = Exception.class, maxAttempts = 10, backoff = @Backoff(delay = 2000L, multiplier = 1.5))
+    public <T> PageDto<T> pageSince(DataModel<T> model, Object watermark, int page, int size) {
+
+        ParameterizedTypeReference<ResponseDto<T>> type =
+                SyncJsonUtils.getJavaType(ResponseDto.class, model.getModelClass());
+
+        String updateTime = SyncJsonUtils.formatTime(watermark);
+        ResponseEntity<ResponseDto<T>> responseEntity =
+                restTemplate.exchange(incrementalUrl, HttpMethod.GET, null, type, model.getTable(), updateTime, page, size);
+
+        ResponseDto<T> body = responseEntity.getBody();
+        Assert.notNull(body, "response is null" + responseEntity);
+        Assert.isTrue(body.getCode() == 0, "response error:" + body.getMsg());
+
+        return body.getData();
+    }
+
+    @Override
+    @Retryable(value = Exception.class, maxAttempts = 10, backoff = @Backoff(delay = 2000L, multiplier = 1.5))
+    public <T> PageDto<Object> pageId(DataModel<T> model, int page, int size) {
+
+        ParameterizedTypeReference<ResponseDto<Object>> type =
+                SyncJsonUtils.getJavaType(ResponseDto.class, ClassUtils.resolvePrimitiveIfNecessary(model.getIdField().getType()));
+
+        ResponseEntity<ResponseDto<Object>> responseEntity =
+                restTemplate.exchange(idUrl, HttpMethod.GET, null, type, model.getTable(), page, size);
+
+        ResponseDto<Object> body = responseEntity.getBody();
+        Assert.notNull(body, "response is null" + responseEntity);
+        Assert.isTrue(body.getCode() == 0, "response error:" + body.getMsg());
+
+        return body.getData();
+    }
+
+    @Override
+    public <T> boolean supportsChecksum(DataModel<T> model) {
+        return SyncCheck.notBlank(checksumUrl) && SyncCheck.notBlank(rangeUrl);
+    }
+
+    @Override
+    @Retryable(value = Exception.class, maxAttempts = 10, backoff = @Backoff(delay = 2000L, multiplier = 1.5))
+    public <T> List<RangeChecksum> checksum(DataModel<T> model, List<IdRange> rangeList) {
+
+        ParameterizedTypeReference<ResponseDto<RangeChecksum>> type =
+                SyncJsonUtils.getJavaType(ResponseDto.class, RangeChecksum.class);
+
+        ResponseEntity<ResponseDto<RangeChecksum>> responseEntity =
+                restTemplate.exchange(checksumUrl, HttpMethod.POST, new HttpEntity<>(rangeList), type, model.getTable());
+
+        ResponseDto<RangeChecksum> body = responseEntity.getBody();
+        Assert.notNull(body, "response is null" + responseEntity);
+        Assert.isTrue(body.getCode() == 0, "response error:" + body.getMsg());
+
+        List<RangeChecksum> result = body.getData().getRecords();
+        Assert.isTrue(result != null && result.size() == rangeList.size(), "checksum size not match range size");
+        return result;
+    }
+
+    @Override
+    @Retryable(value = Exception.class, maxAttempts = 10, backoff = @Backoff(delay = 2000L, multiplier = 1.5))
+    public <T> List<T> listRange(DataModel<T> model, IdRange range) {
+
+        ParameterizedTypeReference<ResponseDto<T>> type =
+                SyncJsonUtils.getJavaType(ResponseDto.class, model.getModelClass());
+
+        ResponseEntity<ResponseDto<T>> responseEntity =
+                restTemplate.exchange(rangeUrl, HttpMethod.GET, null, type, model.getTable(), range.getFrom(), range.getTo());
+
+        ResponseDto<T> body = responseEntity.getBody();
+        Assert.notNull(body, "response is null" + responseEntity);
+        Assert.isTrue(body.getCode() == 0, "response error:" + body.getMsg());
+
+        List<T> records = body.getData().getRecords();
+        return records == null ? emptyList() : records;
+    }
+
     /**
      * @param message json字符串
      * @param <T>   泛型
@@ -86,6 +311,11 @@ public class DefaultEtlServiceImpl implements EtlService {
                     .collect(toList());
         }
 
+        //json中的整数按大小解析为Integer或Long，统一转换为id字段的类型
+        idList = idList.stream()
+                .map(model::toId)
+                .collect(toList());
+
         return new SyncMessage<>(table, type, idList, data);
     }
 }
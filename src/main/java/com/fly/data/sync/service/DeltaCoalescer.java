@@ -0,0 +1,335 @@
+package com.fly.data.sync.service;
+
+import com.fly.data.sync.config.SyncDataContext;
+import com.fly.data.sync.entity.DataModel;
+import com.fly.data.sync.entity.SyncMessage;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.fly.data.sync.constant.SyncConstant.*;
+
+/**
+ * 增量消息合并：
+ * 在一个时间窗口内，同一个表的同一个id只保留最新的状态，
+ * 新增/更新按更新时间取最新（last-write-wins），删除会取消窗口内该id未写入的新增/更新，
+ * 窗口结束时将合并后的消息一次性交给{@link SyncDataService#syncMessages(List)}，
+ * 写入失败时按表分别写入，失败的表放回，与之后提交的消息合并，在下一个窗口重试；
+ * 一个表连续失败超过重试次数后逐个id写入，仍然失败的放入死信，不再阻塞该表的其他数据，
+ * 死信中的id再次提交消息时取回窗口与新消息合并，也可通过{@link #redeliverDeadLetters()}放回窗口。
+ * 注意：消息在合并窗口内已被确认，进程异常退出时窗口内的消息会丢失，需要依赖全量同步兜底
+ *
+ * @author guoxiang
+ * @version 1.0.0
+ * @since 2021/11/12
+ */
+@Slf4j
+@RequiredArgsConstructor
+public class DeltaCoalescer {
+
+    /**
+     * 合并窗口（毫秒），小于等于0表示不合并
+     */
+    @Value("${sync.data.coalesce.window:0}")
+    private long window;
+
+    /**
+     * 一个表连续写入失败的窗口数超过该值后，逐个id写入并将失败的放入死信
+     */
+    @Value("${sync.data.coalesce.retry-times:3}")
+    private int retryTimes;
+
+    private final EtlService etlService;
+
+    private final SyncDataService syncDataService;
+
+    private final SyncDataContext syncDataContext;
+
+    /**
+     * table -> (id -> 待写入的消息)
+     */
+    private Map<String, Map<Object, Pending>> pendingMap = new LinkedHashMap<>();
+
+    /**
+     * table -> (id -> 写入失败的消息)
+     */
+    private final Map<String, Map<Object, Pending>> deadLetterMap = new LinkedHashMap<>();
+
+    /**
+     * table -> 连续写入失败的窗口数
+     */
+    private final Map<String, Integer> retryCountMap = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService scheduler;
+
+
+    @PostConstruct
+    public void init() {
+        if (!isEnabled()) {
+            return;
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("sync-coalesce-"));
+        scheduler.scheduleWithFixedDelay(this::flush, window, window, TimeUnit.MILLISECONDS);
+        log.info("- delta coalescer started, window = {}ms", window);
+    }
+
+
+    public boolean isEnabled() {
+        return window > 0;
+    }
+
+
+    /**
+     * 提交消息到合并窗口
+     *
+     * @param message   json消息
+     */
+    public void submit(String message) {
+        SyncMessage<Object> syncMessage = etlService.convertMessage(message);
+        DataModel<Object> model = syncDataContext.getDataModel(syncMessage.getTable());
+        String type = syncMessage.getType();
+
+        if (!DELETE.equals(type) && !ADD.equals(type) && !UPDATE.equals(type)) {
+            log.warn("not supported type: {}", syncMessage);
+            return;
+        }
+
+        synchronized (this) {
+            Map<Object, Pending> idMap = pendingMap.computeIfAbsent(model.getTable(), t -> new LinkedHashMap<>());
+
+            if (DELETE.equals(type)) {
+                //与新增/更新的id（getIdOf）类型一致，才能按id合并
+                syncMessage.getIdList().forEach(id -> mergeSubmitted(model, idMap, model.toId(id), new Pending(DELETE, null)));
+                return;
+            }
+
+            for (Object data : syncMessage.getData()) {
+                mergeSubmitted(model, idMap, model.getIdOf(data), new Pending(UPDATE, data));
+            }
+        }
+    }
+
+
+    /**
+     * 合并提交的消息：id在死信中时先取回窗口，新消息按合并规则与它合并，避免重新写入死信时覆盖较新的数据
+     */
+    private void mergeSubmitted(DataModel<Object> model, Map<Object, Pending> idMap, Object id, Pending pending) {
+        Map<Object, Pending> deadIdMap = deadLetterMap.get(model.getTable());
+        Pending parked = deadIdMap == null ? null : deadIdMap.remove(id);
+        if (parked != null) {
+            restore(model.getTable(), id, parked);
+        }
+        merge(model, idMap, id, pending);
+    }
+
+
+    /**
+     * 合并一条较晚到达的消息：删除直接覆盖，新增/更新覆盖删除以及更新时间不晚于它的新增/更新
+     */
+    private void merge(DataModel<Object> model, Map<Object, Pending> idMap, Object id, Pending pending) {
+        Pending previous = idMap.get(id);
+        if (previous == null || DELETE.equals(pending.type) || DELETE.equals(previous.type)
+                || isNotOlder(model, pending.data, previous.data)) {
+            idMap.put(id, pending);
+        }
+    }
+
+
+    /**
+     * 将窗口内合并后的消息写入数据库
+     */
+    public void flush() {
+        Map<String, Map<Object, Pending>> flushMap;
+        synchronized (this) {
+            if (pendingMap.isEmpty()) {
+                return;
+            }
+            flushMap = pendingMap;
+            pendingMap = new LinkedHashMap<>();
+        }
+
+        List<SyncMessage<Object>> messageList = new ArrayList<>();
+        flushMap.forEach((table, idMap) -> messageList.addAll(toMessages(table, idMap)));
+
+        try {
+            syncDataService.syncMessages(messageList);
+            retryCountMap.clear();
+        } catch (Exception e) {
+            log.warn("- flush coalesced delta error, flush each table, table = {}", flushMap.keySet(), e);
+            flushMap.forEach(this::flushTable);
+        }
+    }
+
+
+    /**
+     * 写入一个表的消息，失败时放回窗口在下一个窗口重试，连续失败超过重试次数后逐个id写入
+     */
+    private void flushTable(String table, Map<Object, Pending> idMap) {
+        try {
+            syncDataService.syncMessages(toMessages(table, idMap));
+            retryCountMap.remove(table);
+            return;
+        } catch (Exception e) {
+            int retry = retryCountMap.merge(table, 1, Integer::sum);
+            if (retry <= retryTimes) {
+                log.error("- flush coalesced delta error, retry in next window, table = {}, retry = {}", table, retry, e);
+                requeue(table, idMap);
+                return;
+            }
+            log.error("- flush coalesced delta error, retry exhausted, flush each id, table = {}", table, e);
+        }
+
+        retryCountMap.remove(table);
+        idMap.forEach((id, pending) -> {
+            try {
+                syncDataService.syncMessages(toMessages(table, Collections.singletonMap(id, pending)));
+            } catch (Exception e) {
+                log.error("- flush coalesced delta error, park in dead letter, table = {}, id = {}", table, id, e);
+                park(table, id, pending);
+            }
+        });
+    }
+
+
+    private static List<SyncMessage<Object>> toMessages(String table, Map<Object, Pending> idMap) {
+        List<Object> saveIdList = new ArrayList<>();
+        List<Object> saveList = new ArrayList<>();
+        List<Object> deleteIdList = new ArrayList<>();
+
+        idMap.forEach((id, pending) -> {
+            if (DELETE.equals(pending.type)) {
+                deleteIdList.add(id);
+            } else {
+                saveIdList.add(id);
+                saveList.add(pending.data);
+            }
+        });
+
+        List<SyncMessage<Object>> messageList = new ArrayList<>(2);
+        if (!saveList.isEmpty()) {
+            messageList.add(new SyncMessage<>(table, UPDATE, saveIdList, saveList));
+        }
+        if (!deleteIdList.isEmpty()) {
+            messageList.add(new SyncMessage<>(table, DELETE, deleteIdList, Collections.emptyList()));
+        }
+        return messageList;
+    }
+
+
+    /**
+     * 写入失败的表放回待写入的消息中，期间新提交的消息到达较晚，按提交时的规则合并到失败的消息上
+     *
+     * @param table     表名
+     * @param failedMap 写入失败的消息
+     */
+    private synchronized void requeue(String table, Map<Object, Pending> failedMap) {
+        Map<Object, Pending> laterIdMap = pendingMap.remove(table);
+        pendingMap.put(table, failedMap);
+
+        if (laterIdMap != null) {
+            DataModel<Object> model = syncDataContext.getDataModel(table);
+            laterIdMap.forEach((id, pending) -> merge(model, failedMap, id, pending));
+        }
+    }
+
+
+    /**
+     * 放入死信；写入期间该id已有新提交的消息时，不放入死信，放回窗口与新消息合并
+     */
+    private synchronized void park(String table, Object id, Pending pending) {
+        Map<Object, Pending> idMap = pendingMap.get(table);
+        if (idMap != null && idMap.containsKey(id)) {
+            restore(table, id, pending);
+            return;
+        }
+        deadLetterMap.computeIfAbsent(table, t -> new LinkedHashMap<>()).put(id, pending);
+    }
+
+
+    /**
+     * 将较早的消息放回窗口，窗口中该id已有的消息到达较晚，按提交时的规则合并到它上面
+     */
+    private void restore(String table, Object id, Pending earlier) {
+        Map<Object, Pending> idMap = pendingMap.computeIfAbsent(table, t -> new LinkedHashMap<>());
+        Pending later = idMap.put(id, earlier);
+        if (later != null) {
+            merge(syncDataContext.getDataModel(table), idMap, id, later);
+        }
+    }
+
+
+    public synchronized int getDeadLetterCount() {
+        return deadLetterMap.values().stream().mapToInt(Map::size).sum();
+    }
+
+
+    /**
+     * 将死信放回窗口，在下一个窗口写入，如数据库恢复后
+     *
+     * @return  放回的消息数量
+     */
+    public synchronized int redeliverDeadLetters() {
+        int count = getDeadLetterCount();
+        deadLetterMap.forEach((table, deadIdMap) -> deadIdMap.forEach((id, pending) -> restore(table, id, pending)));
+        deadLetterMap.clear();
+        log.info("- redeliver coalesced dead letters, size = {}", count);
+        return count;
+    }
+
+
+    /**
+     * 新数据的更新时间是否不早于旧数据，更新时间为空时以新数据为准
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private boolean isNotOlder(DataModel<Object> model, Object data, Object oldData) {
+        Object updateTime = model.getUpdateTimeOf(data);
+        Object oldUpdateTime = model.getUpdateTimeOf(oldData);
+
+        if (!(updateTime instanceof Comparable) || oldUpdateTime == null) {
+            return true;
+        }
+
+        return ((Comparable) updateTime).compareTo(oldUpdateTime) >= 0;
+    }
+
+
+    @PreDestroy
+    public void destroy() {
+        if (scheduler == null) {
+            return;
+        }
+
+        scheduler.shutdown();
+        flush();
+
+        synchronized (this) {
+            if (!pendingMap.isEmpty()) {
+                log.error("- coalesced delta lost on shutdown, table = {}", pendingMap.keySet());
+            }
+            if (!deadLetterMap.isEmpty()) {
+                log.error("- coalesced dead letters lost on shutdown, table = {}", deadLetterMap.keySet());
+            }
+        }
+    }
+
+
+    private static class Pending {
+        private final String type;
+        private final Object data;
+
+        private Pending(String type, Object data) {
+            this.type = type;
+            this.data = data;
+        }
+    }
+}
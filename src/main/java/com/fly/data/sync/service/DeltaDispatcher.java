@@ -0,0 +1,403 @@
+package com.fly.data.sync.service;
+
+import com.fly.data.sync.config.SyncDataContext;
+import com.fly.data.sync.entity.DataModel;
+import com.fly.data.sync.entity.SyncMessage;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static com.fly.data.sync.constant.SyncConstant.*;
+
+/**
+ * 增量消息分区分发：
+ * 按 (table, id) 的hash将消息拆分到固定数量的通道，每个通道单线程顺序处理，
+ * 同一id的消息始终进入同一通道，保证单行数据的顺序，不相关的数据并行写入。
+ * 通道队列满时阻塞消息消费线程，形成背压。
+ * 一批消息写入失败时，通道暂停并按指数退避重试；重试耗尽后逐条写入，
+ * 仍然失败的消息放入所在通道的死信，不再阻塞通道。
+ * 为保证单行数据的顺序，id有消息在死信中时，之后到达的该id的消息也直接放入死信，
+ * 调用{@link #redeliverDeadLetters()}后由各通道线程在处理新消息前按到达顺序重新写入，
+ * 死信中的数据在重新写入或下一次全量同步前与数据源不一致。
+ * 注意：消息放入通道后即被确认，写入数据库前进程异常退出、或停止时10秒内未处理完的通道消息和死信会丢失（只记录日志），
+ * 即至多一次投递，需要依赖全量同步兜底
+ *
+ * @author guoxiang
+ * @version 1.0.0
+ * @since 2021/11/18
+ */
+@Slf4j
+@RequiredArgsConstructor
+public class DeltaDispatcher {
+
+    /**
+     * 通道数量，小于等于0表示不分区，直接在消息消费线程中处理
+     */
+    @Value("${sync.data.dispatch.lanes:0}")
+    private int laneSize;
+
+    /**
+     * 每个通道的队列长度
+     */
+    @Value("${sync.data.dispatch.lane-capacity:1000}")
+    private int laneCapacity;
+
+    /**
+     * 每个通道一次最多合并处理的消息数量
+     */
+    @Value("${sync.data.dispatch.batch-size:100}")
+    private int batchSize;
+
+    /**
+     * 一批消息写入失败后的重试次数
+     */
+    @Value("${sync.data.dispatch.retry-times:3}")
+    private int retryTimes;
+
+    /**
+     * 首次重试的间隔（毫秒），之后每次翻倍
+     */
+    @Value("${sync.data.dispatch.retry-interval:1000}")
+    private long retryInterval;
+
+    private final EtlService etlService;
+
+    private final SyncDataService syncDataService;
+
+    private final SyncDataContext syncDataContext;
+
+    private final List<Lane> laneList = new ArrayList<>();
+
+    private ExecutorService executor;
+
+    private volatile boolean running;
+
+
+    @PostConstruct
+    public void init() {
+        if (!isEnabled()) {
+            return;
+        }
+
+        executor = Executors.newFixedThreadPool(laneSize, new CustomizableThreadFactory("sync-lane-"));
+        running = true;
+
+        for (int i = 0; i < laneSize; i++) {
+            Lane lane = new Lane(laneCapacity);
+            laneList.add(lane);
+            executor.execute(lane::consume);
+        }
+
+        log.info("- delta dispatcher started, lanes = {}, capacity = {}", laneSize, laneCapacity);
+    }
+
+
+    public boolean isEnabled() {
+        return laneSize > 0;
+    }
+
+
+    /**
+     * 分发json消息
+     *
+     * @param message   json消息
+     */
+    public void dispatch(String message) {
+        dispatch(etlService.<Object>convertMessage(message));
+    }
+
+
+    /**
+     * 按id拆分消息并放入对应的通道，通道已满时阻塞
+     *
+     * @param message   消息
+     */
+    public void dispatch(SyncMessage<Object> message) {
+        String table = message.getTable();
+        String type = message.getType();
+        DataModel<Object> model = syncDataContext.getDataModel(table);
+
+        Map<Integer, SyncMessage<Object>> laneMessageMap = new TreeMap<>();
+
+        if (DELETE.equals(type)) {
+            for (Object id : message.getIdList()) {
+                laneMessageMap.computeIfAbsent(laneOf(table, id), i -> newMessage(table, type))
+                        .getIdList().add(id);
+            }
+        } else {
+            for (Object data : message.getData()) {
+                Object id = model.getIdOf(data);
+                SyncMessage<Object> laneMessage = laneMessageMap.computeIfAbsent(laneOf(table, id), i -> newMessage(table, type));
+                laneMessage.getIdList().add(id);
+                laneMessage.getData().add(data);
+            }
+        }
+
+        laneMessageMap.forEach((lane, laneMessage) -> {
+            try {
+                laneList.get(lane).queue.put(laneMessage);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while dispatching message", e);
+            }
+        });
+    }
+
+
+    /**
+     * 每个通道当前的队列长度
+     *
+     * @return  queue depth of each lane
+     */
+    public int[] getQueueDepth() {
+        return laneList.stream().mapToInt(lane -> lane.queue.size()).toArray();
+    }
+
+
+    public int getQueueDepth(int lane) {
+        return laneList.get(lane).queue.size();
+    }
+
+
+    public int getLaneSize() {
+        return laneList.size();
+    }
+
+
+    public int getDeadLetterCount() {
+        return laneList.stream().mapToInt(lane -> lane.deadLetterQueue.size()).sum();
+    }
+
+
+    /**
+     * 请求各通道重新写入死信中的消息，如数据库恢复后。
+     * 由通道线程在处理新消息前按到达顺序写入，仍然失败的消息（及之后该id的消息）再次放入死信
+     *
+     * @return  请求重新写入的消息数量
+     */
+    public int redeliverDeadLetters() {
+        int count = getDeadLetterCount();
+        laneList.forEach(lane -> lane.redeliverRequested = true);
+        log.info("- redeliver dead letters, size = {}", count);
+        return count;
+    }
+
+
+    /**
+     * 写入一批消息，失败时按指数退避重试，重试期间通道暂停，保证同一id的顺序
+     *
+     * @param messageList   消息
+     * @return              是否成功
+     */
+    private boolean syncWithRetry(List<SyncMessage<Object>> messageList) throws InterruptedException {
+        long interval = retryInterval;
+        for (int i = 0; ; i++) {
+            try {
+                syncDataService.syncMessages(messageList);
+                return true;
+            } catch (Exception e) {
+                if (i >= retryTimes) {
+                    log.error("- sync lane messages error, retry exhausted, size = {}", messageList.size(), e);
+                    return false;
+                }
+                log.warn("- sync lane messages error, retry after {}ms, size = {}", interval, messageList.size(), e);
+            }
+
+            Thread.sleep(interval);
+            interval *= 2;
+        }
+    }
+
+
+    private int laneOf(String table, Object id) {
+        return (Objects.hash(table, id) & Integer.MAX_VALUE) % laneList.size();
+    }
+
+
+    private static List<Object> keyOf(String table, Object id) {
+        return Arrays.asList(table, id);
+    }
+
+
+    private static SyncMessage<Object> newMessage(String table, String type) {
+        return new SyncMessage<>(table, type, new ArrayList<>(), new ArrayList<>());
+    }
+
+
+    @PreDestroy
+    public void destroy() throws InterruptedException {
+        if (executor == null) {
+            return;
+        }
+
+        running = false;
+        executor.shutdown();
+        if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+            log.warn("- delta dispatcher stopped with pending messages: {}", Arrays.toString(getQueueDepth()));
+            executor.shutdownNow();
+        }
+        laneList.forEach(lane -> {
+            if (!lane.deadLetterQueue.isEmpty()) {
+                log.error("- delta dispatcher stopped with dead letters: {}", lane.deadLetterQueue);
+            }
+        });
+    }
+
+
+    /**
+     * 一个通道：单线程顺序写入，死信中的id只由通道线程读写
+     */
+    private class Lane {
+
+        private final BlockingQueue<SyncMessage<Object>> queue;
+
+        /**
+         * 按到达顺序排列的死信
+         */
+        private final Queue<SyncMessage<Object>> deadLetterQueue = new ConcurrentLinkedQueue<>();
+
+        /**
+         * 死信中的 (table, id)
+         */
+        private final Set<List<Object>> parkedKeySet = new HashSet<>();
+
+        private volatile boolean redeliverRequested;
+
+        private Lane(int capacity) {
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+
+        private void consume() {
+            List<SyncMessage<Object>> messageList = new ArrayList<>(batchSize);
+
+            while (running || !queue.isEmpty()) {
+                try {
+                    if (redeliverRequested) {
+                        redeliverRequested = false;
+                        redeliver();
+                    }
+
+                    SyncMessage<Object> message = queue.poll(1, TimeUnit.SECONDS);
+                    if (message == null) {
+                        continue;
+                    }
+
+                    messageList.add(message);
+                    queue.drainTo(messageList, batchSize - 1);
+
+                    List<SyncMessage<Object>> liveList = parkBlocked(messageList);
+                    messageList.clear();
+                    messageList.addAll(liveList);
+
+                    if (!messageList.isEmpty() && !syncWithRetry(messageList)) {
+                        syncEachOrPark(messageList);
+                    }
+                } catch (InterruptedException e) {
+                    //停止时仍在重试的消息放入死信
+                    messageList.forEach(this::park);
+                    Thread.currentThread().interrupt();
+                    return;
+                } finally {
+                    messageList.clear();
+                }
+            }
+        }
+
+
+        /**
+         * 按到达顺序重新写入死信
+         */
+        private void redeliver() {
+            List<SyncMessage<Object>> deadLetterList = new ArrayList<>(deadLetterQueue);
+            deadLetterQueue.clear();
+            parkedKeySet.clear();
+            syncEachOrPark(deadLetterList);
+        }
+
+
+        /**
+         * 逐条写入重试耗尽的一批消息，仍然失败的消息放入死信，之后该id的消息也随之放入死信
+         *
+         * @param messageList   消息
+         */
+        private void syncEachOrPark(List<SyncMessage<Object>> messageList) {
+            for (SyncMessage<Object> message : messageList) {
+                SyncMessage<Object> live = parkBlocked(message);
+                if (live == null) {
+                    continue;
+                }
+
+                try {
+                    syncDataService.syncMessages(Collections.singletonList(live));
+                } catch (Exception e) {
+                    park(live);
+                    log.error("- sync lane message error, park in dead letter: {}", live, e);
+                }
+            }
+        }
+
+
+        private List<SyncMessage<Object>> parkBlocked(List<SyncMessage<Object>> messageList) {
+            List<SyncMessage<Object>> liveList = new ArrayList<>(messageList.size());
+            for (SyncMessage<Object> message : messageList) {
+                SyncMessage<Object> live = parkBlocked(message);
+                if (live != null) {
+                    liveList.add(live);
+                }
+            }
+            return liveList;
+        }
+
+
+        /**
+         * 消息中id已在死信中的部分放入死信，排在之前的消息之后
+         *
+         * @param message   消息
+         * @return          其余部分，没有时返回null
+         */
+        private SyncMessage<Object> parkBlocked(SyncMessage<Object> message) {
+            if (parkedKeySet.isEmpty()) {
+                return message;
+            }
+
+            SyncMessage<Object> blocked = newMessage(message.getTable(), message.getType());
+            SyncMessage<Object> live = newMessage(message.getTable(), message.getType());
+            boolean hasData = !DELETE.equals(message.getType());
+
+            List<Object> idList = message.getIdList();
+            for (int i = 0; i < idList.size(); i++) {
+                SyncMessage<Object> target = parkedKeySet.contains(keyOf(message.getTable(), idList.get(i))) ? blocked : live;
+                target.getIdList().add(idList.get(i));
+                if (hasData) {
+                    target.getData().add(message.getData().get(i));
+                }
+            }
+
+            if (blocked.getIdList().isEmpty()) {
+                return message;
+            }
+
+            park(blocked);
+            log.warn("- earlier message of the same id is in dead letter, park: {}", blocked);
+            return live.getIdList().isEmpty() ? null : live;
+        }
+
+
+        private void park(SyncMessage<Object> message) {
+            deadLetterQueue.add(message);
+            message.getIdList().forEach(id -> parkedKeySet.add(keyOf(message.getTable(), id)));
+        }
+    }
+}
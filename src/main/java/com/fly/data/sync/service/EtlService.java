@@ -1,10 +1,13 @@
 package com.fly.data.sync.service;
 
-import com.fly.data.sync.entity.DataModel;
-import com.fly.data.sync.entity.PageDto;
-import com.fly.data.sync.entity.SyncMessage;
+import com.fly.data.sync.entity.*;
+
+import java.util.function.Consumer;
 
 /**
+ * 数据源。按id游标分页、增量查询、范围校验和是可选能力，
+ * 分别由{@link CursorEtlService}、{@link IncrementalEtlService}、{@link ChecksumEtlService}提供
+ *
  * @author guoxiang
  * @version 1.0.0
  * @since 2021/10/22
@@ -22,6 +25,24 @@ public interface EtlService {
      */
     <T> PageDto<T> page(DataModel<T> model, int page, int size);
 
+    /**
+     * 流式分页查询：逐条将数据交给consumer，不在内存中保存整页数据
+     *
+     * @param model     data model
+     * @param page      page
+     * @param size      size
+     * @param consumer  数据消费者
+     * @param <T>       T
+     * @return          数据总数
+     */
+    default <T> long pageStream(DataModel<T> model, int page, int size, Consumer<T> consumer) {
+        PageDto<T> result = page(model, page, size);
+        if (result.getRecords() != null) {
+            result.getRecords().forEach(consumer);
+        }
+        return result.getTotal();
+    }
+
     /**
      * 将json转为自定义的SyncMessage
      *
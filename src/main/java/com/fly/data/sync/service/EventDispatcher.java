@@ -0,0 +1,589 @@
+package com.fly.data.sync.service;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.fly.data.sync.annotation.SyncEventLane;
+import com.fly.data.sync.config.SyncDataContext;
+import com.fly.data.sync.constant.OverflowPolicy;
+import com.fly.data.sync.constant.SyncOperation;
+import com.fly.data.sync.entity.DataModel;
+import com.fly.data.sync.entity.UpdateData;
+import com.fly.data.sync.event.ChangeSet;
+import com.fly.data.sync.event.DataAddEvent;
+import com.fly.data.sync.event.DataBaseEvent;
+import com.fly.data.sync.event.DataDeleteEvent;
+import com.fly.data.sync.event.DataUpdateEvent;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.PayloadApplicationEvent;
+import org.springframework.context.event.ApplicationListenerMethodAdapter;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.ResolvableTypeProvider;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.transaction.event.TransactionalApplicationListener;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.ReflectionUtils;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 数据变更事件（含ChangeSet）分发：
+ * 未开启异步时直接通过ApplicationEventPublisher同步发布；
+ * 开启异步时由本类代替事件广播，每个监听有独立的有界通道和消费线程，事务提交、数据锁释放后才放入通道，
+ * 同步线程不再等待监听处理，一个慢监听也不会影响其他监听；
+ * 通道已满时阻塞的时间有上限，超时后写入溢出文件，避免在仍持有锁的场景（如分段全量同步）中长时间阻塞同步。
+ * 同一个表的事件对同一个监听始终进入同一通道，保证顺序。
+ * 事务监听（@TransactionalEventListener）自己会在事务提交后处理，仍然同步投递。
+ * 异步投递时通道已满被丢弃、监听处理异常、溢出文件读写失败的事件不会重试，按原因计数，见{@link #getDroppedCount(String)}
+ *
+ * @author guoxiang
+ * @version 1.0.0
+ * @since 2021/12/8
+ */
+@Slf4j
+@RequiredArgsConstructor
+public class EventDispatcher {
+
+    /**
+     * ApplicationListenerMethodAdapter#getTargetMethod，用于读取监听方法上的通道配置
+     */
+    private static final Method TARGET_METHOD_GETTER;
+
+    static {
+        TARGET_METHOD_GETTER = ReflectionUtils.findMethod(ApplicationListenerMethodAdapter.class, "getTargetMethod");
+        if (TARGET_METHOD_GETTER != null) {
+            ReflectionUtils.makeAccessible(TARGET_METHOD_GETTER);
+        }
+    }
+
+    /**
+     * 丢弃原因：通道已满（DROP方式）
+     */
+    public static final String DROP_OVERFLOW = "overflow";
+
+    /**
+     * 丢弃原因：监听处理异常
+     */
+    public static final String DROP_LISTENER_ERROR = "listener-error";
+
+    /**
+     * 丢弃原因：写入或读回溢出文件失败
+     */
+    public static final String DROP_SPILL_ERROR = "spill-error";
+
+    /**
+     * 是否异步投递数据变更事件
+     */
+    @Value("${sync.data.event.async:false}")
+    private boolean async;
+
+    /**
+     * 每个监听的通道数量
+     */
+    @Value("${sync.data.event.parallelism:1}")
+    private int parallelism;
+
+    /**
+     * 每个通道的队列长度
+     */
+    @Value("${sync.data.event.capacity:1000}")
+    private int capacity;
+
+    /**
+     * 通道已满时的处理方式
+     */
+    @Value("${sync.data.event.overflow:BLOCK}")
+    private OverflowPolicy overflowPolicy;
+
+    /**
+     * BLOCK方式通道已满时最多等待的时间（毫秒），超时后写入溢出文件
+     */
+    @Value("${sync.data.event.block-timeout:5000}")
+    private long blockTimeout;
+
+    /**
+     * SPILL方式（及BLOCK方式超时后）写入的本地目录
+     */
+    @Value("${sync.data.event.spill-dir:${java.io.tmpdir}/sync-data-event}")
+    private String spillDir;
+
+    private final ApplicationEventPublisher publisher;
+
+    private final SyncDataContext syncDataContext;
+
+    private final Map<ResolvableType, List<ApplicationListener<?>>> listenerCache = new ConcurrentHashMap<>();
+
+    private final Map<ApplicationListener<?>, List<Lane>> laneMap = new ConcurrentHashMap<>();
+
+    /**
+     * 丢弃原因 -> 丢弃的事件数
+     */
+    private final Map<String, LongAdder> droppedMap = new ConcurrentHashMap<>();
+
+    private final ObjectMapper spillMapper = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY)
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+    private ExecutorService executor;
+
+    private volatile boolean running;
+
+
+    @PostConstruct
+    public void init() {
+        if (!async) {
+            return;
+        }
+
+        executor = Executors.newCachedThreadPool(new CustomizableThreadFactory("sync-event-"));
+        running = true;
+
+        log.info("- async event dispatcher started, parallelism = {}, capacity = {}, overflow = {}",
+                parallelism, capacity, overflowPolicy);
+    }
+
+
+    public boolean isEnabled() {
+        return async;
+    }
+
+
+    /**
+     * 异步投递时丢弃的事件数
+     *
+     * @param reason    丢弃原因
+     * @return          事件数
+     */
+    public long getDroppedCount(String reason) {
+        LongAdder count = droppedMap.get(reason);
+        return count == null ? 0 : count.sum();
+    }
+
+
+    private void drop(String reason) {
+        droppedMap.computeIfAbsent(reason, r -> new LongAdder()).increment();
+    }
+
+
+    /**
+     * 发布数据变更事件
+     *
+     * @param event 事件
+     */
+    public <T> void publish(DataBaseEvent<T> event) {
+        dispatch(event);
+    }
+
+
+    /**
+     * 发布按id索引的数据变更集合
+     *
+     * @param changeSet 变更集合
+     */
+    public <T> void publish(ChangeSet<T> changeSet) {
+        dispatch(changeSet);
+    }
+
+
+    private void dispatch(ResolvableTypeProvider event) {
+        if (!async) {
+            publisher.publishEvent(event);
+            return;
+        }
+
+        PayloadApplicationEvent<ResolvableTypeProvider> applicationEvent = new PayloadApplicationEvent<>(this, event);
+        List<ApplicationListener<?>> listenerList = listenerCache.computeIfAbsent(
+                applicationEvent.getResolvableType(), syncDataContext::getDataEventListeners);
+
+        List<ApplicationListener<?>> asyncList = new ArrayList<>(listenerList.size());
+        for (ApplicationListener<?> listener : listenerList) {
+            if (listener instanceof TransactionalApplicationListener) {
+                invoke(listener, applicationEvent);
+            } else {
+                asyncList.add(listener);
+            }
+        }
+
+        if (asyncList.isEmpty()) {
+            return;
+        }
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            enqueue(asyncList, event);
+            return;
+        }
+
+        //在afterCompletion中放入通道：排在SyncDataService释放数据锁之后，通道已满阻塞时不持有锁
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_COMMITTED) {
+                    enqueue(asyncList, event);
+                }
+            }
+        });
+    }
+
+
+    private void enqueue(List<ApplicationListener<?>> listenerList, ResolvableTypeProvider event) {
+        String table = modelOf(event).getTable();
+
+        for (ApplicationListener<?> listener : listenerList) {
+            List<Lane> laneList = laneMap.computeIfAbsent(listener, this::createLanes);
+            laneList.get((Objects.hashCode(table) & Integer.MAX_VALUE) % laneList.size()).offer(event);
+        }
+    }
+
+
+    private List<Lane> createLanes(ApplicationListener<?> listener) {
+        SyncEventLane config = findLaneConfig(listener);
+        int laneSize = config != null && config.parallelism() > 0 ? config.parallelism() : Math.max(parallelism, 1);
+        int laneCapacity = config != null && config.capacity() > 0 ? config.capacity() : capacity;
+
+        List<Lane> laneList = new ArrayList<>(laneSize);
+        for (int i = 0; i < laneSize; i++) {
+            Lane lane = new Lane(listener, laneCapacity);
+            laneList.add(lane);
+            executor.execute(lane::consume);
+        }
+
+        log.info("- create event lanes for listener: {}, lanes = {}, capacity = {}", listener, laneSize, laneCapacity);
+        return laneList;
+    }
+
+
+    private static DataModel<?> modelOf(ResolvableTypeProvider event) {
+        return event instanceof ChangeSet ? ((ChangeSet<?>) event).getDataModel() : ((DataBaseEvent<?>) event).getDataModel();
+    }
+
+
+    private static int sizeOf(ResolvableTypeProvider event) {
+        return event instanceof ChangeSet ? ((ChangeSet<?>) event).size() : ((DataBaseEvent<?>) event).getData().size();
+    }
+
+
+    private static SyncEventLane findLaneConfig(ApplicationListener<?> listener) {
+        if (listener instanceof ApplicationListenerMethodAdapter && TARGET_METHOD_GETTER != null) {
+            Method method = (Method) ReflectionUtils.invokeMethod(TARGET_METHOD_GETTER, listener);
+            if (method != null) {
+                SyncEventLane config = AnnotatedElementUtils.findMergedAnnotation(method, SyncEventLane.class);
+                return config != null ? config
+                        : AnnotatedElementUtils.findMergedAnnotation(method.getDeclaringClass(), SyncEventLane.class);
+            }
+        }
+
+        return AnnotatedElementUtils.findMergedAnnotation(AopUtils.getTargetClass(listener), SyncEventLane.class);
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private static void invoke(ApplicationListener<?> listener, ApplicationEvent event) {
+        ((ApplicationListener<ApplicationEvent>) listener).onApplicationEvent(event);
+    }
+
+
+    @PreDestroy
+    public void destroy() throws InterruptedException {
+        if (executor == null) {
+            return;
+        }
+
+        running = false;
+        executor.shutdown();
+        if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+            laneMap.forEach((listener, laneList) -> laneList.forEach(lane -> {
+                if (lane.getPending() > 0) {
+                    log.warn("- event dispatcher stopped with pending events: {}, listener = {}", lane.getPending(), listener);
+                }
+            }));
+            executor.shutdownNow();
+        }
+
+        laneMap.values().forEach(laneList -> laneList.forEach(Lane::close));
+    }
+
+
+    /**
+     * 一个监听的一个通道：单线程顺序投递
+     */
+    private class Lane {
+
+        private final ApplicationListener<?> listener;
+
+        private final BlockingQueue<ResolvableTypeProvider> queue;
+
+        private final SpillFile spill;
+
+        private Lane(ApplicationListener<?> listener, int capacity) {
+            this.listener = listener;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            this.spill = overflowPolicy == OverflowPolicy.DROP ? null : new SpillFile();
+        }
+
+
+        private void offer(ResolvableTypeProvider event) {
+            switch (overflowPolicy) {
+                case DROP:
+                    if (!queue.offer(event)) {
+                        drop(DROP_OVERFLOW);
+                        log.warn("- event lane is full, drop event: table = {}, event = {}, size = {}, listener = {}",
+                                modelOf(event).getTable(), event.getClass().getSimpleName(), sizeOf(event), listener);
+                    }
+                    break;
+                case SPILL:
+                    //已有溢出的事件时，新事件也写入文件，保证顺序
+                    synchronized (this) {
+                        if (spill.isEmpty() && queue.offer(event)) {
+                            return;
+                        }
+                        spill(event);
+                    }
+                    break;
+                default:
+                    synchronized (this) {
+                        try {
+                            if (spill.isEmpty() && queue.offer(event, blockTimeout, TimeUnit.MILLISECONDS)) {
+                                return;
+                            }
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new IllegalStateException("interrupted while dispatching event", e);
+                        }
+                        spill(event);
+                    }
+            }
+        }
+
+
+        private void spill(ResolvableTypeProvider event) {
+            try {
+                spill.append(event);
+            } catch (IllegalStateException e) {
+                drop(DROP_SPILL_ERROR);
+                log.error("- spill event error, drop event: table = {}, event = {}, size = {}, listener = {}",
+                        modelOf(event).getTable(), event.getClass().getSimpleName(), sizeOf(event), listener, e);
+            }
+        }
+
+
+        private void consume() {
+            while (running || getPending() > 0) {
+                try {
+                    ResolvableTypeProvider event = queue.poll();
+                    if (event == null) {
+                        event = pollSpill();
+                    }
+                    if (event == null) {
+                        event = queue.poll(1, TimeUnit.SECONDS);
+                    }
+                    if (event == null) {
+                        continue;
+                    }
+
+                    handle(event);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+
+
+        private void handle(ResolvableTypeProvider event) {
+            try {
+                invoke(listener, new PayloadApplicationEvent<>(EventDispatcher.this, event));
+            } catch (Exception e) {
+                drop(DROP_LISTENER_ERROR);
+                log.error("- handle event error, drop event: table = {}, event = {}, size = {}, listener = {}",
+                        modelOf(event).getTable(), event.getClass().getSimpleName(), sizeOf(event), listener, e);
+            }
+        }
+
+
+        /**
+         * 读回一个溢出的事件，读取或反序列化失败时丢弃该行，继续读下一行
+         */
+        private synchronized ResolvableTypeProvider pollSpill() {
+            if (spill == null || spill.isEmpty()) {
+                return null;
+            }
+
+            try {
+                return spill.read();
+            } catch (RuntimeException e) {
+                drop(DROP_SPILL_ERROR);
+                log.error("- read spilled event error, drop event, listener = {}", listener, e);
+                return null;
+            }
+        }
+
+
+        private int getPending() {
+            return queue.size() + (spill == null ? 0 : spill.pending);
+        }
+
+
+        private synchronized void close() {
+            if (spill != null) {
+                spill.reset();
+            }
+        }
+    }
+
+
+    /**
+     * 溢出文件：每行一个事件，全部读回后删除文件。
+     * 文件只用于缓冲，进程退出后不会恢复
+     */
+    private class SpillFile {
+
+        private Path file;
+
+        private BufferedWriter writer;
+
+        private BufferedReader reader;
+
+        private volatile int pending;
+
+
+        private boolean isEmpty() {
+            return pending == 0;
+        }
+
+
+        private void append(ResolvableTypeProvider event) {
+            try {
+                if (file == null) {
+                    Path dir = Files.createDirectories(Paths.get(spillDir));
+                    file = Files.createTempFile(dir, "lane-", ".jsonl");
+                    writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+                    reader = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+                    log.warn("- event lane is full, spill events to file: {}", file);
+                }
+
+                ObjectNode node = spillMapper.createObjectNode();
+                node.put("table", modelOf(event).getTable());
+                if (event instanceof ChangeSet) {
+                    ArrayNode changes = node.putArray("changes");
+                    ((ChangeSet<?>) event).getChanges().forEach(change -> changes.addObject()
+                            .put("operation", change.getOperation().name())
+                            .putPOJO("data", change.getData())
+                            .putPOJO("oldData", change.getOldData()));
+                } else {
+                    DataBaseEvent<?> dataEvent = (DataBaseEvent<?>) event;
+                    node.put("operation", dataEvent.getOperation().name());
+                    node.set("data", spillMapper.valueToTree(dataEvent.getData()));
+                    node.set("oldData", spillMapper.valueToTree(dataEvent.getOldData()));
+                }
+
+                writer.write(spillMapper.writeValueAsString(node));
+                writer.newLine();
+                writer.flush();
+                pending++;
+            } catch (IOException e) {
+                throw new IllegalStateException("spill event error, file = " + file, e);
+            }
+        }
+
+
+        private ResolvableTypeProvider read() {
+            try {
+                String line;
+                try {
+                    line = reader.readLine();
+                } finally {
+                    //读取失败也算消费了一行，避免反复读取同一个失败的位置
+                    pending--;
+                    if (pending == 0) {
+                        reset();
+                    }
+                }
+
+                JsonNode node = spillMapper.readTree(line);
+
+                DataModel<Object> model = syncDataContext.getDataModel(node.get("table").asText());
+                if (node.has("changes")) {
+                    ChangeSet<Object> changeSet = new ChangeSet<>(model);
+                    for (JsonNode change : node.get("changes")) {
+                        changeSet.put(SyncOperation.valueOf(change.get("operation").asText()),
+                                spillMapper.treeToValue(change.get("data"), model.getModelClass()),
+                                spillMapper.treeToValue(change.get("oldData"), model.getModelClass()));
+                    }
+                    return changeSet;
+                }
+
+                JavaType listType = spillMapper.getTypeFactory().constructCollectionType(List.class, model.getModelClass());
+                List<Object> data = spillMapper.convertValue(node.get("data"), listType);
+                List<Object> oldData = spillMapper.convertValue(node.get("oldData"), listType);
+
+                switch (SyncOperation.valueOf(node.get("operation").asText())) {
+                    case ADD:
+                        return new DataAddEvent<>(data, model);
+                    case UPDATE:
+                        return new DataUpdateEvent<>(new UpdateData<>(data, oldData), model);
+                    default:
+                        return new DataDeleteEvent<>(data, model);
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("read spilled event error, file = " + file, e);
+            }
+        }
+
+
+        /**
+         * 关闭并删除文件，下次溢出时重新创建
+         */
+        private void reset() {
+            if (file == null) {
+                return;
+            }
+
+            try {
+                writer.close();
+                reader.close();
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                log.warn("- delete spill file error: {}", file, e);
+            }
+
+            file = null;
+            pending = 0;
+        }
+    }
+}
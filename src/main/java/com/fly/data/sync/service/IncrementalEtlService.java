@@ -0,0 +1,48 @@
+package com.fly.data.sync.service;
+
+import com.fly.data.sync.entity.DataModel;
+import com.fly.data.sync.entity.PageDto;
+
+/**
+ * 支持按更新时间增量查询以及id列表查询的数据源，实现该接口时可以使用增量全量同步
+ *
+ * @author guoxiang
+ * @version 1.0.0
+ * @since 2021/11/2
+ */
+public interface IncrementalEtlService extends EtlService {
+
+    /**
+     * 指定模型是否支持增量查询，默认全部支持
+     *
+     * @param model data model
+     * @param <T>   T
+     * @return      是否支持
+     */
+    default <T> boolean supportsIncremental(DataModel<T> model) {
+        return true;
+    }
+
+    /**
+     * 分页查询更新时间不早于水位线的数据（包含等于水位线的数据）
+     *
+     * @param model     data model
+     * @param watermark 水位线，即上次同步时数据的最大更新时间
+     * @param page      page
+     * @param size      size
+     * @param <T>       T
+     * @return          page
+     */
+    <T> PageDto<T> pageSince(DataModel<T> model, Object watermark, int page, int size);
+
+    /**
+     * 分页查询数据源的id列表，用于增量同步时检查被删除的数据
+     *
+     * @param model data model
+     * @param page  page
+     * @param size  size
+     * @param <T>   T
+     * @return      id page
+     */
+    <T> PageDto<Object> pageId(DataModel<T> model, int page, int size);
+}
@@ -0,0 +1,498 @@
+package com.fly.data.sync.service;
+
+import com.fly.data.sync.config.SyncDataContext;
+import com.fly.data.sync.dao.LockDao;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import static com.fly.data.sync.util.SyncCheck.notBlank;
+
+/**
+ * 集群模式主节点选举：
+ * 各节点定时争抢sync_data_lock表中的租约锁，持有者定时续约，
+ * 续约失败或租约到期未能续约时主动退出，其他节点在租约过期后抢占。
+ * 每次易主fence加1，主节点在事务提交前以普通读校验fence和数据库中的过期时间，
+ * 要求租约至少还剩余sync.data.cluster.commit-margin，抢占只能发生在过期之后，
+ * 校验通过的事务在此之前提交，被抢占的旧主节点的写入会回滚。
+ * <p>
+ * 分片模式（sync.data.cluster.shard=true）下不选主节点，而是按表分配：
+ * 每个节点定时写入心跳锁，根据存活节点列表用rendezvous hash计算每个表的归属节点，
+ * 归属于自己的表争抢该表的租约锁，不再归属于自己的表释放租约锁，
+ * 节点加入或离开时表的归属自动重新分配
+ *
+ * @author guoxiang
+ * @version 1.0.0
+ * @since 2021/11/22
+ */
+@Slf4j
+@RequiredArgsConstructor
+public class LeaderElector {
+
+    private static final String NODE_LOCK_PREFIX = "sync.data.node:";
+
+    private static final String TABLE_LOCK_PREFIX = "sync.data.table:";
+
+    @Value("${sync.data.cluster:false}")
+    private boolean isCluster;
+
+    /**
+     * 是否按表分片
+     */
+    @Value("${sync.data.cluster.shard:false}")
+    private boolean isShard;
+
+    /**
+     * 租约时长（毫秒）
+     */
+    @Value("${sync.data.cluster.lease:10000}")
+    private long lease;
+
+    /**
+     * 续约/争抢间隔（毫秒），应明显小于租约时长
+     */
+    @Value("${sync.data.cluster.renew-interval:2000}")
+    private long renewInterval;
+
+    /**
+     * 提交前校验fence时租约至少剩余的时间（毫秒），需大于校验到提交完成的耗时，且小于租约时长减去续约间隔
+     */
+    @Value("${sync.data.cluster.commit-margin:2000}")
+    private long commitMargin;
+
+    @Value("${sync.data.cluster.lock-name:sync.data.leader}")
+    private String lockName;
+
+    @Value("${sync.data.cluster.node-id:}")
+    private String nodeId;
+
+    private final LockDao lockDao;
+
+    private final SyncDataContext syncDataContext;
+
+    /**
+     * 主节点锁的租约
+     */
+    private volatile Lease leaderLease;
+
+    /**
+     * 分片模式下持有的表的租约
+     */
+    private final Map<String, Lease> tableLeaseMap = new ConcurrentHashMap<>();
+
+    /**
+     * 分片模式下节点心跳的租约
+     */
+    private Lease nodeLease;
+
+    private final List<Consumer<Boolean>> listenerList = new CopyOnWriteArrayList<>();
+
+    private final List<BiConsumer<String, Boolean>> tableListenerList = new CopyOnWriteArrayList<>();
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * 通知主节点变化的线程，避免监听阻塞续约；监听中耗时的全量同步应交给其他线程，不阻塞后续通知
+     */
+    private ExecutorService notifier;
+
+
+    @PostConstruct
+    public void init() {
+        if (!isCluster) {
+            return;
+        }
+
+        nodeId = notBlank(nodeId) ? nodeId : hostName() + "-" + UUID.randomUUID();
+        lockDao.createLockTableIfNotExist();
+
+        notifier = Executors.newSingleThreadExecutor(new CustomizableThreadFactory("sync-leader-notify-"));
+        scheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("sync-leader-"));
+        scheduler.scheduleWithFixedDelay(isShard ? this::balance : this::elect, 0, renewInterval, TimeUnit.MILLISECONDS);
+
+        log.info("- leader elector started, node = {}, shard = {}, lease = {}ms", nodeId, isShard, lease);
+    }
+
+
+    /**
+     * 注册主节点变化监听，参数为当前节点是否成为主节点
+     *
+     * @param listener  监听
+     */
+    public void addListener(Consumer<Boolean> listener) {
+        listenerList.add(listener);
+
+        //注册前已经成为主节点时补发通知，监听需要支持重复通知
+        if (isLeader() && notifier != null) {
+            notifier.execute(() -> listener.accept(true));
+        }
+    }
+
+
+    /**
+     * 注册分片模式下表归属变化监听，参数为表名和当前节点是否持有该表
+     *
+     * @param listener  监听
+     */
+    public void addTableListener(BiConsumer<String, Boolean> listener) {
+        tableListenerList.add(listener);
+
+        //注册前已经持有的表补发通知，监听需要支持重复通知
+        tableLeaseMap.keySet().forEach(table -> notifier.execute(() -> listener.accept(table, true)));
+    }
+
+
+    public boolean isCluster() {
+        return isCluster;
+    }
+
+
+    public boolean isShard() {
+        return isCluster && isShard;
+    }
+
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+
+    /**
+     * 当前节点是否是主节点，非集群模式总是主节点，分片模式没有主节点
+     *
+     * @return  是否
+     */
+    public boolean isLeader() {
+        return !isCluster || (!isShard && isValid(leaderLease));
+    }
+
+
+    /**
+     * 当前节点是否负责同步该表：非分片模式下即是否是主节点
+     *
+     * @param table     表名
+     * @return          是否
+     */
+    public boolean isOwner(String table) {
+        if (isShard()) {
+            return isValid(tableLeaseMap.get(table));
+        }
+        return isLeader();
+    }
+
+
+    /**
+     * 校验当前节点仍负责同步该表：在事务中时，提交前再次校验数据库中的fence，
+     * 如果期间锁已被其他节点抢占则抛出异常使事务回滚
+     *
+     * @param table     表名
+     */
+    public void checkOwner(String table) {
+        if (!isCluster) {
+            return;
+        }
+
+        Lease current = isShard ? tableLeaseMap.get(table) : leaderLease;
+        if (!isValid(current)) {
+            throw new IllegalStateException("current node is not owner of table: " + table + ", node = " + nodeId);
+        }
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void beforeCommit(boolean readOnly) {
+                checkFence(current);
+            }
+        });
+    }
+
+
+    /**
+     * 立即校验数据库中的fence，用于会隐式提交事务的操作（如交换表名的DDL）之前，
+     * 这类操作无法等到提交前再校验
+     *
+     * @param table     表名
+     */
+    public void checkFenceNow(String table) {
+        if (!isCluster) {
+            return;
+        }
+
+        Lease current = isShard ? tableLeaseMap.get(table) : leaderLease;
+        if (!isValid(current)) {
+            throw new IllegalStateException("current node is not owner of table: " + table + ", node = " + nodeId);
+        }
+        checkFence(current);
+    }
+
+
+    private void checkFence(Lease lease) {
+        if (!isValid(lease) || !lockDao.checkFence(lease.lockName, nodeId, lease.fence, commitMargin)) {
+            throw new IllegalStateException("lock is fenced: " + lease.lockName + ", node = " + nodeId
+                    + ", fence = " + lease.fence);
+        }
+    }
+
+
+    /**
+     * 一次选举：主节点续约，其他节点争抢
+     */
+    private void elect() {
+        try {
+            Lease current = leaderLease;
+            if (current != null) {
+                if (!renew(current)) {
+                    leaderLease = null;
+                    log.warn("- lose leader, node = {}, fence = {}", nodeId, current.fence);
+                    notifyListener(false);
+                }
+                return;
+            }
+
+            Lease acquired = acquire(lockName);
+            if (acquired != null) {
+                leaderLease = acquired;
+                log.info("- become leader, node = {}, fence = {}", nodeId, acquired.fence);
+                notifyListener(true);
+            }
+        } catch (Exception e) {
+            log.error("- leader election error, node = {}", nodeId, e);
+
+            //无法访问数据库时，租约到期前主动退出
+            Lease current = leaderLease;
+            if (current != null && !isValid(current)) {
+                leaderLease = null;
+                log.warn("- lose leader, node = {}, lease is expired", nodeId);
+                notifyListener(false);
+            }
+        }
+    }
+
+
+    /**
+     * 一次分片：续约节点心跳，根据存活节点重新计算表的归属，
+     * 释放不再归属于当前节点的表，争抢归属于当前节点的表
+     */
+    private void balance() {
+        try {
+            heartbeat();
+
+            List<String> nodeList = new ArrayList<>(lockDao.listOwner(NODE_LOCK_PREFIX));
+            if (!nodeList.contains(nodeId)) {
+                nodeList.add(nodeId);
+            }
+
+            for (String table : syncDataContext.getTableList()) {
+                boolean assigned = nodeId.equals(ownerOf(table, nodeList));
+                Lease current = tableLeaseMap.get(table);
+
+                if (current != null && assigned && renew(current)) {
+                    continue;
+                }
+
+                if (current != null) {
+                    //先通知停止同步，再释放锁
+                    tableLeaseMap.remove(table);
+                    current.deadline = 0;
+                    log.info("- release table: {}, node = {}, assigned = {}", table, nodeId, assigned);
+                    notifyTableListener(table, false);
+                    if (!assigned) {
+                        lockDao.release(current.lockName, nodeId, current.fence);
+                    }
+                    continue;
+                }
+
+                if (assigned) {
+                    Lease acquired = acquire(TABLE_LOCK_PREFIX + table);
+                    if (acquired != null) {
+                        tableLeaseMap.put(table, acquired);
+                        log.info("- own table: {}, node = {}, fence = {}", table, nodeId, acquired.fence);
+                        notifyTableListener(table, true);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            log.error("- table shard balance error, node = {}", nodeId, e);
+
+            //无法访问数据库时，租约到期前主动放弃
+            tableLeaseMap.forEach((table, current) -> {
+                if (!isValid(current)) {
+                    tableLeaseMap.remove(table);
+                    log.warn("- release table: {}, node = {}, lease is expired", table, nodeId);
+                    notifyTableListener(table, false);
+                }
+            });
+        }
+    }
+
+
+    private void heartbeat() {
+        if (nodeLease == null || !renew(nodeLease)) {
+            nodeLease = acquire(NODE_LOCK_PREFIX + nodeId);
+        }
+    }
+
+
+    /**
+     * rendezvous hash：取 hash(table, node) 最大的节点，节点变化时只有该节点上的表需要迁移
+     */
+    private static String ownerOf(String table, List<String> nodeList) {
+        String owner = null;
+        long max = -1;
+
+        for (String node : nodeList) {
+            long hash = mix(((long) table.hashCode() << 32) ^ node.hashCode()) >>> 1;
+
+            if (hash > max || (hash == max && node.compareTo(owner) < 0)) {
+                max = hash;
+                owner = node;
+            }
+        }
+        return owner;
+    }
+
+
+    /**
+     * murmur3 fmix64，使不同节点对同一个表的hash充分打散
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+
+    /**
+     * 获取锁，本地到期时间按发起请求前的本地时间计算，不晚于数据库中按数据库时间计算的过期时间
+     */
+    private Lease acquire(String name) {
+        long now = System.currentTimeMillis();
+        long fence = lockDao.tryAcquire(name, nodeId, lease);
+        return fence > 0 ? new Lease(name, fence, now + lease) : null;
+    }
+
+
+    /**
+     * 续约，本地到期时间的计算同获取锁
+     */
+    private boolean renew(Lease current) {
+        long now = System.currentTimeMillis();
+        if (!lockDao.renew(current.lockName, nodeId, current.fence, lease)) {
+            return false;
+        }
+        current.deadline = now + lease;
+        return true;
+    }
+
+
+    private static boolean isValid(Lease current) {
+        return current != null && System.currentTimeMillis() < current.deadline;
+    }
+
+
+    private void notifyListener(boolean leader) {
+        notifier.execute(() -> listenerList.forEach(listener -> {
+            try {
+                listener.accept(leader);
+            } catch (Exception e) {
+                log.error("- notify leader change error, leader = {}", leader, e);
+            }
+        }));
+    }
+
+
+    private void notifyTableListener(String table, boolean owner) {
+        notifier.execute(() -> tableListenerList.forEach(listener -> {
+            try {
+                listener.accept(table, owner);
+            } catch (Exception e) {
+                log.error("- notify table owner change error, table = {}, owner = {}", table, owner, e);
+            }
+        }));
+    }
+
+
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            return "unknown";
+        }
+    }
+
+
+    /**
+     * 停止时释放锁，其他节点无需等待租约过期即可接管
+     */
+    @PreDestroy
+    public void destroy() {
+        if (scheduler == null) {
+            return;
+        }
+
+        scheduler.shutdownNow();
+        notifier.shutdownNow();
+
+        Lease current = leaderLease;
+        leaderLease = null;
+        release(current);
+
+        tableLeaseMap.values().forEach(this::release);
+        tableLeaseMap.clear();
+        release(nodeLease);
+    }
+
+
+    private void release(Lease current) {
+        if (current == null) {
+            return;
+        }
+
+        //释放后数据库中的过期时间可能早于事务快照中的，先使本地租约失效，未提交的事务不再通过校验
+        current.deadline = 0;
+        try {
+            lockDao.release(current.lockName, nodeId, current.fence);
+            log.info("- release lock: {}, node = {}", current.lockName, nodeId);
+        } catch (Exception e) {
+            log.error("- release lock error: {}, node = {}", current.lockName, nodeId, e);
+        }
+    }
+
+
+    private static class Lease {
+        private final String lockName;
+        private final long fence;
+        private volatile long deadline;
+
+        private Lease(String lockName, long fence, long deadline) {
+            this.lockName = lockName;
+            this.fence = fence;
+            this.deadline = deadline;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.fly.data.sync.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * 全量同步分页流水线：
+ * 多个拉取线程并行调用数据源获取分页数据，放入有界队列，
+ * 由调用线程（持有同步事务的线程）依次取出并写入临时表。
+ * 队列满时拉取线程阻塞，从而限制内存中待加载的页数。
+ *
+ * @author guoxiang
+ * @version 1.0.0
+ * @since 2021/11/2
+ */
+@Slf4j
+public class PagePipeline<T> implements AutoCloseable {
+
+    /**
+     * 拉取结束标记
+     */
+    private final PageResult<T> end = new PageResult<>(null, null);
+
+    private final BlockingQueue<PageResult<T>> queue;
+
+    private final ExecutorService executor;
+
+    private final AtomicInteger activeFetcher = new AtomicInteger();
+
+    private volatile boolean closed;
+
+
+    public PagePipeline(String name, int parallelism, int queueSize) {
+        this.queue = new ArrayBlockingQueue<>(Math.max(queueSize, 1));
+        this.executor = Executors.newFixedThreadPool(parallelism, new CustomizableThreadFactory("sync-page-" + name + "-"));
+        this.activeFetcher.set(parallelism);
+
+        log.info("- create page pipeline for {}, parallelism = {}, queue size = {}", name, parallelism, queueSize);
+    }
+
+
+    /**
+     * 启动拉取线程
+     *
+     * @param fetcher   分页拉取函数，会被多个线程并发调用，返回null表示没有更多数据
+     */
+    public void start(Supplier<List<T>> fetcher) {
+        int parallelism = activeFetcher.get();
+        for (int i = 0; i < parallelism; i++) {
+            executor.execute(() -> fetch(fetcher));
+        }
+    }
+
+
+    /**
+     * 取出下一页数据，页的顺序不固定
+     *
+     * @return  数据，所有页取完后返回null
+     */
+    public List<T> take() {
+        PageResult<T> result;
+        try {
+            result = queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting for page", e);
+        }
+
+        if (result == end) {
+            return null;
+        }
+
+        if (result.error != null) {
+            throw new IllegalStateException("fetch page error", result.error);
+        }
+
+        return result.data;
+    }
+
+
+    private void fetch(Supplier<List<T>> fetcher) {
+        try {
+            List<T> data;
+            while (!closed && (data = fetcher.get()) != null) {
+                queue.put(new PageResult<>(data, null));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (Exception e) {
+            log.error("- fetch page error", e);
+            offer(new PageResult<>(Collections.emptyList(), e));
+            return;
+        }
+
+        //最后一个结束的拉取线程放入结束标记
+        if (activeFetcher.decrementAndGet() == 0) {
+            offer(end);
+        }
+    }
+
+
+    private void offer(PageResult<T> result) {
+        try {
+            queue.put(result);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    @Override
+    public void close() {
+        closed = true;
+        executor.shutdownNow();
+    }
+
+
+    private static class PageResult<T> {
+        private final List<T> data;
+        private final Exception error;
+
+        private PageResult(List<T> data, Exception error) {
+            this.data = data;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,365 @@
+package com.fly.data.sync.service;
+
+import com.fly.data.sync.config.SyncDataContext;
+import com.fly.data.sync.constant.SyncOperation;
+import com.fly.data.sync.dao.ModelDao;
+import com.fly.data.sync.entity.CacheStats;
+import com.fly.data.sync.entity.DataModel;
+import com.fly.data.sync.event.ChangeSet;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 本地副本缓存：SyncTable#cacheSize大于0的模型，按id和SyncIndex字段在内存中读取同步表的数据。
+ * 未命中时从数据库加载（read-through），行数超过cacheSize时淘汰最近最少使用的数据。
+ * 同步写入主表后，由SyncDataService在事务提交后按ChangeSet更新缓存：
+ * 变更的行移出缓存，并使变更前后的索引值失效，下次读取时从数据库加载。
+ * 不用ChangeSet中的数据替换缓存：增量更新按更新时间条件写入，乱序到达的旧消息不会写入数据库，
+ * 但仍会出现在ChangeSet中，用它替换缓存会使缓存比数据库旧。
+ * 返回的对象与缓存共享，调用方不能修改
+ *
+ * @author guoxiang
+ * @version 1.0.0
+ * @since 2021/12/10
+ */
+@Slf4j
+@RequiredArgsConstructor
+public class ReplicaCache {
+
+    private final ModelDao modelDao;
+
+    private final SyncDataContext syncDataContext;
+
+    private final Map<String, TableCache<?>> cacheMap = new ConcurrentHashMap<>();
+
+
+    /**
+     * 按id读取
+     *
+     * @param table     表名
+     * @param id        id，类型与模型的id字段一致
+     * @param <T>       泛型
+     * @return          数据，不存在时为null
+     */
+    public <T> T get(String table, Object id) {
+        return this.<T>getCache(table).get(id);
+    }
+
+
+    /**
+     * 按二级索引读取
+     *
+     * @param table     表名
+     * @param column    SyncIndex字段对应的表字段
+     * @param value     字段值，类型与模型字段一致
+     * @param <T>       泛型
+     * @return          数据
+     */
+    public <T> List<T> getByIndex(String table, String column, Object value) {
+        return this.<T>getCache(table).getByIndex(column, value);
+    }
+
+
+    /**
+     * 按变更集合更新缓存，有事务时在事务提交后更新
+     *
+     * @param changeSet 变更集合
+     */
+    public <T> void apply(ChangeSet<T> changeSet) {
+        TableCache<T> cache = getCache(changeSet.getDataModel());
+        afterCommit(() -> cache.apply(changeSet));
+    }
+
+
+    /**
+     * 清空模型的缓存，如主表被整体替换后，有事务时在事务提交后清空
+     *
+     * @param model 模型
+     */
+    public void clear(DataModel<?> model) {
+        if (!model.isCached()) {
+            return;
+        }
+
+        TableCache<?> cache = getCache(model);
+        afterCommit(cache::clear);
+    }
+
+
+    /**
+     * 缓存统计
+     *
+     * @param table 表名
+     * @return      统计
+     */
+    public CacheStats getStats(String table) {
+        return getCache(table).getStats();
+    }
+
+
+    private <T> TableCache<T> getCache(String table) {
+        DataModel<T> model = syncDataContext.getDataModel(table);
+        if (model == null) {
+            throw new IllegalStateException("data model not found: " + table);
+        }
+        return getCache(model);
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private <T> TableCache<T> getCache(DataModel<T> model) {
+        if (!model.isCached()) {
+            throw new IllegalStateException("cache is not enabled for table: " + model.getTable());
+        }
+        return (TableCache<T>) cacheMap.computeIfAbsent(model.getTable(), t -> new TableCache<>(model));
+    }
+
+
+    private static void afterCommit(Runnable runnable) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            runnable.run();
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                runnable.run();
+            }
+        });
+    }
+
+
+    /**
+     * 单个表的缓存。
+     * 已加载的索引值对应的id全部在缓存中：行被淘汰时，包含该行的索引值一并失效
+     */
+    private class TableCache<T> {
+
+        private final DataModel<T> model;
+
+        /**
+         * 按访问顺序排列，超出容量时淘汰最早访问的
+         */
+        private final LinkedHashMap<Object, T> rowMap;
+
+        /**
+         * 索引字段 -> (已加载的索引值 -> id)
+         */
+        private final Map<String, LinkedHashMap<Object, Set<Object>>> indexMap = new HashMap<>();
+
+        /**
+         * 每次应用变更或清空时递增，数据库加载期间发生过变更的结果不放入缓存，防止覆盖为旧数据
+         */
+        private long version;
+
+        private long hitCount;
+
+        private long missCount;
+
+        private long loadCount;
+
+        private long evictionCount;
+
+
+        private TableCache(DataModel<T> model) {
+            this.model = model;
+            int maxSize = model.getCacheSize();
+
+            this.rowMap = new LinkedHashMap<Object, T>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Object, T> eldest) {
+                    if (size() <= maxSize) {
+                        return false;
+                    }
+                    evictionCount++;
+                    invalidateIndex(eldest.getValue());
+                    return true;
+                }
+            };
+
+            for (String column : model.getIndexColumnList()) {
+                indexMap.put(column, new LinkedHashMap<Object, Set<Object>>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<Object, Set<Object>> eldest) {
+                        return size() > maxSize;
+                    }
+                });
+            }
+        }
+
+
+        private T get(Object id) {
+            long loadVersion;
+            synchronized (this) {
+                T row = rowMap.get(id);
+                if (row != null) {
+                    hitCount++;
+                    return row;
+                }
+                missCount++;
+                loadCount++;
+                loadVersion = version;
+            }
+
+            List<T> rowList = modelDao.getListById(model, Collections.singletonList(id));
+            T row = rowList.isEmpty() ? null : rowList.get(0);
+
+            synchronized (this) {
+                if (row != null && loadVersion == version) {
+                    put(row);
+                }
+            }
+            return row;
+        }
+
+
+        private List<T> getByIndex(String column, Object value) {
+            if (value == null) {
+                return Collections.emptyList();
+            }
+
+            long loadVersion;
+            synchronized (this) {
+                Set<Object> idSet = getIndex(column).get(value);
+                if (idSet != null) {
+                    hitCount++;
+                    List<T> result = new ArrayList<>(idSet.size());
+                    idSet.forEach(id -> result.add(rowMap.get(id)));
+                    return result;
+                }
+                missCount++;
+                loadCount++;
+                loadVersion = version;
+            }
+
+            List<T> rowList = modelDao.getListByIndex(model, column, value);
+
+            synchronized (this) {
+                if (loadVersion == version) {
+                    Set<Object> idSet = new HashSet<>();
+                    for (T row : rowList) {
+                        put(row);
+                        idSet.add(model.getIdOf(row));
+                    }
+
+                    //结果超过缓存容量时部分行已被淘汰，该索引值不能标记为已加载
+                    if (idSet.stream().allMatch(rowMap::containsKey)) {
+                        getIndex(column).put(value, idSet);
+                    }
+                }
+            }
+            return rowList;
+        }
+
+
+        /**
+         * 变更的行移出缓存：新增、更新时不知道数据库中是否为ChangeSet中的数据（旧消息的更新会被拒绝），
+         * 变更前后的索引值都失效，由下次读取重新加载
+         */
+        private synchronized void apply(ChangeSet<T> changeSet) {
+            version++;
+
+            changeSet.getChanges().forEach(change -> {
+                Object id = model.getIdOf(change.getData() != null ? change.getData() : change.getOldData());
+                T cached = rowMap.remove(id);
+                if (cached != null) {
+                    removeFromIndex(id, cached);
+                }
+
+                if (change.getOperation() == SyncOperation.DELETE) {
+                    //逻辑删除的行仍在表中，按索引查询时仍会查到，不能只移除id
+                    if (model.isTombstone()) {
+                        invalidateIndex(change.getOldData());
+                    }
+                } else {
+                    invalidateIndex(cached);
+                    invalidateIndex(change.getOldData());
+                    invalidateIndex(change.getData());
+                }
+            });
+        }
+
+
+        private synchronized void clear() {
+            version++;
+            rowMap.clear();
+            indexMap.values().forEach(Map::clear);
+            log.info("- clear replica cache of table: {}", model.getTable());
+        }
+
+
+        private synchronized CacheStats getStats() {
+            return new CacheStats(model.getTable(), rowMap.size(), hitCount, missCount, loadCount, evictionCount);
+        }
+
+
+        /**
+         * 放入缓存，并加入已加载的索引值
+         */
+        private void put(T row) {
+            Object id = model.getIdOf(row);
+            T previous = rowMap.put(id, row);
+            if (previous != null) {
+                removeFromIndex(id, previous);
+            }
+
+            indexMap.forEach((column, valueMap) -> {
+                Object value = model.getValueOf(row, model.getColumnIndex(column));
+                Set<Object> idSet = value == null ? null : valueMap.get(value);
+                if (idSet != null) {
+                    idSet.add(id);
+                }
+            });
+        }
+
+
+        private void removeFromIndex(Object id, T row) {
+            indexMap.forEach((column, valueMap) -> {
+                Object value = model.getValueOf(row, model.getColumnIndex(column));
+                Set<Object> idSet = value == null ? null : valueMap.get(value);
+                if (idSet != null) {
+                    idSet.remove(id);
+                }
+            });
+        }
+
+
+        /**
+         * 使行的索引值失效，下次按该值查询时重新加载
+         */
+        private void invalidateIndex(T row) {
+            if (row == null) {
+                return;
+            }
+
+            indexMap.forEach((column, valueMap) -> {
+                Object value = model.getValueOf(row, model.getColumnIndex(column));
+                if (value != null) {
+                    valueMap.remove(value);
+                }
+            });
+        }
+
+
+        private Map<Object, Set<Object>> getIndex(String column) {
+            Map<Object, Set<Object>> valueMap = indexMap.get(column);
+            if (valueMap == null) {
+                throw new IllegalStateException("column is not indexed: " + column + ", table = " + model.getTable());
+            }
+            return valueMap;
+        }
+    }
+}
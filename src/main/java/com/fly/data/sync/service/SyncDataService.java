@@ -1,19 +1,41 @@
 package com.fly.data.sync.service;
 
 import com.fly.data.sync.config.SyncDataContext;
+import com.fly.data.sync.constant.SyncDialect;
+import com.fly.data.sync.constant.SyncOperation;
+import com.fly.data.sync.constant.SyncStrategy;
 import com.fly.data.sync.dao.ModelDao;
+import com.fly.data.sync.dao.SyncStateDao;
 import com.fly.data.sync.entity.*;
+import com.fly.data.sync.event.ChangeSet;
 import com.fly.data.sync.event.DataAddEvent;
 import com.fly.data.sync.event.DataDeleteEvent;
 import com.fly.data.sync.event.DataUpdateEvent;
+import com.fly.data.sync.util.StripedLock;
 import com.fly.data.sync.util.SyncCheck;
+import com.fly.data.sync.util.SyncJsonUtils;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.Ordered;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import java.util.List;
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 import static com.fly.data.sync.constant.SyncConstant.*;
 
@@ -29,14 +51,117 @@ public class SyncDataService {
     @Value("${sync.data.page.size:400}")
     private int pageSize;
 
+    /**
+     * 全量同步并行拉取页数，1表示串行拉取
+     */
+    @Value("${sync.data.page.parallelism:1}")
+    private int pageParallelism;
+
+    /**
+     * 全量同步待加载页队列长度
+     */
+    @Value("${sync.data.page.queue-size:4}")
+    private int pageQueueSize;
+
+    /**
+     * 是否流式解析分页数据并直接写入临时表
+     */
+    @Value("${sync.data.page.stream:false}")
+    private boolean pageStream;
+
+    /**
+     * 流式写入临时表时的批量大小
+     */
+    @Value("${sync.data.page.stream-batch-size:500}")
+    private int streamBatchSize;
+
+    /**
+     * 是否开启按更新时间水位线的增量全量同步
+     */
+    @Value("${sync.data.incremental.enabled:false}")
+    private boolean incrementalEnabled;
+
+    /**
+     * 增量同步拉取id列表的分页大小
+     */
+    @Value("${sync.data.incremental.id-page-size:10000}")
+    private int idPageSize;
+
+    /**
+     * 范围比对同步时，有差异的范围每次拆分的份数
+     */
+    @Value("${sync.data.reconcile.fanout:16}")
+    private int reconcileFanout;
+
+    /**
+     * 范围比对同步时，数据量不超过该值的有差异范围直接拉取
+     */
+    @Value("${sync.data.reconcile.leaf-size:1000}")
+    private int reconcileLeafSize;
+
+    /**
+     * 全量同步是否按id范围分段比对写入主表，每段一个事务
+     */
+    @Value("${sync.data.apply.chunked:false}")
+    private boolean applyChunked;
+
+    /**
+     * 分段比对时每段包含的临时表行数
+     */
+    @Value("${sync.data.apply.chunk-rows:10000}")
+    private int applyChunkRows;
+
+    /**
+     * 分段比对的并行数，每个并行占用一个数据库连接
+     */
+    @Value("${sync.data.apply.parallelism:1}")
+    private int applyParallelism;
+
+    /**
+     * 全量同步时一个ChangeSet的最大变更数，超过时先发布已收集的部分，小于等于0表示不限制
+     */
+    @Value("${sync.data.change-set.max-size:100000}")
+    private int changeSetMaxSize;
+
     private final ModelDao modelDao;
 
-    private final ApplicationEventPublisher publisher;
+    private final EventDispatcher eventDispatcher;
+
+    private final ReplicaCache replicaCache;
 
     private final EtlService etlService;
 
     private final SyncDataContext syncDataContext;
 
+    private final LeaderElector leaderElector;
+
+    private final SyncStateDao syncStateDao;
+
+    private final PlatformTransactionManager transactionManager;
+
+    private TransactionTemplate newTransactionTemplate;
+
+
+    @PostConstruct
+    public void init() {
+        newTransactionTemplate = new TransactionTemplate(transactionManager);
+        newTransactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+
+        if (applyChunked || incrementalEnabled) {
+            syncStateDao.createStateTableIfNotExist();
+        }
+
+        if (applyChunked) {
+            //上次分段全量同步在比对阶段中断，恢复前增量同步修改的id需要持久化
+            syncDataContext.getTableList().stream()
+                    .filter(table -> STATE_APPLYING.equals(syncStateDao.getPhase(table)))
+                    .forEach(table -> {
+                        log.info("- apply of table {} is pending, persist ids changed by delta until resumed", table);
+                        syncDataContext.getDataModel(table).setApplyPending(true);
+                    });
+        }
+    }
+
 
     /**
      * 全量同步
@@ -45,34 +170,501 @@ public class SyncDataService {
      */
     @Transactional(rollbackFor = Exception.class)
     public <T> void syncTotal(DataModel<T> model) {
+        leaderElector.checkOwner(model.getTable());
 
-        model.getDataLock().lock();
+        if (isChunked(model)) {
+            syncTotalInChunk(model);
+            return;
+        }
+
+        beginFullSync(model);
 
         log.info("- sync all data for model: {}", model.getTable());
         try {
             //清空临时表
             clearTemporaryTable(model);
 
+            loadToTemporaryTable(model);
+
+            Object watermark = incrementalEnabled ? modelDao.queryWatermark(model) : null;
+
+            //加载数据到主表：只在这一阶段锁定全部数据
+            lockUntilCompletion(model.getDataLock()::lockAll, model.getDataLock()::unlockAll, () -> {
+                prepareTemp(model, false);
+                if (model.getStrategy() == SyncStrategy.REPLACE) {
+                    replaceTable(model);
+                } else {
+                    loadToTable(model);
+                }
+            });
+
+            saveWatermark(model, watermark);
+
+        } finally {
+            endFullSync(model);
+        }
+        log.info("- finish sync all for model: {}", model.getTable());
+    }
+
+
+
+    /**
+     * 分段全量同步：拉取数据到临时表、修正脏数据、按id范围比对写入主表分别在新的事务中提交，
+     * 每个id范围一个事务，缩短行锁的持有时间，避免一个大事务产生大量undo日志。
+     * 临时表完整后记录同步状态标记，中断后下一次全量同步不再拉取数据，直接从比对阶段继续，
+     * 比对是幂等的，已完成的范围再次比对不会产生变更。
+     * 中断到恢复之间增量同步修改的id只记在内存中会随进程退出丢失，因此状态标记存在期间同时持久化这些id，
+     * 恢复时先用主表数据修正临时表中的这些id，避免用过期的临时表数据覆盖增量同步的修改。
+     * 外层事务中不做任何操作，但仍占用一个数据库连接
+     *
+     * @param model 数据模型
+     */
+    private <T> void syncTotalInChunk(DataModel<T> model) {
+        String table = model.getTable();
+
+        beginFullSync(model);
+
+        log.info("- sync all data in chunk for model: {}", table);
+        try {
+            boolean resume = STATE_APPLYING.equals(syncStateDao.getPhase(table));
+            if (resume) {
+                log.info("- temp table is complete, resume applying to table: {}", table);
+            } else {
+                inNewTransaction(() -> {
+                    leaderElector.checkOwner(table);
+                    syncStateDao.clearDirtyId(table);
+                    clearTemporaryTable(model);
+                    loadToTemporaryTable(model);
+                    return null;
+                });
+            }
+
+            Object watermark = incrementalEnabled ? modelDao.queryWatermark(model) : null;
+
+            model.getDataLock().lockAll();
+            try {
+                inNewTransaction(() -> {
+                    leaderElector.checkOwner(table);
+                    if (resume) {
+                        repairPersistedDirtyId(model);
+                    }
+                    prepareTemp(model, false);
+                    syncStateDao.savePhase(table, STATE_APPLYING);
+                    return null;
+                });
+                //比对失败时状态标记保留，解锁后的增量同步需要持久化修改的id
+                model.setApplyPending(true);
+
+                applyInChunk(model);
+
+                inNewTransaction(() -> {
+                    syncStateDao.clearPhase(table);
+                    syncStateDao.clearDirtyId(table);
+                    return null;
+                });
+                model.setApplyPending(false);
+            } finally {
+                model.getDataLock().unlockAll();
+            }
+
+            saveWatermark(model, watermark);
+        } finally {
+            endFullSync(model);
+        }
+        log.info("- finish sync all in chunk for model: {}", table);
+    }
+
+
+    private <T> boolean isChunked(DataModel<T> model) {
+        return applyChunked && model.isNumericId() && model.getStrategy() == SyncStrategy.DIFF;
+    }
+
+
+    /**
+     * 按临时表行数划分id范围，逐个（或并行）比对写入主表
+     *
+     * @param model 数据模型
+     */
+    private <T> void applyInChunk(DataModel<T> model) {
+        List<IdRange> rangeList = modelDao.splitTempRange(model, applyChunkRows);
+        int parallelism = Math.min(applyParallelism, rangeList.size());
+
+        log.info("- apply temp table to table: {}, range = {}, parallelism = {}", model.getTable(), rangeList.size(), parallelism);
+
+        int[] total = new int[3];
+
+        if (parallelism <= 1) {
+            rangeList.forEach(range -> sumCount(total, applyRange(model, range)));
+        } else {
+            ExecutorService executor = Executors.newFixedThreadPool(parallelism,
+                    new CustomizableThreadFactory("sync-apply-" + model.getTable() + "-"));
+            try {
+                List<Future<int[]>> futureList = rangeList.stream()
+                        .map(range -> executor.submit(() -> applyRange(model, range)))
+                        .collect(Collectors.toList());
+
+                for (Future<int[]> future : futureList) {
+                    sumCount(total, future.get());
+                }
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("apply range error, table = " + model.getTable(), e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while applying range, table = " + model.getTable(), e);
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        log.info("- load data to table: {}, add = {}, delete = {}, update = {}",
+                model.getTable(), total[0], total[1], total[2]);
+    }
+
+
+    /**
+     * 在新的事务中比对一个id范围
+     *
+     * @param model 数据模型
+     * @param range id范围
+     * @return      新增、删除、更新数量
+     */
+    private <T> int[] applyRange(DataModel<T> model, IdRange range) {
+        return inNewTransaction(() -> {
+            leaderElector.checkOwner(model.getTable());
+
+            ChangeCollector<T> changes = new ChangeCollector<>(model);
+            int addCount = modelDao.reviveInRange(model, range, addConsumer(model, changes));
+            addCount += modelDao.addInRange(model, range, addConsumer(model, changes));
+            int deleteCount = modelDao.deleteInRange(model, range, deleteConsumer(model, changes));
+            int updateCount = modelDao.updateInRange(model, range, updateConsumer(model, changes));
+            changes.flush();
+
+            log.debug("- apply range: {}, table = {}, add = {}, delete = {}, update = {}",
+                    range, model.getTable(), addCount, deleteCount, updateCount);
+            return new int[]{addCount, deleteCount, updateCount};
+        });
+    }
+
+
+    private static void sumCount(int[] total, int[] count) {
+        for (int i = 0; i < total.length; i++) {
+            total[i] += count[i];
+        }
+    }
+
+
+    private <R> R inNewTransaction(Supplier<R> action) {
+        return newTransactionTemplate.execute(status -> action.get());
+    }
+
+
+    /**
+     * 增量全量同步：只拉取更新时间不早于水位线的数据进行新增、更新，
+     * 再通过数据源的id列表检查删除的数据。
+     * 未开启增量同步、没有水位线（如项目启动后首次同步）、数据源不支持或替换主表方式时，执行全量同步
+     *
+     * @param model 数据模型
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public <T> void syncIncremental(DataModel<T> model) {
+        Object watermark = getWatermark(model);
+
+        if (!incrementalEnabled || watermark == null || !supportsIncremental(model)
+                || model.getStrategy() == SyncStrategy.REPLACE) {
+            syncTotal(model);
+            return;
+        }
+
+        leaderElector.checkOwner(model.getTable());
+        beginFullSync(model);
+
+        log.info("- sync incremental data for model: {}, watermark = {}", model.getTable(), watermark);
+        try {
+            clearTemporaryTable(model);
+
+            //拉取变化的数据到临时表
             long totalPage = 1;
+            for (int i = 1; i <= totalPage; i++) {
+                log.info("- get changed page from data center, page = {}, size = {}, table = {}", i, pageSize, model.getTable());
+                PageDto<T> page = ((IncrementalEtlService) etlService).pageSince(model, watermark, i, pageSize);
+                totalPage = page.getTotal() / pageSize + 1;
+                loadToTemporary(page.getRecords(), model);
+            }
+
+            Object newWatermark = modelDao.queryWatermark(model);
 
-            //分批次加载数据到临时表：防止数据量过大内存溢出
+            //拉取数据源的id列表到id临时表
+            modelDao.deleteIdTemp(model);
+            totalPage = 1;
             for (int i = 1; i <= totalPage; i++) {
-                PageDto<T> page = extractAndTransform(model, i, pageSize);
+                log.info("- get id page from data center, page = {}, size = {}, table = {}", i, idPageSize, model.getTable());
+                PageDto<Object> page = ((IncrementalEtlService) etlService).pageId(model, i, idPageSize);
+                totalPage = page.getTotal() / idPageSize + 1;
+                modelDao.loadIdToTemp(page.getRecords(), model);
+            }
 
-                List<T> dataList = page.getRecords();
-                long total = page.getTotal();
-                totalPage = total / pageSize + 1;
+            lockUntilCompletion(model.getDataLock()::lockAll, model.getDataLock()::unlockAll, () -> {
+                prepareTemp(model, true);
 
-                loadToTemporary(dataList, model);
+                //临时表中只有变化的数据，只做新增和更新，删除根据id临时表比对
+                ChangeCollector<T> changes = new ChangeCollector<>(model);
+                int addCount = modelDao.revive(model, addConsumer(model, changes));
+                addCount += modelDao.add(model, addConsumer(model, changes));
+                int updateCount = modelDao.update(model, updateConsumer(model, changes));
+                int deleteCount = modelDao.deleteMissingId(model, deleteConsumer(model, changes));
+                changes.flush();
+
+                log.info("- load incremental data to table: {}, add = {}, delete = {}, update = {}",
+                        model.getTable(), addCount, deleteCount, updateCount);
+            });
+
+            saveWatermark(model, newWatermark == null ? watermark : newWatermark);
+        } finally {
+            endFullSync(model);
+        }
+        log.info("- finish sync incremental for model: {}", model.getTable());
+    }
+
+
+
+    /**
+     * 范围比对同步：数据源与本地分别计算id范围的校验和，
+     * 校验和不同的范围继续拆分比对，直到范围内数据量不超过叶子大小，
+     * 只拉取有差异的范围到临时表，并只在这些范围内做新增、更新、删除。
+     * 数据源不支持、id不是整数或替换主表方式时，执行全量同步。
+     * 本地校验和使用MySQL的crc32等函数计算，其他数据库不支持范围比对
+     *
+     * @param model 数据模型
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public <T> void syncReconcile(DataModel<T> model) {
+        if (!model.isNumericId() || !supportsChecksum(model) || model.getStrategy() == SyncStrategy.REPLACE) {
+            syncTotal(model);
+            return;
+        }
+
+        if (modelDao.getDialect() != SyncDialect.MYSQL) {
+            throw new IllegalStateException("reconcile sync only supports MySQL, table = " + model.getTable()
+                    + ", dialect = " + modelDao.getDialect());
+        }
+
+        leaderElector.checkOwner(model.getTable());
+        beginFullSync(model);
+
+        log.info("- sync reconcile data for model: {}", model.getTable());
+        try {
+            clearTemporaryTable(model);
+
+            List<IdRange> diffRangeList = findDiffRange(model);
+
+            //拉取有差异的范围到临时表
+            for (IdRange range : diffRangeList) {
+                log.info("- get range from data center, range = {}, table = {}", range, model.getTable());
+                loadToTemporary(((ChecksumEtlService) etlService).listRange(model, range), model);
             }
 
-            //加载数据到主表
-            loadToTable(model);
+            lockUntilCompletion(model.getDataLock()::lockAll, model.getDataLock()::unlockAll, () -> {
+                prepareTemp(model, false);
+
+                ChangeCollector<T> changes = new ChangeCollector<>(model);
+                int addCount = modelDao.revive(model, addConsumer(model, changes));
+                addCount += modelDao.add(model, addConsumer(model, changes));
+                int updateCount = modelDao.update(model, updateConsumer(model, changes));
+
+                int deleteCount = 0;
+                for (IdRange range : diffRangeList) {
+                    deleteCount += modelDao.deleteInRange(model, range, deleteConsumer(model, changes));
+                }
+                changes.flush();
 
+                log.info("- load reconcile data to table: {}, diff range = {}, add = {}, delete = {}, update = {}",
+                        model.getTable(), diffRangeList.size(), addCount, deleteCount, updateCount);
+            });
         } finally {
-            model.getDataLock().unlock();
+            endFullSync(model);
         }
-        log.info("- finish sync all for model: {}", model.getTable());
+        log.info("- finish sync reconcile for model: {}", model.getTable());
+    }
+
+
+    /**
+     * 开始全量同步：同一个表的全量同步串行执行，
+     * 拉取数据到临时表期间不锁定数据，增量同步照常进行并记录修改过的id
+     *
+     * @param model 数据模型
+     */
+    private <T> void beginFullSync(DataModel<T> model) {
+        model.getSyncLock().lock();
+        model.startTracking();
+    }
+
+
+    private <T> void endFullSync(DataModel<T> model) {
+        model.stopTracking();
+        model.getSyncLock().unlock();
+    }
+
+
+    /**
+     * 比对前准备临时表：修正被增量同步修改过的数据，逻辑删除模型将临时表数据置为未删除。
+     * 调用前需要锁定全部数据
+     *
+     * @param model   数据模型
+     * @param idTemp  是否同时修正id临时表
+     */
+    private <T> void prepareTemp(DataModel<T> model, boolean idTemp) {
+        repairDirtyId(model, idTemp);
+        modelDao.resetTempTombstone(model);
+    }
+
+
+    /**
+     * 全量同步拉取期间被增量同步修改过的数据以本地为准：
+     * 用主表中的当前数据替换临时表中的数据，使比对时这些id不产生新增、更新、删除。
+     * 调用前需要锁定全部数据
+     *
+     * @param model   数据模型
+     * @param idTemp  是否同时修正id临时表
+     */
+    private <T> void repairDirtyId(DataModel<T> model, boolean idTemp) {
+        List<Object> idList = new ArrayList<>(model.getDirtyIdSet());
+        if (idList.isEmpty()) {
+            return;
+        }
+
+        log.info("- repair temp table for ids changed by delta during sync, table = {}, size = {}", model.getTable(), idList.size());
+        modelDao.replaceTempById(model, idList, idTemp);
+    }
+
+
+    /**
+     * 恢复比对前，用主表中的当前数据修正比对中断后被增量同步修改过的id，并清除记录。
+     * 调用前需要锁定全部数据
+     *
+     * @param model   数据模型
+     */
+    private <T> void repairPersistedDirtyId(DataModel<T> model) {
+        List<Object> idList = syncStateDao.getDirtyIdList(model.getTable()).stream()
+                .map(model::toId)
+                .collect(Collectors.toList());
+        if (idList.isEmpty()) {
+            return;
+        }
+
+        log.info("- repair temp table for ids changed by delta before resuming, table = {}, size = {}", model.getTable(), idList.size());
+        modelDao.replaceTempById(model, idList, false);
+        syncStateDao.clearDirtyId(model.getTable());
+    }
+
+
+    /**
+     * 逐层比对id范围的校验和，返回有差异的叶子范围
+     *
+     * @param model 数据模型
+     * @return      有差异的范围
+     */
+    private <T> List<IdRange> findDiffRange(DataModel<T> model) {
+        List<IdRange> diffRangeList = new ArrayList<>();
+        List<IdRange> rangeList = Collections.singletonList(new IdRange(Long.MIN_VALUE, Long.MAX_VALUE));
+
+        while (!rangeList.isEmpty()) {
+            List<RangeChecksum> remoteList = ((ChecksumEtlService) etlService).checksum(model, rangeList);
+            List<RangeChecksum> localList = modelDao.checksum(model, rangeList);
+
+            List<IdRange> nextList = new ArrayList<>();
+            for (int i = 0; i < rangeList.size(); i++) {
+                RangeChecksum remote = remoteList.get(i);
+                RangeChecksum local = localList.get(i);
+                if (remote.isSame(local)) {
+                    continue;
+                }
+
+                IdRange range = rangeList.get(i);
+                if (Math.max(remote.getCount(), local.getCount()) <= reconcileLeafSize) {
+                    diffRangeList.add(range);
+                } else {
+                    nextList.addAll(splitRange(remote, local));
+                }
+            }
+
+            log.info("- compare range checksum for: {}, range = {}, diff = {}, leaf = {}",
+                    model.getTable(), rangeList.size(), nextList.size(), diffRangeList.size());
+            rangeList = nextList;
+        }
+
+        return diffRangeList;
+    }
+
+
+    /**
+     * 按两边实际的最小、最大id将范围拆分为reconcileFanout份
+     */
+    private List<IdRange> splitRange(RangeChecksum remote, RangeChecksum local) {
+        long min = Math.min(nullToDefault(remote.getMinId(), Long.MAX_VALUE), nullToDefault(local.getMinId(), Long.MAX_VALUE));
+        long max = Math.max(nullToDefault(remote.getMaxId(), Long.MIN_VALUE), nullToDefault(local.getMaxId(), Long.MIN_VALUE));
+
+        long step = Math.max((max - min) / reconcileFanout + 1, 1);
+
+        List<IdRange> result = new ArrayList<>(reconcileFanout);
+        for (long from = min; from <= max; from += step) {
+            long to = max - from < step ? max : from + step - 1;
+            result.add(new IdRange(from, to));
+            if (to == max) {
+                break;
+            }
+        }
+        return result;
+    }
+
+
+    private static long nullToDefault(Long value, long defaultValue) {
+        return value == null ? defaultValue : value;
+    }
+
+
+
+    /**
+     * 水位线：内存中没有时（如重启后）从同步状态表中读取
+     *
+     * @param model     数据模型
+     * @return          水位线，没有时返回null
+     */
+    private <T> Object getWatermark(DataModel<T> model) {
+        if (!incrementalEnabled || model.getWatermark() != null) {
+            return model.getWatermark();
+        }
+
+        Class<?> type = model.getAccessorList().get(model.getUpdateTimeIndex()).getType();
+        Object watermark = SyncJsonUtils.parseTime(syncStateDao.getWatermark(model.getTable()), type);
+        model.setWatermark(watermark);
+        return watermark;
+    }
+
+
+    /**
+     * 在同步的事务中记录水位线，事务提交后再更新内存中的水位线，防止同步回滚后水位线前移导致漏数据
+     *
+     * @param model     数据模型
+     * @param watermark 水位线
+     */
+    private <T> void saveWatermark(DataModel<T> model, Object watermark) {
+        if (!incrementalEnabled || watermark == null) {
+            return;
+        }
+
+        syncStateDao.saveWatermark(model.getTable(), SyncJsonUtils.formatTime(watermark));
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            model.setWatermark(watermark);
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                model.setWatermark(watermark);
+            }
+        });
     }
 
 
@@ -88,19 +680,335 @@ public class SyncDataService {
         SyncMessage<T> syncMessage = etlService.convertMessage(message);
 
         String table = syncMessage.getTable();
+        if (!leaderElector.isOwner(table)) {
+            log.info("- table {} is not owned by current node, skip delta", table);
+            return;
+        }
+        leaderElector.checkOwner(table);
+
         DataModel<T> model = syncDataContext.getDataModel(table);
 
-        model.getDataLock().lock();
-        log.info("- get lock success, begin to sync delta");
-        try {
+        List<Object> idList = syncMessage.getIdList();
+        StripedLock dataLock = model.getDataLock();
+        int[] stripes = dataLock.stripesOf(idList);
+        lockUntilCompletion(() -> dataLock.lock(stripes), () -> dataLock.unlock(stripes), () -> {
+            log.info("- get lock success, begin to sync delta");
+            markDirty(model, idList);
             handleSyncMessage(model, syncMessage);
-        } finally {
-            model.getDataLock().unlock();
-        }
+        });
 
         log.info("- finish sync delta for model: {}", model.getTable());
     }
 
+
+
+    /**
+     * 记录增量同步修改的id：全量同步期间记在内存中，分段比对待恢复时同时在当前事务中持久化。
+     * 调用前需要持有对应id的数据锁
+     *
+     * @param model     数据模型
+     * @param idList    id
+     */
+    private <T> void markDirty(DataModel<T> model, List<Object> idList) {
+        model.markDirty(idList);
+        if (model.isApplyPending()) {
+            syncStateDao.saveDirtyId(model.getTable(), idList);
+        }
+    }
+
+
+    /**
+     * 加锁执行，有事务时在事务结束（提交或回滚）后才解锁：
+     * 在事务提交前解锁，其他线程可能在提交前读到旧数据并覆盖本次写入
+     *
+     * @param lock      加锁
+     * @param unlock    解锁
+     * @param action    加锁后执行的操作
+     */
+    private static void lockUntilCompletion(Runnable lock, Runnable unlock, Runnable action) {
+        lock.run();
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            try {
+                action.run();
+            } finally {
+                unlock.run();
+            }
+            return;
+        }
+
+        //先于其他afterCompletion解锁，异步事件在解锁后才放入通道，通道已满阻塞时不持有锁
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                unlock.run();
+            }
+
+            @Override
+            public int getOrder() {
+                return Ordered.HIGHEST_PRECEDENCE;
+            }
+        });
+        action.run();
+    }
+
+
+    /**
+     * 批量增量同步：一批消息在一个事务中处理
+     *
+     * @param messageList   消息
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public void syncDeltaBatch(List<String> messageList) {
+        log.info("- sync delta message batch, size = {}", messageList.size());
+        log.debug("- delta message batch = {}", messageList);
+
+        List<SyncMessage<Object>> syncMessageList = messageList.stream()
+                .map(etlService::<Object>convertMessage)
+                .collect(Collectors.toList());
+
+        syncMessages(syncMessageList);
+    }
+
+
+    /**
+     * 批量处理已转换的消息：按表分组，每个表内连续的新增/更新消息合并为一次saveOrUpdateDelta，
+     * 连续的删除消息合并为一次deleteDelta，合并时保留消息顺序，同一id以最后一条消息为准。
+     * 各表的锁都持有到事务结束，按表名顺序加锁，避免并发的批次互相等待
+     *
+     * @param messageList   消息
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public <T> void syncMessages(List<SyncMessage<T>> messageList) {
+        Map<String, List<SyncMessage<T>>> tableMap = messageList.stream()
+                .collect(Collectors.groupingBy(SyncMessage::getTable, TreeMap::new, Collectors.toList()));
+
+        tableMap.forEach((table, list) -> {
+            if (!leaderElector.isOwner(table)) {
+                log.info("- table {} is not owned by current node, skip delta batch", table);
+                return;
+            }
+            leaderElector.checkOwner(table);
+
+            DataModel<T> model = syncDataContext.getDataModel(table);
+            List<SyncMessage<T>> mergedList = mergeMessages(model, list);
+
+            List<Object> idList = mergedList.stream()
+                    .flatMap(message -> message.getIdList().stream())
+                    .collect(Collectors.toList());
+
+            StripedLock dataLock = model.getDataLock();
+            int[] stripes = dataLock.stripesOf(idList);
+            lockUntilCompletion(() -> dataLock.lock(stripes), () -> dataLock.unlock(stripes), () -> {
+                markDirty(model, idList);
+                mergedList.forEach(message -> handleSyncMessage(model, message));
+            });
+
+            log.info("- finish sync delta batch for model: {}, message = {}, merged = {}",
+                    table, list.size(), mergedList.size());
+        });
+    }
+
+
+    /**
+     * 合并同一个表的消息
+     *
+     * @param model         模型
+     * @param messageList   消息
+     * @return              合并后的消息
+     */
+    private <T> List<SyncMessage<T>> mergeMessages(DataModel<T> model, List<SyncMessage<T>> messageList) {
+        List<SyncMessage<T>> result = new ArrayList<>();
+
+        Map<Object, T> saveMap = new LinkedHashMap<>();
+        Set<Object> deleteSet = new LinkedHashSet<>();
+
+        for (SyncMessage<T> message : messageList) {
+            String type = message.getType();
+
+            if (DELETE.equals(type)) {
+                if (!saveMap.isEmpty()) {
+                    result.add(toMessage(model, UPDATE, saveMap));
+                    saveMap = new LinkedHashMap<>();
+                }
+                deleteSet.addAll(message.getIdList());
+            } else if (ADD.equals(type) || UPDATE.equals(type)) {
+                if (!deleteSet.isEmpty()) {
+                    result.add(new SyncMessage<>(model.getTable(), DELETE, new ArrayList<>(deleteSet), Collections.emptyList()));
+                    deleteSet = new LinkedHashSet<>();
+                }
+                for (T data : message.getData()) {
+                    Object id = model.getIdOf(data);
+                    saveMap.remove(id);
+                    saveMap.put(id, data);
+                }
+            } else {
+                log.warn("not supported type: {}", message);
+            }
+        }
+
+        if (!saveMap.isEmpty()) {
+            result.add(toMessage(model, UPDATE, saveMap));
+        }
+
+        if (!deleteSet.isEmpty()) {
+            result.add(new SyncMessage<>(model.getTable(), DELETE, new ArrayList<>(deleteSet), Collections.emptyList()));
+        }
+
+        return result;
+    }
+
+
+    private <T> SyncMessage<T> toMessage(DataModel<T> model, String type, Map<Object, T> dataMap) {
+        return new SyncMessage<>(model.getTable(), type, new ArrayList<>(dataMap.keySet()), new ArrayList<>(dataMap.values()));
+    }
+
+    /**
+     * 数据源是否实现了对应的可选接口，并支持该模型
+     */
+    private <T> boolean supportsCursor(DataModel<T> model) {
+        return etlService instanceof CursorEtlService && ((CursorEtlService) etlService).supportsCursor(model);
+    }
+
+
+    private <T> boolean supportsIncremental(DataModel<T> model) {
+        return etlService instanceof IncrementalEtlService && ((IncrementalEtlService) etlService).supportsIncremental(model);
+    }
+
+
+    private <T> boolean supportsChecksum(DataModel<T> model) {
+        return etlService instanceof ChecksumEtlService && ((ChecksumEtlService) etlService).supportsChecksum(model);
+    }
+
+
+    /**
+     * 分批次加载数据到临时表：防止数据量过大内存溢出
+     *
+     * @param model     数据模型
+     */
+    private <T> void loadToTemporaryTable(DataModel<T> model) {
+        int parallelism = model.getPageParallelism() > 0 ? model.getPageParallelism() : pageParallelism;
+
+        if (supportsCursor(model)) {
+            loadByCursor(model, parallelism > 1);
+        } else if (parallelism > 1) {
+            loadPipelined(model, parallelism);
+        } else if (pageStream) {
+            loadStream(model);
+        } else {
+            loadSerial(model);
+        }
+    }
+
+
+    /**
+     * 串行拉取：拉取一页，写入一页
+     *
+     * @param model     数据模型
+     */
+    private <T> void loadSerial(DataModel<T> model) {
+        long totalPage = 1;
+
+        for (int i = 1; i <= totalPage; i++) {
+            PageDto<T> page = extractAndTransform(model, i, pageSize);
+
+            List<T> dataList = page.getRecords();
+            long total = page.getTotal();
+            totalPage = total / pageSize + 1;
+
+            loadToTemporary(dataList, model);
+        }
+    }
+
+
+    /**
+     * 流式拉取：响应中的数据逐条解析并直接绑定到临时表的批量插入语句，不生成整页的list
+     *
+     * @param model     数据模型
+     */
+    private <T> void loadStream(DataModel<T> model) {
+        long totalPage = 1;
+
+        for (int i = 1; i <= totalPage; i++) {
+            int page = i;
+            log.info("- stream page from data center, page = {}, size = {}, table = {}", page, pageSize, model.getTable());
+
+            long total = modelDao.streamToTemp(model, streamBatchSize,
+                    consumer -> etlService.pageStream(model, page, pageSize, consumer));
+            totalPage = total / pageSize + 1;
+        }
+    }
+
+
+    /**
+     * 流水线拉取：第一页确定总页数后，其余页由多个线程并行拉取，
+     * 当前线程（持有事务）从有界队列中取出并写入临时表，
+     * 临时表只是数据集合，页的写入顺序不影响结果
+     *
+     * @param model         数据模型
+     * @param parallelism   并行拉取页数
+     */
+    private <T> void loadPipelined(DataModel<T> model, int parallelism) {
+        PageDto<T> first = extractAndTransform(model, 1, pageSize);
+        long totalPage = first.getTotal() / pageSize + 1;
+        loadToTemporary(first.getRecords(), model);
+
+        if (totalPage <= 1) {
+            return;
+        }
+
+        int queueSize = model.getPageQueueSize() > 0 ? model.getPageQueueSize() : pageQueueSize;
+        AtomicInteger nextPage = new AtomicInteger(2);
+
+        try (PagePipeline<T> pipeline = new PagePipeline<>(model.getTable(), parallelism, queueSize)) {
+            pipeline.start(() -> {
+                int page = nextPage.getAndIncrement();
+                if (page > totalPage) {
+                    return null;
+                }
+                List<T> records = extractAndTransform(model, page, pageSize).getRecords();
+                return records == null ? Collections.emptyList() : records;
+            });
+
+            List<T> dataList;
+            while ((dataList = pipeline.take()) != null) {
+                loadToTemporary(dataList, model);
+            }
+        }
+    }
+
+
+    /**
+     * 游标分页拉取：每页按id游标定位，代价恒定，且抓取过程中数据变化不会导致漏页、重复页。
+     * 游标分页只能顺序拉取，流水线模式下由一个拉取线程预取下一页，与写入临时表重叠执行
+     *
+     * @param model         数据模型
+     * @param pipelined     是否流水线拉取
+     */
+    private <T> void loadByCursor(DataModel<T> model, boolean pipelined) {
+        CursorFetcher<T> fetcher = new CursorFetcher<>(model);
+
+        if (!pipelined) {
+            List<T> dataList;
+            while ((dataList = fetcher.get()) != null) {
+                loadToTemporary(dataList, model);
+            }
+            return;
+        }
+
+        int queueSize = model.getPageQueueSize() > 0 ? model.getPageQueueSize() : pageQueueSize;
+
+        try (PagePipeline<T> pipeline = new PagePipeline<>(model.getTable(), 1, queueSize)) {
+            pipeline.start(fetcher);
+
+            List<T> dataList;
+            while ((dataList = pipeline.take()) != null) {
+                loadToTemporary(dataList, model);
+            }
+        }
+    }
+
+
     /**
      * 加载数据到主表
      *
@@ -109,30 +1017,107 @@ public class SyncDataService {
     private <T> void loadToTable(DataModel<T> model) {
         log.debug("- load data to table for model: {}", model.getTable());
 
-        //新增、修改、删除并将对应的数据返回
-        //这里会存在一个问题：数据量大内存溢出
-        List<T> addList = modelDao.add(model);
-        List<T> deleteList = modelDao.delete(model);
-        UpdateData<T> updateData = modelDao.update(model);
+        //新增（逻辑删除模型先恢复重新出现的数据）、修改、删除，对应的数据分批发射数据变更事件，防止数据量大内存溢出
+        ChangeCollector<T> changes = new ChangeCollector<>(model);
+        int addCount = modelDao.revive(model, addConsumer(model, changes));
+        addCount += modelDao.add(model, addConsumer(model, changes));
+        int deleteCount = modelDao.delete(model, deleteConsumer(model, changes));
+        int updateCount = modelDao.update(model, updateConsumer(model, changes));
+        changes.flush();
 
+        log.info("- load data to table: {}, add = {}, delete = {}, update = {}",
+                model.getTable(), addCount, deleteCount, updateCount);
+    }
+
+
+    /**
+     * 替换主表：临时表中已是完整数据（拉取期间被增量修改的id已修正为主表数据），
+     * 直接与主表交换表名，不比对、不发射数据变更事件。
+     * MySQL的RENAME TABLE是原子操作，读取方不会看到同步了一半的数据；
+     * 交换后临时表中为旧数据，下次同步前清空。
+     * DDL会隐式提交当前事务，失去的事务保证见{@link SyncStrategy#REPLACE}
+     *
+     * @param model     数据模型
+     */
+    private <T> void replaceTable(DataModel<T> model) {
+        leaderElector.checkFenceNow(model.getTable());
+
+        modelDao.swapTemp(model);
+        replicaCache.clear(model);
+
+        log.info("- replace table by temp table: {}", model.getTable());
+    }
+
+
+    /**
+     * 全量同步的变更数据消费者，没有监听时返回null，比对时不查询变更数据。
+     * 每批数据发布一个数据变更事件，ChangeSet由changes收集，一次同步结束时发布
+     */
+    private <T> Consumer<List<T>> addConsumer(DataModel<T> model, ChangeCollector<T> changes) {
+        return model.isObserved(SyncOperation.ADD) ? addList -> publishAdd(model, addList, changes) : null;
+    }
+
+
+    private <T> Consumer<List<T>> deleteConsumer(DataModel<T> model, ChangeCollector<T> changes) {
+        return model.isObserved(SyncOperation.DELETE) ? deleteList -> publishDelete(model, deleteList, changes) : null;
+    }
 
-        //发射数据变更事件
-        if (SyncCheck.notEmpty(addList)) {
-            log.info("- publish data add event, size = {}", addList.size());
-            log.debug("- == add data = {}", addList);
-            publisher.publishEvent(new DataAddEvent<>(addList, model));
+
+    private <T> Consumer<UpdateData<T>> updateConsumer(DataModel<T> model, ChangeCollector<T> changes) {
+        return model.isObserved(SyncOperation.UPDATE) ? updateData -> publishUpdate(model, updateData, changes) : null;
+    }
+
+
+    private <T> void publishAdd(DataModel<T> model, List<T> addList, ChangeCollector<T> changes) {
+        log.info("- publish data add event, size = {}", addList.size());
+        log.debug("- == add data = {}", addList);
+        eventDispatcher.publish(new DataAddEvent<>(addList, model));
+        changes.collect(changeSet -> changeSet.added(addList));
+    }
+
+
+    private <T> void publishDelete(DataModel<T> model, List<T> deleteList, ChangeCollector<T> changes) {
+        log.info("- publish data delete event, size = {}", deleteList.size());
+        log.debug("- == delete data = {}", deleteList);
+        eventDispatcher.publish(new DataDeleteEvent<>(deleteList, model));
+        changes.collect(changeSet -> changeSet.deleted(deleteList));
+    }
+
+
+    private <T> void publishUpdate(DataModel<T> model, UpdateData<T> updateData, ChangeCollector<T> changes) {
+        log.info("- publish data update event, size = {}", updateData.size());
+        log.debug("- == update data = {}", updateData);
+        eventDispatcher.publish(new DataUpdateEvent<>(updateData, model));
+        changes.collect(changeSet -> changeSet.updated(updateData));
+    }
+
+
+    /**
+     * 有ChangeSet监听或开启了本地副本缓存时才构建，构建时按id合并变更前后的数据
+     */
+    private <T> void publishChangeSet(DataModel<T> model, Consumer<ChangeSet<T>> builder) {
+        if (!model.isChangeSetRequired()) {
+            return;
         }
 
-        if (SyncCheck.notEmpty(deleteList)) {
-            log.info("- publish data delete event, size = {}", deleteList.size());
-            log.debug("- == delete data = {}", deleteList);
-            publisher.publishEvent(new DataDeleteEvent<>(deleteList, model));
+        ChangeSet<T> changeSet = new ChangeSet<>(model);
+        builder.accept(changeSet);
+        publishChangeSet(changeSet);
+    }
+
+
+    private <T> void publishChangeSet(ChangeSet<T> changeSet) {
+        if (changeSet.isEmpty()) {
+            return;
         }
 
-        if (updateData.isNotEmpty()) {
-            log.info("- publish data update event, size = {}", updateData.size());
-            log.debug("- == update data = {}", updateData);
-            publisher.publishEvent(new DataUpdateEvent<>(updateData, model));
+        DataModel<T> model = changeSet.getDataModel();
+        log.info("- publish change set, table = {}, size = {}", model.getTable(), changeSet.size());
+        if (model.isCached()) {
+            replicaCache.apply(changeSet);
+        }
+        if (model.isChangeSetObserved()) {
+            eventDispatcher.publish(changeSet);
         }
     }
 
@@ -155,16 +1140,26 @@ public class SyncDataService {
             case UPDATE:
                 SaveOrUpdateResult<T> result = modelDao.saveOrUpdateDelta(model, idList, data);
                 if (result.hasAddList()) {
-                    publisher.publishEvent(new DataAddEvent<>(result.getAddList(), model));
+                    eventDispatcher.publish(new DataAddEvent<>(result.getAddList(), model));
                 }
 
                 if (result.hasUpdateData()) {
-                    publisher.publishEvent(new DataUpdateEvent<>(result.getUpdateData(), model));
+                    eventDispatcher.publish(new DataUpdateEvent<>(result.getUpdateData(), model));
                 }
+
+                publishChangeSet(model, changeSet -> {
+                    if (result.hasAddList()) {
+                        changeSet.added(result.getAddList());
+                    }
+                    if (result.hasUpdateData()) {
+                        changeSet.updated(result.getUpdateData());
+                    }
+                });
                 break;
             case DELETE:
                 List<T> deleteData = modelDao.deleteDelta(model, idList);
-                publisher.publishEvent(new DataDeleteEvent<>(deleteData, model));
+                eventDispatcher.publish(new DataDeleteEvent<>(deleteData, model));
+                publishChangeSet(model, changeSet -> changeSet.deleted(deleteData));
                 break;
             default:
                 log.warn("not supported type: {}", message);
@@ -181,6 +1176,10 @@ public class SyncDataService {
 
         modelDao.createTempTableIfNotExist(table);
 
+        if (incrementalEnabled) {
+            modelDao.createIdTempTableIfNotExist(syncDataContext.getDataModel(table));
+        }
+
         log.info("- finish create temp table...");
     }
 
@@ -227,4 +1226,81 @@ public class SyncDataService {
         return result;
     }
 
+
+    /**
+     * 游标分页拉取函数，返回null表示没有更多数据
+     */
+    @RequiredArgsConstructor
+    private class CursorFetcher<T> implements Supplier<List<T>> {
+
+        private final DataModel<T> model;
+
+        private Object cursor;
+
+        private boolean finished;
+
+        @Override
+        public List<T> get() {
+            if (finished) {
+                return null;
+            }
+
+            log.info("- get page from data center, cursor = {}, size = {}, table = {}", cursor, pageSize, model.getTable());
+            PageDto<T> page = ((CursorEtlService) etlService).pageAfter(model, cursor, pageSize);
+            log.debug("- result = {}", page);
+
+            List<T> records = page.getRecords();
+            cursor = page.getNextCursor();
+            finished = cursor == null || SyncCheck.isEmpty(records);
+
+            return records == null ? Collections.emptyList() : records;
+        }
+    }
+
+
+    /**
+     * 收集一次全量同步（分段同步时一个id范围）中各批新增、更新、删除的变更，合并为一个ChangeSet发布；
+     * 变更数达到changeSetMaxSize时先发布已收集的部分，避免占用过多内存。
+     * 只在一个线程中使用
+     */
+    private class ChangeCollector<T> {
+
+        private final DataModel<T> model;
+
+        private ChangeSet<T> changeSet;
+
+        private ChangeCollector(DataModel<T> model) {
+            this.model = model;
+        }
+
+
+        private void collect(Consumer<ChangeSet<T>> builder) {
+            if (!model.isChangeSetRequired()) {
+                return;
+            }
+
+            if (changeSet == null) {
+                changeSet = new ChangeSet<>(model);
+            }
+            builder.accept(changeSet);
+
+            if (changeSetMaxSize > 0 && changeSet.size() >= changeSetMaxSize) {
+                flush();
+            }
+        }
+
+
+        /**
+         * 发布已收集的变更
+         */
+        private void flush() {
+            if (changeSet == null) {
+                return;
+            }
+
+            ChangeSet<T> current = changeSet;
+            changeSet = null;
+            publishChangeSet(current);
+        }
+    }
 }
@@ -0,0 +1,183 @@
+package com.fly.data.sync.util;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.BeanUtils;
+import org.springframework.jdbc.core.StatementCreatorUtils;
+import org.springframework.util.ClassUtils;
+
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * 属性访问器：在模型创建时为每个字段生成一次getter/setter，避免每行数据都反射调用。
+ * 优先使用LambdaMetafactory将get/set方法生成为Function/BiConsumer，性能接近直接调用；
+ * 没有get/set方法或生成失败（如模型类与本类不在同一个类加载器）时，退化为字段的MethodHandle
+ *
+ * @author guoxiang
+ * @version 1.0.0
+ * @since 2021/11/25
+ */
+@Slf4j
+public class PropertyAccessor {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private final String name;
+
+    private final Class<?> type;
+
+    /**
+     * 对应的jdbc类型，用于参数绑定
+     */
+    private final int sqlType;
+
+    private final Function<Object, Object> getter;
+
+    private final BiConsumer<Object, Object> setter;
+
+
+    private PropertyAccessor(Field field, Function<Object, Object> getter, BiConsumer<Object, Object> setter) {
+        this.name = field.getName();
+        this.type = field.getType();
+        this.sqlType = StatementCreatorUtils.javaTypeToSqlParameterType(type);
+        this.getter = getter;
+        this.setter = setter;
+    }
+
+
+    /**
+     * 生成字段的访问器
+     *
+     * @param beanClass     模型类
+     * @param field         字段
+     * @return              访问器
+     */
+    public static PropertyAccessor of(Class<?> beanClass, Field field) {
+        PropertyDescriptor descriptor = BeanUtils.getPropertyDescriptor(beanClass, field.getName());
+        Method readMethod = descriptor == null ? null : descriptor.getReadMethod();
+        Method writeMethod = descriptor == null ? null : descriptor.getWriteMethod();
+
+        Function<Object, Object> getter = readMethod == null ? null : lambdaGetter(beanClass, readMethod);
+        BiConsumer<Object, Object> setter = writeMethod == null ? null : lambdaSetter(beanClass, writeMethod);
+
+        if (getter == null) {
+            getter = handleGetter(field);
+        }
+        if (setter == null) {
+            setter = handleSetter(field);
+        }
+
+        return new PropertyAccessor(field, getter, setter);
+    }
+
+
+    public Object get(Object target) {
+        return getter.apply(target);
+    }
+
+
+    public void set(Object target, Object value) {
+        setter.accept(target, value);
+    }
+
+
+    public String getName() {
+        return name;
+    }
+
+
+    public Class<?> getType() {
+        return type;
+    }
+
+
+    public int getSqlType() {
+        return sqlType;
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private static Function<Object, Object> lambdaGetter(Class<?> beanClass, Method method) {
+        try {
+            MethodHandle handle = LOOKUP.unreflect(method);
+            Class<?> returnType = ClassUtils.resolvePrimitiveIfNecessary(method.getReturnType());
+
+            CallSite site = LambdaMetafactory.metafactory(LOOKUP, "apply",
+                    MethodType.methodType(Function.class),
+                    MethodType.methodType(Object.class, Object.class),
+                    handle,
+                    MethodType.methodType(returnType, beanClass));
+
+            return (Function<Object, Object>) site.getTarget().invokeExact();
+        } catch (Throwable e) {
+            log.warn("- generate getter failed, use method handle instead: {}", method, e);
+            return null;
+        }
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private static BiConsumer<Object, Object> lambdaSetter(Class<?> beanClass, Method method) {
+        try {
+            MethodHandle handle = LOOKUP.unreflect(method);
+            Class<?> paramType = ClassUtils.resolvePrimitiveIfNecessary(method.getParameterTypes()[0]);
+
+            CallSite site = LambdaMetafactory.metafactory(LOOKUP, "accept",
+                    MethodType.methodType(BiConsumer.class),
+                    MethodType.methodType(void.class, Object.class, Object.class),
+                    handle,
+                    MethodType.methodType(void.class, beanClass, paramType));
+
+            return (BiConsumer<Object, Object>) site.getTarget().invokeExact();
+        } catch (Throwable e) {
+            log.warn("- generate setter failed, use method handle instead: {}", method, e);
+            return null;
+        }
+    }
+
+
+    private static Function<Object, Object> handleGetter(Field field) {
+        MethodHandle handle;
+        try {
+            field.setAccessible(true);
+            handle = LOOKUP.unreflectGetter(field).asType(MethodType.methodType(Object.class, Object.class));
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("cannot access field: " + field, e);
+        }
+
+        return target -> {
+            try {
+                return handle.invokeExact(target);
+            } catch (Throwable e) {
+                throw new IllegalStateException("get field value error: " + field, e);
+            }
+        };
+    }
+
+
+    private static BiConsumer<Object, Object> handleSetter(Field field) {
+        MethodHandle handle;
+        try {
+            field.setAccessible(true);
+            handle = LOOKUP.unreflectSetter(field).asType(MethodType.methodType(void.class, Object.class, Object.class));
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("cannot access field: " + field, e);
+        }
+
+        return (target, value) -> {
+            try {
+                handle.invokeExact(target, value);
+            } catch (Throwable e) {
+                throw new IllegalStateException("set field value error: " + field, e);
+            }
+        };
+    }
+}
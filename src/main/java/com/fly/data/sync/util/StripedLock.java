@@ -0,0 +1,101 @@
+package com.fly.data.sync.util;
+
+import java.util.Collection;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 分段锁：按key的hash将key映射到固定数量的锁上，
+ * 不同分段的key可以并行处理，多个分段总是按下标从小到大加锁，避免死锁
+ *
+ * @author guoxiang
+ * @version 1.0.0
+ * @since 2021/11/15
+ */
+public class StripedLock {
+
+    private final ReentrantLock[] locks;
+
+    public StripedLock(int stripes) {
+        this.locks = new ReentrantLock[stripes];
+        for (int i = 0; i < stripes; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+
+    /**
+     * 锁定key所在的分段
+     *
+     * @param keys  key
+     * @return      锁定的分段下标，用于解锁
+     */
+    public int[] lock(Collection<?> keys) {
+        int[] stripes = stripesOf(keys);
+        lock(stripes);
+        return stripes;
+    }
+
+
+    /**
+     * key所在的分段下标，从小到大排列
+     *
+     * @param keys  key
+     * @return      分段下标
+     */
+    public int[] stripesOf(Collection<?> keys) {
+        TreeSet<Integer> stripeSet = new TreeSet<>();
+        keys.forEach(key -> stripeSet.add(stripeOf(key)));
+        return stripeSet.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+
+    /**
+     * 按下标从小到大锁定分段
+     *
+     * @param stripes   {@link #stripesOf(Collection)}返回的分段下标
+     */
+    public void lock(int[] stripes) {
+        for (int stripe : stripes) {
+            locks[stripe].lock();
+        }
+    }
+
+
+    /**
+     * 解锁分段
+     *
+     * @param stripes   {@link #lock(Collection)}返回的分段下标
+     */
+    public void unlock(int[] stripes) {
+        for (int i = stripes.length - 1; i >= 0; i--) {
+            locks[stripes[i]].unlock();
+        }
+    }
+
+
+    /**
+     * 锁定全部分段
+     */
+    public void lockAll() {
+        for (ReentrantLock lock : locks) {
+            lock.lock();
+        }
+    }
+
+
+    /**
+     * 解锁全部分段
+     */
+    public void unlockAll() {
+        for (int i = locks.length - 1; i >= 0; i--) {
+            locks[i].unlock();
+        }
+    }
+
+
+    private int stripeOf(Object key) {
+        return (Objects.hashCode(key) & Integer.MAX_VALUE) % locks.length;
+    }
+}
@@ -0,0 +1,98 @@
+package com.fly.data.sync.util;
+
+import com.fly.data.sync.entity.IdRange;
+import com.fly.data.sync.entity.RangeChecksum;
+import lombok.experimental.UtilityClass;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Date;
+import java.util.zip.CRC32;
+
+/**
+ * 范围校验和，数据源与本地必须使用相同的算法：
+ * 每条数据的hash为 crc32(id + "#" + 更新时间的epoch秒)，更新时间为空时为 crc32(id + "#null")，
+ * 范围的校验和为范围内所有数据hash之和（long溢出回绕），与数据顺序无关。
+ * 更新时间只取到秒，与同步时json的时间格式yyyy-MM-dd HH:mm:ss一致；
+ * epoch秒把更新时间的字面值当作UTC时间换算，与JVM和数据库的时区无关，
+ * 数据库中的算法见{@link com.fly.data.sync.constant.SyncSql#QUERY_RANGE_CHECKSUM_SQL}
+ *
+ * @author guoxiang
+ * @version 1.0.0
+ * @since 2021/11/8
+ */
+@UtilityClass
+public class SyncChecksum {
+
+    /**
+     * 计算单条数据的hash
+     *
+     * @param id            id
+     * @param updateTime    更新时间
+     * @return              hash
+     */
+    public static long rowHash(Object id, Object updateTime) {
+        CRC32 crc32 = new CRC32();
+        String value = id + "#" + toEpochSecond(updateTime);
+        crc32.update(value.getBytes(StandardCharsets.UTF_8));
+        return crc32.getValue();
+    }
+
+    /**
+     * 创建空的范围校验和，用于累加
+     *
+     * @param range 范围
+     * @return      校验和
+     */
+    public static RangeChecksum empty(IdRange range) {
+        return new RangeChecksum(range.getFrom(), range.getTo(), 0, 0, null, null);
+    }
+
+    /**
+     * 将一条数据累加到范围校验和
+     *
+     * @param checksum      范围校验和
+     * @param id            id
+     * @param updateTime    更新时间
+     */
+    public static void add(RangeChecksum checksum, long id, Object updateTime) {
+        checksum.setCount(checksum.getCount() + 1);
+        checksum.setChecksum(checksum.getChecksum() + rowHash(id, updateTime));
+        checksum.setMinId(checksum.getMinId() == null ? id : Math.min(checksum.getMinId(), id));
+        checksum.setMaxId(checksum.getMaxId() == null ? id : Math.max(checksum.getMaxId(), id));
+    }
+
+    /**
+     * 数据库中求和的结果（不溢出的decimal）回绕为long，与{@link #add}的累加结果一致
+     *
+     * @param sum   hash之和，没有数据时为null
+     * @return      校验和
+     */
+    public static long wrap(BigDecimal sum) {
+        return sum == null ? 0 : sum.longValue();
+    }
+
+    private static String toEpochSecond(Object time) {
+        if (time == null) {
+            return "null";
+        }
+
+        if (time instanceof Date) {
+            LocalDateTime localDateTime = new Timestamp(((Date) time).getTime()).toLocalDateTime();
+            return String.valueOf(localDateTime.toEpochSecond(ZoneOffset.UTC));
+        }
+
+        if (time instanceof LocalDateTime) {
+            return String.valueOf(((LocalDateTime) time).toEpochSecond(ZoneOffset.UTC));
+        }
+
+        if (time instanceof Number) {
+            return String.valueOf(((Number) time).longValue());
+        }
+
+        return time.toString();
+    }
+}
@@ -1,5 +1,6 @@
 package com.fly.data.sync.util;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.JavaType;
@@ -16,11 +17,14 @@ import lombok.SneakyThrows;
 import lombok.experimental.UtilityClass;
 import org.springframework.core.ParameterizedTypeReference;
 
+import java.io.InputStream;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.sql.Timestamp;
 import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
 import java.util.Collections;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -90,6 +94,77 @@ public class SyncJsonUtils {
         return list.stream().map(m -> MAPPER.convertValue(m, modelClass)).collect(Collectors.toList());
     }
 
+    /**
+     * 创建流式解析器
+     *
+     * @param in    输入流
+     * @return      parser
+     */
+    @SneakyThrows
+    public static JsonParser createParser(InputStream in) {
+        return MAPPER.getFactory().createParser(in);
+    }
+
+    /**
+     * 从流式解析器的当前位置读取一个对象
+     *
+     * @param parser    parser
+     * @param type      类型
+     * @param <T>       泛型
+     * @return          对象
+     */
+    @SneakyThrows
+    public static <T> T readValue(JsonParser parser, Class<T> type) {
+        return MAPPER.readValue(parser, type);
+    }
+
+    /**
+     * 将时间格式化为yyyy-MM-dd HH:mm:ss，非时间类型直接toString
+     *
+     * @param time  时间
+     * @return      时间字符串
+     */
+    public static String formatTime(Object time) {
+        if (time == null) {
+            return null;
+        }
+
+        if (time instanceof Date) {
+            time = new Timestamp(((Date) time).getTime()).toLocalDateTime();
+        }
+
+        if (time instanceof LocalDateTime) {
+            return DateTimeFormatter.ofPattern(DATE_TIME_PATTERN).format((LocalDateTime) time);
+        }
+
+        return time.toString();
+    }
+
+    /**
+     * 解析formatTime格式化的时间
+     *
+     * @param time  时间字符串
+     * @param type  时间类型
+     * @return      时间，不支持的类型返回原字符串
+     */
+    public static Object parseTime(String time, Class<?> type) {
+        if (time == null) {
+            return null;
+        }
+
+        if (type == LocalDateTime.class) {
+            return LocalDateTime.parse(time, DateTimeFormatter.ofPattern(DATE_TIME_PATTERN));
+        }
+        if (Date.class.isAssignableFrom(type)) {
+            return Timestamp.valueOf(LocalDateTime.parse(time, DateTimeFormatter.ofPattern(DATE_TIME_PATTERN)));
+        }
+        if (type == Long.class || type == long.class) {
+            return Long.valueOf(time);
+        }
+
+        return time;
+    }
+
     @SneakyThrows
     public static Map<String, Object> toMap(String json) {
         if (isBlank(json)) {
@@ -0,0 +1,64 @@
+package com.fly.data.sync.dao;
+
+import com.fly.data.sync.annotation.SyncId;
+import com.fly.data.sync.annotation.SyncTable;
+import com.fly.data.sync.annotation.SyncUpdateTime;
+import com.fly.data.sync.entity.DataModel;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author guoxiang
+ * @version 1.0.0
+ * @since 2021/12/13
+ */
+class BulkTextTest {
+
+    private static final LocalDateTime TIME = LocalDateTime.of(2021, 12, 1, 10, 0);
+
+    private final DataModel<Price> model = new DataModel<>(Price.class);
+
+
+    @Test
+    void bigDecimalIsWrittenWithoutExponent() {
+        Price price = new Price(1L, new BigDecimal("1E+3"), TIME);
+
+        assertThat(BulkText.toTabText(model, Collections.singletonList(price), false))
+                .isEqualTo("1\t1000\t2021-12-01 10:00:00.000\n");
+        assertThat(BulkText.toCsvText(model, Collections.singletonList(price)))
+                .endsWith("\"1\",\"1000\",\"2021-12-01 10:00:00.000\"\n");
+    }
+
+
+    @Test
+    void nullIsWrittenAsMarker() {
+        Price price = new Price(2L, null, TIME);
+
+        assertThat(BulkText.toTabText(model, Collections.singletonList(price), false))
+                .isEqualTo("2\t\\N\t2021-12-01 10:00:00.000\n");
+    }
+
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @SyncTable("test_price")
+    public static class Price {
+
+        @SyncId
+        private Long id;
+
+        private BigDecimal amount;
+
+        @SyncUpdateTime
+        private LocalDateTime updateTime;
+    }
+}
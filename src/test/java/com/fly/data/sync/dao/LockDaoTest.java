@@ -0,0 +1,110 @@
+package com.fly.data.sync.dao;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author guoxiang
+ * @version 1.0.0
+ * @since 2021/12/13
+ */
+class LockDaoTest {
+
+    private static final String LOCK = "sync.data.leader";
+
+    private static final long LEASE = 60_000;
+
+    private static final long MARGIN = 2_000;
+
+    private JdbcTemplate jdbcTemplate;
+
+    private TransactionTemplate transactionTemplate;
+
+    private LockDao lockDao;
+
+
+    @BeforeEach
+    void setUp() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(
+                "jdbc:h2:mem:lock;MODE=MySQL;DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=10000");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        lockDao = new LockDao(jdbcTemplate);
+        lockDao.createLockTableIfNotExist();
+    }
+
+
+    @AfterEach
+    void tearDown() {
+        jdbcTemplate.execute("drop table sync_data_lock");
+    }
+
+
+    @Test
+    void fenceIsRejectedAfterTakeOver() {
+        long fenceA = lockDao.tryAcquire(LOCK, "a", LEASE);
+        assertThat(lockDao.tryAcquire(LOCK, "b", LEASE)).isEqualTo(-1);
+
+        expire();
+        long fenceB = lockDao.tryAcquire(LOCK, "b", LEASE);
+
+        assertThat(fenceB).isEqualTo(fenceA + 1);
+        assertThat(lockDao.checkFence(LOCK, "a", fenceA, MARGIN)).isFalse();
+        assertThat(lockDao.checkFence(LOCK, "b", fenceB, MARGIN)).isTrue();
+    }
+
+
+    @Test
+    void fenceIsRejectedAfterLeaseExpiresInDatabase() {
+        long fence = lockDao.tryAcquire(LOCK, "a", LEASE);
+        assertThat(lockDao.listOwner("sync.data.")).containsExactly("a");
+
+        expire();
+
+        assertThat(lockDao.checkFence(LOCK, "a", fence, MARGIN)).isFalse();
+        assertThat(lockDao.listOwner("sync.data.")).isEmpty();
+    }
+
+
+    @Test
+    void fenceIsRejectedWhenLeaseEndsWithinMargin() {
+        long fence = lockDao.tryAcquire(LOCK, "a", LEASE);
+
+        assertThat(lockDao.checkFence(LOCK, "a", fence, MARGIN)).isTrue();
+        assertThat(lockDao.checkFence(LOCK, "a", fence, 2 * LEASE)).isFalse();
+    }
+
+
+    @Test
+    void fenceCheckDoesNotLockRow() {
+        long fence = lockDao.tryAcquire(LOCK, "a", LEASE);
+
+        //校验通过的事务提交前，其他事务（如续约）不需要等待
+        transactionTemplate.execute(status -> {
+            assertThat(lockDao.checkFence(LOCK, "a", fence, MARGIN)).isTrue();
+
+            CompletableFuture<Boolean> renew = CompletableFuture.supplyAsync(() -> lockDao.renew(LOCK, "a", fence, LEASE));
+            try {
+                assertThat(renew.get(5, TimeUnit.SECONDS)).isTrue();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+            return null;
+        });
+    }
+
+
+    private void expire() {
+        jdbcTemplate.update("update sync_data_lock set expire_at = expire_at - ? where lock_name = ?", 2 * LEASE, LOCK);
+    }
+}
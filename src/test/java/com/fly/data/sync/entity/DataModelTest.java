@@ -0,0 +1,43 @@
+package com.fly.data.sync.entity;
+
+import com.fly.data.sync.annotation.SyncId;
+import com.fly.data.sync.annotation.SyncTable;
+import com.fly.data.sync.annotation.SyncTombstone;
+import com.fly.data.sync.annotation.SyncUpdateTime;
+import com.fly.data.sync.constant.SyncStrategy;
+import lombok.Data;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * @author guoxiang
+ * @version 1.0.0
+ * @since 2021/12/13
+ */
+class DataModelTest {
+
+    @Test
+    void replaceWithTombstoneIsRejected() {
+        assertThatThrownBy(() -> new DataModel<>(ReplacedTombstone.class))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("REPLACE");
+    }
+
+
+    @Data
+    @SyncTable(value = "test_replaced", strategy = SyncStrategy.REPLACE)
+    public static class ReplacedTombstone {
+
+        @SyncId
+        private Long id;
+
+        @SyncTombstone
+        private Integer deleted;
+
+        @SyncUpdateTime
+        private LocalDateTime updateTime;
+    }
+}
@@ -0,0 +1,32 @@
+package com.fly.data.sync.model;
+
+import com.fly.data.sync.annotation.SyncId;
+import com.fly.data.sync.annotation.SyncTable;
+import com.fly.data.sync.annotation.SyncUpdateTime;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * 测试用的同步模型
+ *
+ * @author guoxiang
+ * @version 1.0.0
+ * @since 2021/12/13
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@SyncTable("test_user")
+public class TestUser {
+
+    @SyncId
+    private Long id;
+
+    private String name;
+
+    @SyncUpdateTime
+    private LocalDateTime updateTime;
+}
@@ -0,0 +1,160 @@
+package com.fly.data.sync.service;
+
+import com.fly.data.sync.config.SyncDataContext;
+import com.fly.data.sync.entity.DataModel;
+import com.fly.data.sync.entity.SyncMessage;
+import com.fly.data.sync.model.TestUser;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.fly.data.sync.constant.SyncConstant.*;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * @author guoxiang
+ * @version 1.0.0
+ * @since 2021/12/13
+ */
+class DeltaCoalescerTest {
+
+    private static final LocalDateTime TIME = LocalDateTime.of(2021, 12, 1, 10, 0);
+
+    private final EtlService etlService = mock(EtlService.class);
+
+    private final SyncDataService syncDataService = mock(SyncDataService.class);
+
+    private final SyncDataContext syncDataContext = mock(SyncDataContext.class);
+
+    private final DataModel<TestUser> model = new DataModel<>(TestUser.class);
+
+    private final List<SyncMessage<Object>> submitList = new ArrayList<>();
+
+    private DeltaCoalescer coalescer;
+
+
+    @BeforeEach
+    void setUp() {
+        doReturn(model).when(syncDataContext).getDataModel(model.getTable());
+        when(etlService.convertMessage(anyString())).thenAnswer(invocation ->
+                submitList.get(Integer.parseInt(invocation.getArgument(0))));
+        coalescer = new DeltaCoalescer(etlService, syncDataService, syncDataContext);
+        ReflectionTestUtils.setField(coalescer, "retryTimes", 3);
+    }
+
+
+    @Test
+    void deleteCancelsUpsertWithJsonIntegerId() {
+        submit(UPDATE, Collections.singletonList(1L), user(1L, "a", 0));
+        submit(DELETE, Collections.singletonList(1));
+
+        List<SyncMessage<Object>> flushed = flush();
+
+        assertThat(flushed).hasSize(1);
+        assertThat(flushed.get(0).getType()).isEqualTo(DELETE);
+        assertThat(flushed.get(0).getIdList()).containsExactly(1L);
+    }
+
+
+    @Test
+    void upsertKeepsLatestUpdateTime() {
+        submit(UPDATE, Arrays.asList(1L, 2L), user(1L, "new", 2), user(2L, "b", 0));
+        submit(UPDATE, Collections.singletonList(1L), user(1L, "stale", 1));
+        submit(ADD, Collections.singletonList(3L), user(3L, "c", 0));
+
+        List<SyncMessage<Object>> flushed = flush();
+
+        assertThat(flushed).hasSize(1);
+        assertThat(flushed.get(0).getIdList()).containsExactly(1L, 2L, 3L);
+        assertThat(flushed.get(0).getData()).extracting("name").containsExactly("new", "b", "c");
+    }
+
+
+    @Test
+    void failedWindowIsRetriedWithLaterMessages() {
+        //整个窗口和按表写入都失败
+        doThrow(new IllegalStateException("db down")).doThrow(new IllegalStateException("db down")).doNothing()
+                .when(syncDataService).syncMessages(anyList());
+
+        submit(UPDATE, Arrays.asList(1L, 2L), user(1L, "a", 1), user(2L, "b", 0));
+        coalescer.flush();
+
+        submit(UPDATE, Collections.singletonList(1L), user(1L, "stale", 0));
+        submit(DELETE, Collections.singletonList(2));
+
+        List<SyncMessage<Object>> flushed = flush();
+
+        assertThat(flushed).hasSize(2);
+        assertThat(flushed.get(0).getType()).isEqualTo(UPDATE);
+        assertThat(flushed.get(0).getData()).extracting("name").containsExactly("a");
+        assertThat(flushed.get(1).getType()).isEqualTo(DELETE);
+        assertThat(flushed.get(1).getIdList()).containsExactly(2L);
+    }
+
+
+    @Test
+    void poisonRowIsParkedAfterRetries() {
+        ReflectionTestUtils.setField(coalescer, "retryTimes", 1);
+        List<Object> syncedIdList = new ArrayList<>();
+        doAnswer(invocation -> {
+            List<SyncMessage<Object>> messageList = invocation.getArgument(0);
+            if (messageList.stream().anyMatch(m -> m.getData().stream().anyMatch(d -> "poison".equals(((TestUser) d).getName())))) {
+                throw new IllegalStateException("constraint violation");
+            }
+            messageList.forEach(m -> syncedIdList.addAll(m.getIdList()));
+            return null;
+        }).when(syncDataService).syncMessages(anyList());
+
+        submit(UPDATE, Arrays.asList(1L, 2L), user(1L, "poison", 0), user(2L, "b", 0));
+        coalescer.flush();
+        assertThat(syncedIdList).isEmpty();
+
+        //重试次数耗尽后逐个id写入，失败的放入死信，不再随窗口重试
+        coalescer.flush();
+        assertThat(syncedIdList).containsExactly(2L);
+        assertThat(coalescer.getDeadLetterCount()).isEqualTo(1);
+
+        clearInvocations(syncDataService);
+        coalescer.flush();
+        verify(syncDataService, never()).syncMessages(anyList());
+
+        //死信中的id再次提交时取回窗口，与新消息合并
+        submit(UPDATE, Collections.singletonList(1L), user(1L, "fixed", 1));
+        coalescer.flush();
+        assertThat(syncedIdList).containsExactly(2L, 1L);
+        assertThat(coalescer.getDeadLetterCount()).isZero();
+    }
+
+
+    private void submit(String type, List<Object> idList, TestUser... data) {
+        submitList.add(new SyncMessage<>(model.getTable(), type, new ArrayList<>(idList), new ArrayList<Object>(Arrays.asList(data))));
+        coalescer.submit(String.valueOf(submitList.size() - 1));
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private List<SyncMessage<Object>> flush() {
+        clearInvocations(syncDataService);
+        coalescer.flush();
+
+        ArgumentCaptor<List<SyncMessage<Object>>> captor = ArgumentCaptor.forClass(List.class);
+        verify(syncDataService).syncMessages(captor.capture());
+        return captor.getValue();
+    }
+
+
+    private static TestUser user(Long id, String name, int minutes) {
+        return new TestUser(id, name, TIME.plusMinutes(minutes));
+    }
+}
@@ -0,0 +1,158 @@
+package com.fly.data.sync.service;
+
+import com.fly.data.sync.config.SyncDataContext;
+import com.fly.data.sync.entity.DataModel;
+import com.fly.data.sync.entity.SyncMessage;
+import com.fly.data.sync.model.TestUser;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static com.fly.data.sync.constant.SyncConstant.ADD;
+import static com.fly.data.sync.constant.SyncConstant.DELETE;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+/**
+ * @author guoxiang
+ * @version 1.0.0
+ * @since 2021/12/13
+ */
+class DeltaDispatcherTest {
+
+    private final SyncDataService syncDataService = mock(SyncDataService.class);
+
+    private final SyncDataContext syncDataContext = mock(SyncDataContext.class);
+
+    private final DataModel<TestUser> model = new DataModel<>(TestUser.class);
+
+    private final List<Object> syncedIdList = Collections.synchronizedList(new ArrayList<>());
+
+    private DeltaDispatcher dispatcher;
+
+
+    @BeforeEach
+    void setUp() {
+        doReturn(model).when(syncDataContext).getDataModel(model.getTable());
+
+        dispatcher = new DeltaDispatcher(mock(EtlService.class), syncDataService, syncDataContext);
+        ReflectionTestUtils.setField(dispatcher, "laneSize", 1);
+        ReflectionTestUtils.setField(dispatcher, "laneCapacity", 100);
+        ReflectionTestUtils.setField(dispatcher, "batchSize", 100);
+        ReflectionTestUtils.setField(dispatcher, "retryTimes", 2);
+        ReflectionTestUtils.setField(dispatcher, "retryInterval", 1L);
+        dispatcher.init();
+    }
+
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        dispatcher.destroy();
+    }
+
+
+    @Test
+    void transientFailureIsRetried() throws InterruptedException {
+        AtomicInteger attempts = new AtomicInteger();
+        doAnswer(invocation -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new IllegalStateException("deadlock");
+            }
+            return record(invocation.getArgument(0));
+        }).when(syncDataService).syncMessages(anyList());
+
+        dispatcher.dispatch(delete(1L));
+
+        await(() -> syncedIdList.size() == 1);
+        assertThat(syncedIdList).containsExactly(1L);
+        assertThat(attempts).hasValue(3);
+        assertThat(dispatcher.getDeadLetterCount()).isZero();
+    }
+
+
+    @Test
+    void poisonMessageIsParkedAndOthersApplied() throws InterruptedException {
+        doAnswer(invocation -> {
+            List<SyncMessage<Object>> messageList = invocation.getArgument(0);
+            if (messageList.stream().anyMatch(m -> m.getIdList().contains(2L))) {
+                throw new IllegalStateException("bad row");
+            }
+            return record(messageList);
+        }).when(syncDataService).syncMessages(anyList());
+
+        dispatcher.dispatch(delete(1L));
+        dispatcher.dispatch(delete(2L));
+        dispatcher.dispatch(delete(3L));
+
+        await(() -> syncedIdList.size() == 2 && dispatcher.getDeadLetterCount() == 1);
+        assertThat(syncedIdList).containsExactly(1L, 3L);
+
+        doAnswer(invocation -> record(invocation.getArgument(0))).when(syncDataService).syncMessages(anyList());
+
+        assertThat(dispatcher.redeliverDeadLetters()).isEqualTo(1);
+        await(() -> syncedIdList.size() == 3);
+        assertThat(syncedIdList).containsExactly(1L, 3L, 2L);
+        assertThat(dispatcher.getDeadLetterCount()).isZero();
+    }
+
+
+    @Test
+    void laterMessageOfParkedIdWaitsForRedelivery() throws InterruptedException {
+        AtomicBoolean failing = new AtomicBoolean(true);
+        List<String> syncedList = Collections.synchronizedList(new ArrayList<>());
+        doAnswer(invocation -> {
+            List<SyncMessage<Object>> messageList = invocation.getArgument(0);
+            if (failing.get() && messageList.stream().anyMatch(m -> m.getIdList().contains(2L))) {
+                throw new IllegalStateException("database down");
+            }
+            messageList.forEach(m -> m.getIdList().forEach(id -> syncedList.add(m.getType() + ":" + id)));
+            return null;
+        }).when(syncDataService).syncMessages(anyList());
+
+        dispatcher.dispatch(delete(2L));
+        await(() -> dispatcher.getDeadLetterCount() == 1);
+
+        //id 2有消息在死信中，之后的新增不写入，也放入死信；其他id不受影响
+        dispatcher.dispatch(new SyncMessage<>(model.getTable(), ADD, new ArrayList<>(Collections.singletonList(2L)),
+                new ArrayList<>(Collections.singletonList(new TestUser(2L, "b", null)))));
+        dispatcher.dispatch(delete(3L));
+        await(() -> syncedList.size() == 1 && dispatcher.getDeadLetterCount() == 2);
+        assertThat(syncedList).containsExactly(DELETE + ":3");
+
+        failing.set(false);
+        assertThat(dispatcher.redeliverDeadLetters()).isEqualTo(2);
+        await(() -> syncedList.size() == 3);
+        assertThat(syncedList).containsExactly(DELETE + ":3", DELETE + ":2", ADD + ":2");
+        assertThat(dispatcher.getDeadLetterCount()).isZero();
+    }
+
+
+    private Object record(List<SyncMessage<Object>> messageList) {
+        messageList.forEach(message -> syncedIdList.addAll(message.getIdList()));
+        return null;
+    }
+
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        for (int i = 0; i < 500 && !condition.getAsBoolean(); i++) {
+            Thread.sleep(10);
+        }
+        assertThat(condition.getAsBoolean()).isTrue();
+    }
+
+
+    private SyncMessage<Object> delete(Long... ids) {
+        List<Object> idList = new ArrayList<>();
+        Collections.addAll(idList, ids);
+        return new SyncMessage<>(model.getTable(), DELETE, idList, new ArrayList<>());
+    }
+}
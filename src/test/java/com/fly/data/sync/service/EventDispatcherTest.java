@@ -0,0 +1,170 @@
+package com.fly.data.sync.service;
+
+import com.fly.data.sync.config.SyncDataContext;
+import com.fly.data.sync.constant.OverflowPolicy;
+import com.fly.data.sync.entity.DataModel;
+import com.fly.data.sync.event.DataAddEvent;
+import com.fly.data.sync.event.DataBaseEvent;
+import com.fly.data.sync.model.TestUser;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.PayloadApplicationEvent;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static com.fly.data.sync.service.EventDispatcher.DROP_LISTENER_ERROR;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * @author guoxiang
+ * @version 1.0.0
+ * @since 2021/12/13
+ */
+class EventDispatcherTest {
+
+    private static final LocalDateTime TIME = LocalDateTime.of(2021, 12, 1, 10, 0);
+
+    private final SyncDataContext syncDataContext = mock(SyncDataContext.class);
+
+    private final DataModel<TestUser> model = new DataModel<>(TestUser.class);
+
+    private final List<Long> handledIdList = new CopyOnWriteArrayList<>();
+
+    private EventDispatcher dispatcher;
+
+    @TempDir
+    Path spillDir;
+
+
+    @BeforeEach
+    void setUp() {
+        doReturn(model).when(syncDataContext).getDataModel(model.getTable());
+        dispatcher = newDispatcher(OverflowPolicy.SPILL);
+    }
+
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        dispatcher.destroy();
+    }
+
+
+    @Test
+    void spilledEventsKeepOrder() throws InterruptedException {
+        CountDownLatch blocked = new CountDownLatch(1);
+        listen(event -> {
+            try {
+                blocked.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            record(event);
+        });
+
+        //通道长度为2，消费线程阻塞时后续事件写入溢出文件
+        LongStream.rangeClosed(1, 10).forEach(this::publish);
+        blocked.countDown();
+
+        await(() -> handledIdList.size() == 10);
+        assertThat(handledIdList).containsExactlyElementsOf(LongStream.rangeClosed(1, 10).boxed().collect(Collectors.toList()));
+    }
+
+
+    @Test
+    void blockTimeoutSpillsAndKeepsOrder() throws InterruptedException {
+        dispatcher.destroy();
+        dispatcher = newDispatcher(OverflowPolicy.BLOCK);
+
+        CountDownLatch blocked = new CountDownLatch(1);
+        listen(event -> {
+            try {
+                blocked.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            record(event);
+        });
+
+        //消费线程阻塞时，发布线程只等待block-timeout，之后写入溢出文件
+        long start = System.currentTimeMillis();
+        LongStream.rangeClosed(1, 10).forEach(this::publish);
+        assertThat(System.currentTimeMillis() - start).isLessThan(5000);
+        blocked.countDown();
+
+        await(() -> handledIdList.size() == 10);
+        assertThat(handledIdList).containsExactlyElementsOf(LongStream.rangeClosed(1, 10).boxed().collect(Collectors.toList()));
+    }
+
+
+    @Test
+    void listenerErrorIsCountedAsDropped() throws InterruptedException {
+        listen(event -> {
+            if (event.getData().get(0).getId() == 2L) {
+                throw new IllegalStateException("bad listener");
+            }
+            record(event);
+        });
+
+        LongStream.rangeClosed(1, 3).forEach(this::publish);
+
+        await(() -> handledIdList.size() == 2);
+        assertThat(handledIdList).containsExactly(1L, 3L);
+        assertThat(dispatcher.getDroppedCount(DROP_LISTENER_ERROR)).isEqualTo(1);
+    }
+
+
+    private EventDispatcher newDispatcher(OverflowPolicy overflowPolicy) {
+        EventDispatcher eventDispatcher = new EventDispatcher(mock(ApplicationEventPublisher.class), syncDataContext);
+        ReflectionTestUtils.setField(eventDispatcher, "async", true);
+        ReflectionTestUtils.setField(eventDispatcher, "parallelism", 1);
+        ReflectionTestUtils.setField(eventDispatcher, "capacity", 2);
+        ReflectionTestUtils.setField(eventDispatcher, "overflowPolicy", overflowPolicy);
+        ReflectionTestUtils.setField(eventDispatcher, "blockTimeout", 10L);
+        ReflectionTestUtils.setField(eventDispatcher, "spillDir", spillDir.toString());
+        eventDispatcher.init();
+        return eventDispatcher;
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private void listen(Consumer<DataBaseEvent<TestUser>> handler) {
+        ApplicationListener<PayloadApplicationEvent<DataBaseEvent<TestUser>>> listener =
+                event -> handler.accept(event.getPayload());
+        when(syncDataContext.getDataEventListeners(any())).thenReturn(Collections.singletonList(listener));
+    }
+
+
+    private void record(DataBaseEvent<TestUser> event) {
+        event.getData().forEach(user -> handledIdList.add(user.getId()));
+    }
+
+
+    private void publish(long id) {
+        dispatcher.publish(new DataAddEvent<>(Collections.singletonList(new TestUser(id, "user" + id, TIME)), model));
+    }
+
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        for (int i = 0; i < 500 && !condition.getAsBoolean(); i++) {
+            Thread.sleep(10);
+        }
+        assertThat(condition.getAsBoolean()).isTrue();
+    }
+}
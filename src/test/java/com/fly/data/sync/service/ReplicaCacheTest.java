@@ -0,0 +1,126 @@
+package com.fly.data.sync.service;
+
+import com.fly.data.sync.annotation.SyncId;
+import com.fly.data.sync.annotation.SyncTable;
+import com.fly.data.sync.annotation.SyncUpdateTime;
+import com.fly.data.sync.config.SyncDataContext;
+import com.fly.data.sync.dao.ModelDao;
+import com.fly.data.sync.entity.DataModel;
+import com.fly.data.sync.entity.SaveOrUpdateResult;
+import com.fly.data.sync.event.ChangeSet;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.time.LocalDateTime;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+/**
+ * @author guoxiang
+ * @version 1.0.0
+ * @since 2021/12/13
+ */
+class ReplicaCacheTest {
+
+    private static final LocalDateTime TIME = LocalDateTime.of(2021, 12, 1, 10, 0);
+
+    private final DataModel<CachedUser> model = new DataModel<>(CachedUser.class);
+
+    private JdbcTemplate jdbcTemplate;
+
+    private ModelDao modelDao;
+
+    private ReplicaCache replicaCache;
+
+
+    @BeforeEach
+    void setUp() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource("jdbc:h2:mem:cache;MODE=MySQL;DB_CLOSE_DELAY=-1");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("create table cached_user (id bigint primary key, name varchar(64), update_time timestamp)");
+        modelDao = new ModelDao(jdbcTemplate, new NamedParameterJdbcTemplate(dataSource));
+
+        SyncDataContext syncDataContext = mock(SyncDataContext.class);
+        doReturn(model).when(syncDataContext).getDataModel(model.getTable());
+        replicaCache = new ReplicaCache(modelDao, syncDataContext);
+    }
+
+
+    @AfterEach
+    void tearDown() {
+        jdbcTemplate.execute("drop table cached_user");
+    }
+
+
+    @Test
+    void staleUpdateDoesNotOverwriteCache() {
+        save(new CachedUser(1L, "new", TIME.plusMinutes(1)));
+        assertThat(this.<CachedUser>get(1L).getName()).isEqualTo("new");
+
+        //乱序到达的旧消息：数据库按更新时间拒绝写入，ChangeSet中仍是旧数据
+        save(new CachedUser(1L, "old", TIME));
+
+        assertThat(jdbcTemplate.queryForObject("select name from cached_user where id = 1", String.class)).isEqualTo("new");
+        assertThat(this.<CachedUser>get(1L).getName()).isEqualTo("new");
+    }
+
+
+    @Test
+    void appliedUpdateIsReloaded() {
+        save(new CachedUser(1L, "a", TIME));
+        assertThat(this.<CachedUser>get(1L).getName()).isEqualTo("a");
+
+        save(new CachedUser(1L, "b", TIME.plusMinutes(1)));
+
+        assertThat(this.<CachedUser>get(1L).getName()).isEqualTo("b");
+    }
+
+
+    /**
+     * 按增量同步的方式写入并更新缓存
+     */
+    private void save(CachedUser user) {
+        SaveOrUpdateResult<CachedUser> result = modelDao.saveOrUpdateDelta(model,
+                Collections.singletonList(user.getId()), Collections.singletonList(user));
+
+        ChangeSet<CachedUser> changeSet = new ChangeSet<>(model);
+        if (result.hasAddList()) {
+            changeSet.added(result.getAddList());
+        }
+        if (result.hasUpdateData()) {
+            changeSet.updated(result.getUpdateData());
+        }
+        replicaCache.apply(changeSet);
+    }
+
+
+    private <T> T get(Object id) {
+        return replicaCache.get(model.getTable(), id);
+    }
+
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @SyncTable(value = "cached_user", cacheSize = 10)
+    public static class CachedUser {
+
+        @SyncId
+        private Long id;
+
+        private String name;
+
+        @SyncUpdateTime
+        private LocalDateTime updateTime;
+    }
+}
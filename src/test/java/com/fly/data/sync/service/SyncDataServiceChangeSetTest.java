@@ -0,0 +1,98 @@
+package com.fly.data.sync.service;
+
+import com.fly.data.sync.config.SyncDataContext;
+import com.fly.data.sync.constant.SyncOperation;
+import com.fly.data.sync.dao.ModelDao;
+import com.fly.data.sync.dao.SyncStateDao;
+import com.fly.data.sync.entity.DataModel;
+import com.fly.data.sync.entity.IdRange;
+import com.fly.data.sync.entity.UpdateData;
+import com.fly.data.sync.event.ChangeSet;
+import com.fly.data.sync.model.TestUser;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static com.fly.data.sync.constant.SyncConstant.STATE_APPLYING;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.*;
+
+/**
+ * @author guoxiang
+ * @version 1.0.0
+ * @since 2021/12/13
+ */
+class SyncDataServiceChangeSetTest {
+
+    private static final LocalDateTime TIME = LocalDateTime.of(2021, 12, 1, 10, 0);
+
+    private final ModelDao modelDao = mock(ModelDao.class);
+
+    private final EventDispatcher eventDispatcher = mock(EventDispatcher.class);
+
+    private final SyncStateDao syncStateDao = mock(SyncStateDao.class);
+
+    private final SyncDataContext syncDataContext = mock(SyncDataContext.class);
+
+    private final DataModel<TestUser> model = new DataModel<>(TestUser.class);
+
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void oneChangeSetPerRange() {
+        IdRange range = new IdRange(Long.MIN_VALUE, Long.MAX_VALUE);
+        when(syncStateDao.getPhase(model.getTable())).thenReturn(STATE_APPLYING);
+        when(modelDao.splitTempRange(any(), anyInt())).thenReturn(Collections.singletonList(range));
+        when(modelDao.addInRange(any(), any(), any())).thenAnswer(invocation -> {
+            invocation.<Consumer<List<TestUser>>>getArgument(2).accept(Collections.singletonList(user(1L, "a")));
+            return 1;
+        });
+        when(modelDao.deleteInRange(any(), any(), any())).thenAnswer(invocation -> {
+            invocation.<Consumer<List<TestUser>>>getArgument(2).accept(Collections.singletonList(user(2L, "b")));
+            return 1;
+        });
+        when(modelDao.updateInRange(any(), any(), any())).thenAnswer(invocation -> {
+            invocation.<Consumer<UpdateData<TestUser>>>getArgument(2).accept(new UpdateData<>(
+                    Collections.singletonList(user(3L, "c2")), Collections.singletonList(user(3L, "c"))));
+            return 1;
+        });
+
+        newService().syncTotal(model);
+
+        ArgumentCaptor<ChangeSet<TestUser>> captor = ArgumentCaptor.forClass(ChangeSet.class);
+        verify(eventDispatcher, times(1)).publish(captor.capture());
+        ChangeSet<TestUser> changeSet = captor.getValue();
+        assertThat(changeSet.size()).isEqualTo(3);
+        assertThat(changeSet.get(1L).getOperation()).isEqualTo(SyncOperation.ADD);
+        assertThat(changeSet.get(2L).getOperation()).isEqualTo(SyncOperation.DELETE);
+        assertThat(changeSet.get(3L).getOperation()).isEqualTo(SyncOperation.UPDATE);
+        assertThat(changeSet.get(3L).isChanged("name")).isTrue();
+        assertThat(changeSet.get(3L).isChanged("id")).isFalse();
+    }
+
+
+    private SyncDataService newService() {
+        doReturn(model).when(syncDataContext).getDataModel(model.getTable());
+        SyncDataService service = new SyncDataService(modelDao, eventDispatcher, mock(ReplicaCache.class),
+                mock(EtlService.class), syncDataContext, new LeaderElector(null, syncDataContext),
+                syncStateDao, mock(PlatformTransactionManager.class));
+        ReflectionTestUtils.setField(service, "applyChunked", true);
+        ReflectionTestUtils.setField(service, "applyParallelism", 1);
+        ReflectionTestUtils.setField(service, "changeSetMaxSize", 100);
+        service.init();
+        return service;
+    }
+
+
+    private static TestUser user(Long id, String name) {
+        return new TestUser(id, name, TIME);
+    }
+}
@@ -0,0 +1,135 @@
+package com.fly.data.sync.service;
+
+import com.fly.data.sync.config.SyncDataContext;
+import com.fly.data.sync.dao.ModelDao;
+import com.fly.data.sync.dao.SyncStateDao;
+import com.fly.data.sync.entity.DataModel;
+import com.fly.data.sync.entity.SyncMessage;
+import com.fly.data.sync.model.TestUser;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static com.fly.data.sync.constant.SyncConstant.*;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * @author guoxiang
+ * @version 1.0.0
+ * @since 2021/12/13
+ */
+class SyncDataServiceResumeTest {
+
+    private static final LocalDateTime TIME = LocalDateTime.of(2021, 12, 1, 10, 0);
+
+    private JdbcTemplate jdbcTemplate;
+
+    private DataSourceTransactionManager transactionManager;
+
+    private SyncStateDao syncStateDao;
+
+    private ModelDao modelDao;
+
+
+    @BeforeEach
+    void setUp() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(
+                "jdbc:h2:mem:resume;MODE=MySQL;DB_CLOSE_DELAY=-1");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        transactionManager = new DataSourceTransactionManager(dataSource);
+
+        //比对语句使用MySQL的多表删除/更新，H2不支持，这里只验证比对开始时临时表的内容
+        modelDao = spy(new ModelDao(jdbcTemplate, new NamedParameterJdbcTemplate(dataSource)));
+        syncStateDao = new SyncStateDao(jdbcTemplate, modelDao::getDialect);
+        ReflectionTestUtils.setField(modelDao, "chunkSize", 1000);
+        doReturn(0).when(modelDao).reviveInRange(any(), any(), any());
+        doReturn(0).when(modelDao).addInRange(any(), any(), any());
+        doReturn(0).when(modelDao).deleteInRange(any(), any(), any());
+        doReturn(0).when(modelDao).updateInRange(any(), any(), any());
+
+        for (String table : Arrays.asList("test_user", "test_user_temp")) {
+            jdbcTemplate.execute("create table " + table + " (id bigint primary key, name varchar(64), update_time timestamp)");
+        }
+    }
+
+
+    @AfterEach
+    void tearDown() {
+        jdbcTemplate.execute("drop table test_user");
+        jdbcTemplate.execute("drop table test_user_temp");
+        jdbcTemplate.execute("drop table if exists sync_data_state");
+        jdbcTemplate.execute("drop table if exists sync_data_dirty");
+    }
+
+
+    @Test
+    void deltaAfterCrashIsNotOverwrittenByStaleTemp() {
+        //上一个进程拉取完临时表、记录比对中标记后退出：主表只有1，临时表有1、2
+        insert("test_user", 1L, "a");
+        insert("test_user_temp", 1L, "a");
+        insert("test_user_temp", 2L, "b");
+        syncStateDao.createStateTableIfNotExist();
+        syncStateDao.savePhase("test_user", STATE_APPLYING);
+
+        //重启
+        DataModel<TestUser> model = new DataModel<>(TestUser.class);
+        SyncDataService service = newService(model);
+        assertThat(model.isApplyPending()).isTrue();
+
+        //恢复比对前的增量同步：删除1，新增3
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.execute(status -> {
+            service.syncMessages(Arrays.asList(
+                    new SyncMessage<>("test_user", DELETE, Collections.singletonList(1L), Collections.emptyList()),
+                    new SyncMessage<>("test_user", ADD, Collections.singletonList(3L),
+                            Collections.singletonList(new TestUser(3L, "c", TIME)))));
+            return null;
+        });
+        assertThat(syncStateDao.getDirtyIdList("test_user")).containsExactlyInAnyOrder("1", "3");
+
+        service.syncTotal(model);
+
+        //临时表以主表为准修正：不会重新新增1，也不会删除3
+        assertThat(jdbcTemplate.queryForList("select id from test_user_temp order by id", Long.class))
+                .containsExactly(2L, 3L);
+        verify(modelDao).updateInRange(any(), any(), any());
+        assertThat(syncStateDao.getPhase("test_user")).isNull();
+        assertThat(syncStateDao.getDirtyIdList("test_user")).isEmpty();
+        assertThat(model.isApplyPending()).isFalse();
+    }
+
+
+    private SyncDataService newService(DataModel<TestUser> model) {
+        SyncDataContext syncDataContext = mock(SyncDataContext.class);
+        doReturn(model).when(syncDataContext).getDataModel("test_user");
+        when(syncDataContext.getTableList()).thenReturn(Collections.singletonList("test_user"));
+
+        SyncDataService service = new SyncDataService(modelDao, mock(EventDispatcher.class), mock(ReplicaCache.class),
+                mock(EtlService.class), syncDataContext, new LeaderElector(null, syncDataContext),
+                syncStateDao, transactionManager);
+        ReflectionTestUtils.setField(service, "applyChunked", true);
+        ReflectionTestUtils.setField(service, "applyChunkRows", 10000);
+        ReflectionTestUtils.setField(service, "applyParallelism", 1);
+        service.init();
+        return service;
+    }
+
+
+    private void insert(String table, Long id, String name) {
+        jdbcTemplate.update("insert into " + table + " (id, name, update_time) values (?, ?, ?)",
+                id, name, Timestamp.valueOf(TIME));
+    }
+}
@@ -0,0 +1,109 @@
+package com.fly.data.sync.util;
+
+import com.fly.data.sync.dao.ModelBatchSetter;
+import com.fly.data.sync.entity.DataModel;
+import com.fly.data.sync.model.TestUser;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.jdbc.core.namedparam.BeanPropertySqlParameterSource;
+
+import java.lang.reflect.Method;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 属性访问器与反射的对比：按id字段取值，以及按insert参数顺序读取每行的全部字段（批量绑定参数时的读取方式）。
+ * 结果为每批1000行的耗时，运行main方法或：
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.fly.data.sync.util.PropertyAccessorBenchmark
+ *
+ * @author guoxiang
+ * @version 1.0.0
+ * @since 2021/12/13
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PropertyAccessorBenchmark {
+
+    private static final int ROWS = 1000;
+
+    private final List<TestUser> rowList = new ArrayList<>(ROWS);
+
+    private DataModel<TestUser> model;
+
+    private Method idGetter;
+
+    private PropertyAccessor[] accessors;
+
+    private String[] propertyNames;
+
+
+    @Setup
+    public void setUp() throws NoSuchMethodException {
+        model = new DataModel<>(TestUser.class);
+        idGetter = TestUser.class.getMethod("getId");
+        accessors = ModelBatchSetter.accessorsOf(model, model.getInsertParamIndex());
+        propertyNames = new String[accessors.length];
+        for (int i = 0; i < accessors.length; i++) {
+            propertyNames[i] = accessors[i].getName();
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        for (long i = 0; i < ROWS; i++) {
+            rowList.add(new TestUser(i, "name" + i, now));
+        }
+    }
+
+
+    @Benchmark
+    public void idByReflection(Blackhole blackhole) throws Exception {
+        for (TestUser row : rowList) {
+            blackhole.consume(idGetter.invoke(row));
+        }
+    }
+
+
+    @Benchmark
+    public void idByAccessor(Blackhole blackhole) {
+        for (TestUser row : rowList) {
+            blackhole.consume(model.getIdOf(row));
+        }
+    }
+
+
+    @Benchmark
+    public void paramsByBeanPropertySource(Blackhole blackhole) {
+        for (TestUser row : rowList) {
+            BeanPropertySqlParameterSource source = new BeanPropertySqlParameterSource(row);
+            for (String name : propertyNames) {
+                blackhole.consume(source.getValue(name));
+            }
+        }
+    }
+
+
+    @Benchmark
+    public void paramsByAccessor(Blackhole blackhole) {
+        for (TestUser row : rowList) {
+            for (PropertyAccessor accessor : accessors) {
+                blackhole.consume(accessor.get(row));
+            }
+        }
+    }
+
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(PropertyAccessorBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}